@@ -0,0 +1,93 @@
+/*
+ * Copyright 2025 Massimo Santini
+ *
+ * This file is part of "Programmazione 2 @ UniMI" teaching material.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this file.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package macchinette;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Misure delle operazioni di {@link Aggregato}.
+ *
+ * <p>aggiungi e rimuovi modificano l'aggregato: per misurarle su un valore sempre uguale, lo
+ * copiano prima; {@link #copia()} misura la sola copia, da sottrarre.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MisureAggregato {
+
+  private Aggregato base = Aggregato.parse("20 x .05, 20 x .10, 20 x .20, 10 x .50, 5 x 1, 2 x 2");
+  private Aggregato altro = Aggregato.parse("1 x .10, 2 x .20, 1 x 1");
+  private Aggregato uguale = new Aggregato(base);
+  private String testo = "20 x .05, 20 x .10, 20 x .20, 10 x .50, 5 x 1, 2 x 2";
+
+  @Benchmark
+  public Aggregato copia() {
+    return new Aggregato(base);
+  }
+
+  @Benchmark
+  public Aggregato aggiungi() {
+    Aggregato a = new Aggregato(base);
+    a.aggiungi(altro);
+    return a;
+  }
+
+  @Benchmark
+  public Aggregato rimuovi() throws AggregatoInsufficienteException {
+    Aggregato a = new Aggregato(base);
+    a.rimuovi(altro);
+    return a;
+  }
+
+  @Benchmark
+  public Importo valoreTotale() {
+    return base.valoreTotale();
+  }
+
+  @Benchmark
+  public boolean equals() {
+    return base.equals(uguale);
+  }
+
+  @Benchmark
+  public int iterator() {
+    int monete = 0;
+    for (Map.Entry<Moneta, Integer> e : base) monete += e.getValue();
+    return monete;
+  }
+
+  @Benchmark
+  public Aggregato parse() {
+    return Aggregato.parse(testo);
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2025 Massimo Santini
+ *
+ * This file is part of "Programmazione 2 @ UniMI" teaching material.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this file.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package macchinette;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Misure di {@link Distributore#eroga} e {@link Distributore#carica} su distributori piccoli e
+ * grandi.
+ *
+ * <p>Il distributore è ricreato a ogni iterazione con binari e fondo cassa abbastanza capienti da
+ * non esaurirsi durante l'iterazione: ogni erogazione riesce (pagamento di 2 euro per un prezzo di
+ * 1.70, resto di 30 centesimi) e ogni caricamento trova posto. Il fondo cassa contiene solo monete
+ * da 10 e 20 centesimi, perché il suo valore, che cresce di 1.70 a erogazione, resti
+ * rappresentabile da un importo per qualche milione di erogazioni.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MisureDistributore {
+
+  private static final int CAPACITA = 1 << 30;
+  private static final int SCORTA = 1 << 24;
+  private static final int MONETE = 1 << 23;
+
+  @Param({"8", "512"})
+  public int binari;
+
+  private Distributore distributore;
+  private Prodotto[] prodotti;
+  private Aggregato pagamento = Aggregato.parse("1 x 2");
+  private int prossimo;
+
+  @Setup(Level.Iteration)
+  public void prepara() {
+    List<Binario> lista = new ArrayList<>();
+    prodotti = new Prodotto[binari];
+    for (int i = 0; i < binari; i++) {
+      lista.add(new Binario(Taglia.L, CAPACITA));
+      prodotti[i] = new Prodotto("prodotto " + i, new Importo(1, 70), Taglia.values()[i % 3]);
+    }
+    Aggregato fondoCassa = new Aggregato();
+    fondoCassa.aggiungi(Moneta.CENT_10, MONETE);
+    fondoCassa.aggiungi(Moneta.CENT_20, MONETE);
+    distributore = new Distributore(lista, fondoCassa, StrategiaRestoH.INSTANCE);
+    for (Prodotto p : prodotti) distributore.carica(p, SCORTA);
+    prossimo = 0;
+  }
+
+  private int prossimo() {
+    int i = prossimo;
+    prossimo = i + 1 == binari ? 0 : i + 1;
+    return i;
+  }
+
+  @Benchmark
+  public Aggregato eroga() throws ErogazioneException {
+    return distributore.eroga(prossimo(), pagamento);
+  }
+
+  @Benchmark
+  public int carica() {
+    return distributore.carica(prodotti[prossimo()], 1);
+  }
+}
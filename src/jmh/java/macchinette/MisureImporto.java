@@ -0,0 +1,83 @@
+/*
+ * Copyright 2025 Massimo Santini
+ *
+ * This file is part of "Programmazione 2 @ UniMI" teaching material.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this file.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package macchinette;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Misure delle operazioni aritmetiche e del parsing di {@link Importo}. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MisureImporto {
+
+  // campi non final, perché il compilatore JIT non tratti gli operandi come costanti
+  private Importo a = new Importo(3, 70);
+  private Importo b = new Importo(1, 25);
+  private int n = 7;
+  private String breve = ".50";
+  private String lungo = "12.35";
+
+  @Benchmark
+  public Importo somma() {
+    return a.somma(b);
+  }
+
+  @Benchmark
+  public Importo sottrai() {
+    return a.sottrai(b);
+  }
+
+  @Benchmark
+  public Importo moltiplica() {
+    return a.moltiplica(n);
+  }
+
+  @Benchmark
+  public int dividi() {
+    return a.dividi(b);
+  }
+
+  @Benchmark
+  public int compareTo() {
+    return a.compareTo(b);
+  }
+
+  @Benchmark
+  public Importo parseBreve() {
+    return Importo.parse(breve);
+  }
+
+  @Benchmark
+  public Importo parseLungo() {
+    return Importo.parse(lungo);
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2025 Massimo Santini
+ *
+ * This file is part of "Programmazione 2 @ UniMI" teaching material.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this file.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package macchinette;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Misure del parsing di {@link Prodotto} e {@link Binario}. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MisureParsing {
+
+  private String prodotto = "Acqua naturale|.70|S";
+  private String binario = "10|M";
+
+  @Benchmark
+  public Prodotto prodotto() {
+    return Prodotto.parse(prodotto);
+  }
+
+  @Benchmark
+  public Binario binario() {
+    return Binario.parse(binario);
+  }
+}
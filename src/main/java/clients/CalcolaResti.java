@@ -1,36 +1,148 @@
 
 package clients;
 
+import java.util.ArrayDeque;
+import java.util.BitSet;
 import java.util.Optional;
-import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
 import macchinette.Aggregato;
+import macchinette.AggregatoBatch;
 import macchinette.Importo;
 import macchinette.StrategiaResto;
+import macchinette.StrategiaRestoAdattiva;
+import macchinette.StrategiaRestoEsatta;
 import macchinette.StrategiaRestoH;
 import macchinette.StrategiaRestoL;
 
 public class CalcolaResti {
+
+  // righe per blocco e blocchi in elaborazione per thread in modalità parallela
+  private static final int RIGHE_PER_BLOCCO = 1024;
+  private static final int BLOCCHI_PER_THREAD = 4;
+
+  // args: strategia (H, esatta, adattiva o L), resto ed eventualmente --parallel, che calcola i
+  // blocchi di righe in parallelo, o --batch, che calcola ogni blocco come lotto di aggregati con
+  // StrategiaResto.calcola(Importo, AggregatoBatch, AggregatoBatch); ogni riga è un aggregato e
+  // l'uscita è la stessa in tutte le modalità
   public static void main(String[] args) {
-    StrategiaResto strategia;
-    if (args[0].equals("H")) {
-      strategia = StrategiaRestoH.INSTANCE;
-    } else {
-      strategia = StrategiaRestoL.INSTANCE;
-    }
+    StrategiaResto strategia =
+        switch (args[0]) {
+          case "H" -> StrategiaRestoH.INSTANCE;
+          case "esatta" -> StrategiaRestoEsatta.INSTANCE;
+          case "adattiva" -> StrategiaRestoAdattiva.INSTANCE;
+          default -> StrategiaRestoL.INSTANCE;
+        };
     Importo resto = Importo.parse(args[1]);
-    Scanner scanner = new Scanner(System.in);
-
-    while (scanner.hasNextLine()) {
-      String line = scanner.nextLine();
-      Aggregato disponibile = Aggregato.parse(line);
-      
-      if (disponibile.valoreTotale().minoreDi(resto)) {
-        System.out.println("value");
+    boolean parallelo = args.length > 2 && args[2].equals("--parallel");
+    boolean lotti = args.length > 2 && args[2].equals("--batch");
+
+    try (LettoreRighe in = LettoreRighe.standardInput();
+        ScrittoreRighe out = ScrittoreRighe.standardOutput()) {
+      in.svuotaPrimaDiLeggere(out);
+      if (parallelo) {
+        calcolaInParallelo(in, out, strategia, resto);
+      } else if (lotti) {
+        calcolaALotti(in, out, strategia, resto);
       } else {
-        Optional<Aggregato> risultato = strategia.calcola(resto, disponibile);
-        System.out.println(risultato.isEmpty() ? "change" : risultato.get());
+        while (in.haRiga()) {
+          calcola(in.riga(), strategia, resto, out.buffer());
+          out.aCapo();
+        }
+      }
+    }
+  }
+
+  // aggiunge a sb ciò che va scritto per la riga (senza andare a capo)
+  private static void calcola(
+      CharSequence line, StrategiaResto strategia, Importo resto, StringBuilder sb) {
+    Aggregato disponibile = Aggregato.parse(line);
+
+    if (disponibile.valoreTotale().minoreDi(resto)) {
+      sb.append("value");
+    } else {
+      Optional<Aggregato> risultato = strategia.calcola(resto, disponibile);
+      if (risultato.isEmpty()) sb.append("change");
+      else risultato.get().appendTo(sb);
+    }
+  }
+
+  // legge le righe a blocchi e calcola i resti di ogni blocco in un'unica chiamata sul lotto
+  private static void calcolaALotti(
+      LettoreRighe in, ScrittoreRighe out, StrategiaResto strategia, Importo resto) {
+    Aggregato[] disponibili = new Aggregato[RIGHE_PER_BLOCCO];
+    while (in.haRiga()) {
+      AggregatoBatch lotto = new AggregatoBatch(RIGHE_PER_BLOCCO);
+      int n = 0;
+      while (n < disponibili.length && in.haRiga()) {
+        disponibili[n] = Aggregato.parse(in.riga());
+        lotto.aggiungi(disponibili[n++]);
       }
+      AggregatoBatch risultati = new AggregatoBatch(n);
+      BitSet calcolati = strategia.calcola(resto, lotto, risultati);
+      for (int i = 0; i < n; i++) {
+        if (disponibili[i].valoreTotale().minoreDi(resto)) out.buffer().append("value");
+        else if (!calcolati.get(i)) out.buffer().append("change");
+        else risultati.aggregato(i).appendTo(out.buffer());
+        out.aCapo();
+      }
+    }
+  }
+
+  // testo prodotto da un blocco di righe e l'eventuale eccezione che ne ha interrotto il calcolo
+  private static final class Blocco {
+    private final StringBuilder testo = new StringBuilder();
+    private RuntimeException errore;
+  }
+
+  // i blocchi sono calcolati nel pool e scritti nell'ordine di lettura: la coda dei blocchi in
+  // elaborazione fa da buffer di riordino e, essendo limitata, tiene limitata la memoria usata
+  private static void calcolaInParallelo(
+      LettoreRighe in, ScrittoreRighe out, StrategiaResto strategia, Importo resto) {
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    int finestra = BLOCCHI_PER_THREAD * pool.getParallelism();
+    ArrayDeque<CompletableFuture<Blocco>> inCorso = new ArrayDeque<>();
+
+    while (in.haRiga()) {
+      String[] righe = new String[RIGHE_PER_BLOCCO];
+      int n = 0;
+      // la riga del lettore è riusata: il blocco, calcolato più tardi, ne tiene una copia
+      while (n < righe.length && in.haRiga()) righe[n++] = in.riga().toString();
+      int numero = n;
+      inCorso.add(
+          CompletableFuture.supplyAsync(
+              () -> calcolaBlocco(righe, numero, strategia, resto), pool));
+      if (inCorso.size() >= finestra) scrivi(inCorso.remove(), out);
+    }
+    while (!inCorso.isEmpty()) scrivi(inCorso.remove(), out);
+  }
+
+  private static Blocco calcolaBlocco(
+      String[] righe, int n, StrategiaResto strategia, Importo resto) {
+    Blocco blocco = new Blocco();
+    try {
+      for (int i = 0; i < n; i++) {
+        calcola(righe[i], strategia, resto, blocco.testo);
+        blocco.testo.append(System.lineSeparator());
+      }
+    } catch (RuntimeException e) {
+      blocco.errore = e;
+    }
+    return blocco;
+  }
+
+  // scrive il testo del blocco; se il suo calcolo si è interrotto, rilancia l'eccezione come
+  // avrebbe fatto l'esecuzione sequenziale dopo aver scritto le righe precedenti
+  private static void scrivi(CompletableFuture<Blocco> futuro, ScrittoreRighe out) {
+    Blocco blocco;
+    try {
+      blocco = futuro.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+      throw e;
     }
-    scanner.close();
+    out.append(blocco.testo);
+    if (blocco.errore != null) throw blocco.errore;
   }
 }
@@ -1,26 +1,30 @@
 package clients;
-import java.util.Scanner;
 import macchinette.Binario;
 import macchinette.BinarioException;
-import macchinette.Prodotto;
+import macchinette.Catalogo;
 import macchinette.Taglia;
 
 public class CaricaBinario {
 
   public static void main(String[] args) {
     Binario binario = new Binario(Taglia.parse(args[1]), Integer.parseInt(args[0]));
-    System.out.println(binario);
-    Scanner scanner = new Scanner(System.in);
+    Catalogo catalogo = new Catalogo();
+    try (LettoreRighe in = LettoreRighe.standardInput();
+        ScrittoreRighe out = ScrittoreRighe.standardOutput()) {
+      in.svuotaPrimaDiLeggere(out);
+      binario.appendTo(out.buffer());
+      out.aCapo();
 
-    while (scanner.hasNextLine()) {
-      String[] parti = scanner.nextLine().split(",", 2);
-      try {
-        binario.carica(Prodotto.parse(parti[1].trim()), Integer.parseInt(parti[0].trim()));
-        System.out.println(binario);
-      } catch (BinarioException e) {
-        System.out.println(e.getMessage());
+      while (in.haRiga()) {
+        String[] parti = in.riga().toString().split(",", 2);
+        try {
+          binario.carica(catalogo.parse(parti[1].trim()), Integer.parseInt(parti[0].trim()));
+          binario.appendTo(out.buffer());
+          out.aCapo();
+        } catch (BinarioException e) {
+          out.riga(e.getMessage());
+        }
       }
     }
-    scanner.close();
   }
 }
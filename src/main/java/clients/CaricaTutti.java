@@ -0,0 +1,102 @@
+package clients;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import macchinette.Aggregato;
+import macchinette.Catalogo;
+import macchinette.Distributore;
+import macchinette.ErogazioneException;
+import macchinette.Prodotto;
+
+public class CaricaTutti {
+
+  // args: nessuno; le prime due righe sono i binari e il fondo cassa (come in UsaDistributore), le
+  // altre sono "* q, prodotto; q, prodotto; ...", che carica i prodotti con caricaTutti e stampa
+  // le unità non caricate di ciascuno, "+ q, prodotto", che carica con carica, "- prodotto,
+  // pagamento", che eroga per prodotto e stampa il resto e il binario da cui è uscito il
+  // prodotto, o "?", che stampa lo stato; ogni comando è eseguito anche su un secondo
+  // distributore, che carica sempre con carica, un prodotto alla volta, e dopo "*" e "-" si stampa
+  // se i due distributori sono ancora uguali
+  public static void main(String[] args) {
+    try (LettoreRighe in = LettoreRighe.standardInput();
+        ScrittoreRighe out = ScrittoreRighe.standardOutput()) {
+      String rigaBinari = in.riga().toString();
+      String rigaFondoCassa = in.riga().toString();
+      Distributore d = UsaDistributore.distributore(rigaBinari, rigaFondoCassa);
+      Distributore gemello = UsaDistributore.distributore(rigaBinari, rigaFondoCassa);
+      Catalogo catalogo = new Catalogo();
+
+      while (in.haRiga()) {
+        String line = in.riga().toString().trim();
+        try {
+          char comando = line.charAt(0);
+          String[] p = line.substring(1).trim().split(",", 2);
+          if (comando == '*') {
+            Map<Prodotto, Integer> carichi = new LinkedHashMap<>();
+            for (String carico : line.substring(1).split(";")) {
+              String[] qp = carico.trim().split(",", 2);
+              carichi.merge(
+                  catalogo.parse(qp[1].trim()), Integer.parseInt(qp[0].trim()), Integer::sum);
+            }
+            StringBuilder riga = new StringBuilder("*");
+            Map<Prodotto, Integer> rimasti = d.caricaTutti(carichi);
+            boolean uguale = true;
+            for (Map.Entry<Prodotto, Integer> e : rimasti.entrySet()) {
+              riga.append(' ').append(e.getValue());
+              uguale &= e.getValue() == gemello.carica(e.getKey(), carichi.get(e.getKey()));
+            }
+            out.riga(riga.append(' ').append(confronto(uguale, d, gemello)));
+          } else if (comando == '+') {
+            Prodotto prodotto = catalogo.parse(p[1].trim());
+            int quantita = Integer.parseInt(p[0].trim());
+            gemello.carica(prodotto, quantita);
+            out.riga("+ " + d.carica(prodotto, quantita));
+          } else if (comando == '-') {
+            Prodotto prodotto = catalogo.parse(p[0].trim());
+            Aggregato pagamento = Aggregato.parse(p[1].trim());
+            Map<Integer, String> prima = stato(d);
+            String esito;
+            try {
+              esito = d.erogaProdotto(prodotto, pagamento).toString();
+            } catch (ErogazioneException e) {
+              esito = e.getMessage();
+            }
+            String esitoGemello;
+            try {
+              esitoGemello = gemello.erogaProdotto(prodotto, pagamento).toString();
+            } catch (ErogazioneException e) {
+              esitoGemello = e.getMessage();
+            }
+            Map<Integer, String> dopo = stato(d);
+            int binario = -1;
+            for (int i : prima.keySet()) if (!prima.get(i).equals(dopo.get(i))) binario = i;
+            out.riga(
+                "- "
+                    + esito
+                    + (binario < 0 ? "" : " dal binario " + binario)
+                    + " "
+                    + confronto(esito.equals(esitoGemello), d, gemello));
+          } else {
+            SalvaIstantanea.stampa(out, d);
+          }
+        } catch (RuntimeException e) {
+          out.riga("! " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  // binari non vuoti del distributore, per indice
+  private static Map<Integer, String> stato(Distributore d) {
+    Map<Integer, String> stato = new HashMap<>();
+    d.forEachNonVuoto((bin, indice) -> stato.put(indice, bin.toString()));
+    return stato;
+  }
+
+  private static String confronto(boolean uguale, Distributore d, Distributore gemello) {
+    return uguale && stato(d).equals(stato(gemello)) && d.toString().equals(gemello.toString())
+        ? "uguale"
+        : "diverso";
+  }
+}
@@ -0,0 +1,146 @@
+package clients;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.SocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import macchinette.Aggregato;
+import macchinette.Distributore;
+import macchinette.Prodotto;
+
+public class CaricoServer {
+
+  private static final int MACCHINE = 4;
+  private static final String BINARI =
+      "1000000|L, 1000000|L, 1000000|L, 1000000|L, 1000000|L, 1000000|L, 1000000|L, 1000000|L";
+  private static final String FONDO_CASSA = "100000 x .10, 100000 x .20, 100000 x .50";
+
+  // le richieste si alternano tra carica, eroga e interrogazione
+  private static final String[] RICHIESTE = {"+ 1, Acqua|.70|S", "- 0, 1 x 1", "?"};
+  private static final Prodotto ACQUA = Prodotto.parse("Acqua|.70|S");
+  private static final Aggregato UN_EURO = Aggregato.parse("1 x 1");
+
+  // args: connessioni, richieste per connessione, finestra, indirizzo (porta TCP o unix:percorso)
+  // e formato (righe, predefinito, o binario, per le stesse richieste nel formato di Codifica)
+  public static void main(String[] args) throws Exception {
+    int connessioni = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+    int richieste = args.length > 1 ? Integer.parseInt(args[1]) : 60_000;
+    int finestra = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+    SocketAddress indirizzo = ServerDistributore.indirizzo(args.length > 3 ? args[3] : "0");
+    boolean binario = args.length > 4 && args[4].equals("binario");
+
+    List<Distributore> distributori = new ArrayList<>();
+    for (int i = 0; i < MACCHINE; i++)
+      distributori.add(UsaDistributore.distributore(BINARI, FONDO_CASSA));
+
+    try (ServerDistributore server = new ServerDistributore(distributori, indirizzo)) {
+      for (int giro = 0; giro < 2; giro++) {
+        long[] latenze = misura(server.indirizzo(), connessioni, richieste, finestra, binario);
+        String formato = binario ? ", binario" : "";
+        if (giro > 0) stampa(connessioni + " conn., finestra " + finestra + formato, latenze);
+      }
+    }
+  }
+
+  // ogni connessione invia una finestra di richieste e ne legge le risposte; la latenza di una
+  // richiesta va dall'invio della sua finestra alla lettura della sua risposta
+  private static long[] misura(
+      SocketAddress indirizzo, int connessioni, int richieste, int finestra, boolean binario)
+      throws Exception {
+    int finestre = richieste / finestra;
+    long[][] latenze = new long[connessioni][finestre * finestra];
+    List<Future<?>> client = new ArrayList<>();
+    long inizio = System.nanoTime();
+    ExecutorService esecutore = Executors.newVirtualThreadPerTaskExecutor();
+    try {
+      for (int c = 0; c < connessioni; c++) {
+        int macchina = c % MACCHINE;
+        long[] mie = latenze[c];
+        client.add(
+            esecutore.submit(
+                () -> {
+                  if (binario) binaria(indirizzo, macchina, finestra, mie);
+                  else aRighe(indirizzo, macchina, finestra, mie);
+                  return null;
+                }));
+      }
+      for (Future<?> f : client) f.get();
+    } finally {
+      esecutore.shutdownNow();
+    }
+    long durata = System.nanoTime() - inizio;
+
+    int perConnessione = finestre * finestra;
+    long[] tutte = new long[connessioni * perConnessione + 1];
+    for (int c = 0; c < connessioni; c++)
+      System.arraycopy(latenze[c], 0, tutte, c * perConnessione, perConnessione);
+    Arrays.sort(tutte, 0, tutte.length - 1);
+    tutte[tutte.length - 1] = durata;
+    return tutte;
+  }
+
+  // una connessione nel protocollo a righe; mie ha un elemento per richiesta
+  private static void aRighe(SocketAddress indirizzo, int macchina, int finestra, long[] mie)
+      throws IOException {
+    try (SocketChannel canale = ServerDistributore.connetti(indirizzo);
+        LettoreRighe in = new LettoreRighe(canale);
+        ScrittoreRighe out =
+            new ScrittoreRighe(new PrintStream(Channels.newOutputStream(canale), false))) {
+      String prefisso = macchina + " ";
+      for (int k = 0; k < mie.length; ) {
+        for (int j = 0; j < finestra; j++)
+          out.append(prefisso).riga(RICHIESTE[(k + j) % RICHIESTE.length]);
+        long t0 = System.nanoTime();
+        out.flush();
+        for (int j = 0; j < finestra; j++) {
+          in.riga();
+          mie[k++] = System.nanoTime() - t0;
+        }
+      }
+    }
+  }
+
+  // le stesse richieste di aRighe, nel formato binario
+  private static void binaria(SocketAddress indirizzo, int macchina, int finestra, long[] mie)
+      throws IOException {
+    try (ClienteBinario cliente = new ClienteBinario(ServerDistributore.connetti(indirizzo))) {
+      StringBuilder risposta = new StringBuilder();
+      for (int k = 0; k < mie.length; ) {
+        for (int j = 0; j < finestra; j++) {
+          switch ((k + j) % RICHIESTE.length) {
+            case 0 -> cliente.carica(macchina, ACQUA, 1);
+            case 1 -> cliente.eroga(macchina, 0, UN_EURO);
+            default -> cliente.interroga(macchina);
+          }
+        }
+        long t0 = System.nanoTime();
+        cliente.invia();
+        for (int j = 0; j < finestra; j++) {
+          risposta.setLength(0);
+          cliente.risposta(risposta);
+          mie[k++] = System.nanoTime() - t0;
+        }
+      }
+    }
+  }
+
+  // l'ultimo elemento di latenze è la durata complessiva
+  private static void stampa(String nome, long[] latenze) {
+    int n = latenze.length - 1;
+    long durata = latenze[n];
+    System.out.printf(
+        "%-24s %,12.0f req/s  p50 %,8.2f us  p99 %,8.2f us  p99.9 %,8.2f us%n",
+        nome,
+        n * 1e9 / durata,
+        latenze[(int) (n * .50)] / 1e3,
+        latenze[(int) (n * .99)] / 1e3,
+        latenze[(int) (n * .999)] / 1e3);
+  }
+}
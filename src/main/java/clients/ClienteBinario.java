@@ -0,0 +1,173 @@
+package clients;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import macchinette.Aggregato;
+import macchinette.Catalogo;
+import macchinette.Codifica;
+import macchinette.Prodotto;
+
+/**
+ * Client del formato binario di {@link ServerDistributore} su una connessione già aperta.
+ *
+ * <p>Le richieste sono accodate in un buffer e spedite tutte insieme da {@link #invia}; le
+ * risposte, nello stesso ordine, sono lette da {@link #risposta} e tradotte nella riga che il
+ * protocollo a righe avrebbe dato per la stessa richiesta. Il catalogo tiene gli identificativi
+ * dei prodotti già definiti sulla connessione, come quello del server.
+ */
+final class ClienteBinario implements AutoCloseable {
+
+  private final SocketChannel canale;
+  private final Catalogo catalogo = new Catalogo();
+  private final ByteBuffer richiesta = ByteBuffer.allocate(ServerDistributore.MAX_RICHIESTA);
+  private final ByteBuffer uscita = ByteBuffer.allocateDirect(1 << 16);
+  private ByteBuffer entrata = ByteBuffer.allocateDirect(1 << 16).flip();
+
+  /**
+   * Passa la connessione al formato binario con la richiesta {@code @binario}.
+   *
+   * @throws IOException se il server non accetta il passaggio o la connessione si chiude
+   */
+  ClienteBinario(SocketChannel canale) throws IOException {
+    this.canale = canale;
+    ByteBuffer saluto = ByteBuffer.wrap("@binario\n".getBytes(StandardCharsets.UTF_8));
+    while (saluto.hasRemaining()) canale.write(saluto);
+    // il server non invia altro dopo la risposta finché non riceve richieste
+    StringBuilder riga = new StringBuilder();
+    while (true) {
+      if (!entrata.hasRemaining()) riempi();
+      char c = (char) entrata.get();
+      if (c == '\n') break;
+      riga.append(c);
+    }
+    if (!riga.toString().trim().equals("@ binario")) throw new IOException(riga.toString());
+  }
+
+  /** Accoda il caricamento di q unità del prodotto nella macchina indicata. */
+  void carica(int macchina, Prodotto prodotto, int q) throws IOException {
+    inizia(macchina);
+    Codifica.scriviCarica(richiesta, catalogo, prodotto, q);
+    accoda();
+  }
+
+  /** Accoda l'erogazione dal binario indicato della macchina. */
+  void eroga(int macchina, int binario, Aggregato pagamento) throws IOException {
+    inizia(macchina);
+    Codifica.scriviEroga(richiesta, binario, pagamento);
+    accoda();
+  }
+
+  /** Accoda l'erogazione del prodotto dalla macchina indicata. */
+  void erogaProdotto(int macchina, Prodotto prodotto, Aggregato pagamento) throws IOException {
+    inizia(macchina);
+    Codifica.scriviErogaProdotto(richiesta, catalogo, prodotto, pagamento);
+    accoda();
+  }
+
+  /** Accoda l'interrogazione dei binari non vuoti della macchina indicata. */
+  void interroga(int macchina) throws IOException {
+    inizia(macchina);
+    Codifica.scriviInterroga(richiesta);
+    accoda();
+  }
+
+  private void inizia(int macchina) {
+    richiesta.clear();
+    Codifica.scriviVarint(richiesta, macchina);
+  }
+
+  // la richiesta (che entra sempre nel buffer, vuoto o no, per come è dimensionato) passa nella
+  // coda di uscita, svuotata prima se non c'è spazio
+  private void accoda() throws IOException {
+    richiesta.flip();
+    if (richiesta.remaining() + 5 > uscita.remaining()) invia();
+    Codifica.scriviVarint(uscita, richiesta.remaining());
+    uscita.put(richiesta);
+  }
+
+  /** Spedisce le richieste accodate. */
+  void invia() throws IOException {
+    uscita.flip();
+    while (uscita.hasRemaining()) canale.write(uscita);
+    uscita.clear();
+  }
+
+  /**
+   * Legge la prossima risposta e aggiunge a sb la riga corrispondente del protocollo a righe.
+   *
+   * @throws IOException se la connessione si chiude o la risposta è malformata
+   */
+  void risposta(StringBuilder sb) throws IOException {
+    int lunghezza;
+    while (true) {
+      int inizio = entrata.position();
+      try {
+        lunghezza = Codifica.leggiVarint(entrata);
+        if (entrata.remaining() >= lunghezza) break;
+      } catch (BufferUnderflowException e) {
+        // lunghezza incompleta
+      }
+      entrata.position(inizio);
+      if (lunghezza(entrata) > entrata.capacity()) {
+        ByteBuffer piuGrande = ByteBuffer.allocateDirect(2 * entrata.capacity());
+        entrata = piuGrande.put(entrata).flip();
+      }
+      riempi();
+    }
+    int fine = entrata.position() + lunghezza;
+    try {
+      byte tipo = entrata.get();
+      switch (tipo) {
+        case Codifica.CARICA -> sb.append("+ ").append(Codifica.leggiVarint(entrata));
+        case Codifica.EROGA -> Codifica.leggiAggregato(entrata).appendTo(sb.append("- "));
+        case Codifica.INTERROGA -> {
+          sb.append('?');
+          for (int n = Codifica.leggiVarint(entrata), k = 0; k < n; k++) {
+            if (k > 0) sb.append(" ;");
+            int indice = Codifica.leggiVarint(entrata);
+            Prodotto p = Codifica.leggiProdotto(entrata);
+            sb.append(' ').append(indice).append(" | ").append(p.nome()).append(" | ");
+            p.prezzo().appendTo(sb);
+          }
+        }
+        case ServerDistributore.ERRORE -> sb.append(Codifica.leggiStringa(entrata));
+        default -> throw new IOException("tipo di risposta sconosciuto: " + tipo);
+      }
+      if (entrata.position() != fine) throw new IOException("risposta malformata");
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException("risposta malformata", e);
+    }
+  }
+
+  // byte necessari per la risposta in testa al buffer (almeno uno in più se non sono noti)
+  private static int lunghezza(ByteBuffer buf) {
+    int inizio = buf.position();
+    try {
+      int n = Codifica.leggiVarint(buf);
+      return buf.position() - inizio + n;
+    } catch (BufferUnderflowException e) {
+      return buf.remaining() + 1;
+    } finally {
+      buf.position(inizio);
+    }
+  }
+
+  // aggiunge al buffer di entrata altri byte dal canale
+  private void riempi() throws IOException {
+    entrata.compact();
+    try {
+      if (canale.read(entrata) < 0) throw new EOFException("connessione chiusa");
+    } finally {
+      entrata.flip();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    canale.close();
+  }
+}
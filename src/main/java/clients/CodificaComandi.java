@@ -0,0 +1,81 @@
+package clients;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import macchinette.Aggregato;
+import macchinette.Catalogo;
+import macchinette.Codifica;
+import macchinette.Prodotto;
+
+public class CodificaComandi {
+
+  // args: capacità in byte del buffer di scrittura (64 se assente); ogni riga è un comando
+  // "+ quantità, prodotto", "- binario, pagamento", "* prodotto, pagamento" o "?", codificato con
+  // Codifica in un buffer che, quando è pieno, viene svuotato in un flusso di byte; alla fine il
+  // flusso è riletto con un altro catalogo e i comandi letti sono stampati uno per riga
+  public static void main(String[] args) {
+    int capacita = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+    ByteBuffer buf = ByteBuffer.allocate(capacita);
+    ByteArrayOutputStream flusso = new ByteArrayOutputStream();
+    Catalogo scrittura = new Catalogo();
+
+    try (LettoreRighe in = LettoreRighe.standardInput();
+        ScrittoreRighe out = ScrittoreRighe.standardOutput()) {
+      while (in.haRiga()) {
+        String line = in.riga().toString();
+        try {
+          char comando = line.charAt(0);
+          String[] p = line.substring(1).trim().split(",", 2);
+          for (int tentativo = 0; ; tentativo++) {
+            try {
+              if (comando == '+')
+                Codifica.scriviCarica(
+                    buf, scrittura, Prodotto.parse(p[1].trim()), Integer.parseInt(p[0].trim()));
+              else if (comando == '-')
+                Codifica.scriviEroga(
+                    buf, Integer.parseInt(p[0].trim()), Aggregato.parse(p[1].trim()));
+              else if (comando == '*')
+                Codifica.scriviErogaProdotto(
+                    buf, scrittura, Prodotto.parse(p[0].trim()), Aggregato.parse(p[1].trim()));
+              else if (comando == '?' && p[0].isEmpty()) Codifica.scriviInterroga(buf);
+              else throw new IllegalArgumentException("comando sconosciuto");
+              break;
+            } catch (BufferOverflowException e) {
+              if (tentativo > 0) throw e;
+              svuota(buf, flusso);
+            }
+          }
+        } catch (BufferOverflowException e) {
+          out.riga("! comando troppo lungo: " + line);
+        } catch (RuntimeException e) {
+          out.riga("! comando non valido: " + line);
+        }
+      }
+      svuota(buf, flusso);
+
+      byte[] byteScritti = flusso.toByteArray();
+      out.riga(byteScritti.length + " byte");
+      ByteBuffer lettura = ByteBuffer.wrap(byteScritti);
+      Catalogo catalogo = new Catalogo();
+      Codifica.Comando c = new Codifica.Comando();
+      while (lettura.hasRemaining()) {
+        switch (Codifica.leggiComando(lettura, catalogo, c)) {
+          case Codifica.PRODOTTO ->
+              out.riga("prodotto " + c.idProdotto() + " " + catalogo.prodotto(c.idProdotto()));
+          case Codifica.CARICA -> out.riga("carica " + c.idProdotto() + " " + c.quantita());
+          case Codifica.EROGA -> out.riga("eroga " + c.indiceBinario() + " " + c.pagamento());
+          case Codifica.EROGA_PRODOTTO ->
+              out.riga("eroga prodotto " + c.idProdotto() + " " + c.pagamento());
+          default -> out.riga("interroga");
+        }
+      }
+    }
+  }
+
+  private static void svuota(ByteBuffer buf, ByteArrayOutputStream flusso) {
+    buf.flip();
+    flusso.write(buf.array(), 0, buf.limit());
+    buf.clear();
+  }
+}
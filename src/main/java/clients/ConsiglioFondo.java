@@ -0,0 +1,266 @@
+package clients;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+import macchinette.Aggregato;
+import macchinette.Binario;
+import macchinette.Distributore;
+import macchinette.ErogazioneException;
+import macchinette.Importo;
+import macchinette.Moneta;
+import macchinette.Prodotto;
+import macchinette.StrategiaResto;
+import macchinette.StrategiaRestoAdattiva;
+import macchinette.StrategiaRestoH;
+import macchinette.Taglia;
+
+/**
+ * Consiglia il fondo cassa iniziale più piccolo che mantiene la frazione di vendite rifiutate per
+ * mancanza di resto sotto un obiettivo, simulando in parallelo molte giornate di vendite.
+ *
+ * <p>Ogni giornata parte da un distributore con il fondo cassa da valutare e abbastanza prodotti
+ * da non esaurirli, ed esegue le vendite generate da {@link GeneratoreCarico} (modalità di
+ * pagamento secondo i suoi parametri, prezzi dei prodotti della macchina o, se non sono indicati,
+ * di prodotti sintetici), contando i rifiuti per CHANGE. Tutti i fondi provati sono
+ * valutati sulle stesse giornate, così che le differenze tra fondi non dipendano dal caso. La
+ * ricerca prima trova il minimo numero k per cui k monete di ogni taglio bastano, poi riduce un
+ * taglio alla volta, dal più grande al più piccolo, al minimo che mantiene l'obiettivo.
+ *
+ * <p>Con la strategia addestrata, per ogni fondo provato le soglie di {@link
+ * StrategiaRestoAdattiva} sono ricavate con {@link StrategiaRestoAdattiva#addestra} dalle vendite
+ * di una giornata a parte, diversa da quelle su cui il fondo è valutato.
+ */
+public class ConsiglioFondo {
+
+  private static final Moneta[] MONETE = Moneta.values();
+  private static final int MASSIMO = 1 << 16; // monete per taglio oltre cui si rinuncia
+
+  private final GeneratoreCarico.Parametri parametri;
+  private final List<Prodotto> prodotti; // vuota per i prodotti sintetici del generatore
+  private final StrategiaResto strategia; // null per la strategia addestrata
+  private final int simulazioni;
+  private final int vendite;
+  private final LongAdder simulate = new LongAdder();
+
+  private ConsiglioFondo(
+      GeneratoreCarico.Parametri parametri,
+      List<Prodotto> prodotti,
+      StrategiaResto strategia,
+      int simulazioni,
+      int vendite) {
+    this.parametri = parametri;
+    this.prodotti = prodotti;
+    this.strategia = strategia;
+    this.simulazioni = simulazioni;
+    this.vendite = vendite;
+  }
+
+  // args: chiave=valore per i parametri dei pagamenti (vedi GeneratoreCarico.Parametri; i
+  // caricamenti sono esclusi) e per strategia (come in StrategiaResto.perNome, o addestrata, che
+  // confronta il fondo consigliato con quello per le soglie predefinite), obiettivo (frazione
+  // massima di vendite rifiutate per CHANGE, predefinito 0.01), simulazioni (giornate simulate per
+  // ogni fondo, 64), vendite (per giornata, 500) e monete (tagli ammessi, ad esempio .10,.20,.50,1;
+  // tutti se assente); con listino=- i prodotti della macchina sono letti dall'input, uno per riga
+  // nel formato di Prodotto.parse, dal più al meno venduto. Il consiglio è stampato sull'output,
+  // la velocità della simulazione sull'errore standard, perché cambia da un'esecuzione all'altra
+  public static void main(String[] args) {
+    GeneratoreCarico.Parametri parametri = new GeneratoreCarico.Parametri();
+    StrategiaResto strategia = StrategiaRestoH.INSTANCE;
+    double obiettivo = 0.01;
+    int simulazioni = 64;
+    int vendite = 500;
+    boolean[] ammesse = new boolean[MONETE.length];
+    Arrays.fill(ammesse, true);
+    List<Prodotto> prodotti = new ArrayList<>();
+    for (String arg : parametri.imposta(args)) {
+      String[] kv = arg.split("=", 2);
+      if (kv.length != 2) throw new IllegalArgumentException("argomento non valido: " + arg);
+      switch (kv[0]) {
+        case "strategia" ->
+            strategia = kv[1].equals("addestrata") ? null : StrategiaResto.perNome(kv[1]);
+        case "obiettivo" -> obiettivo = Double.parseDouble(kv[1]);
+        case "simulazioni" -> simulazioni = Integer.parseInt(kv[1]);
+        case "vendite" -> vendite = Integer.parseInt(kv[1]);
+        case "monete" -> ammesse = monete(kv[1]);
+        case "listino" -> prodotti = listino(kv[1]);
+        default -> throw new IllegalArgumentException("parametro sconosciuto: " + kv[0]);
+      }
+    }
+    parametri.ricariche = 0;
+    parametri.tasso = 0;
+
+    ConsiglioFondo consiglio =
+        new ConsiglioFondo(parametri, prodotti, strategia, simulazioni, vendite);
+    long inizio = System.nanoTime();
+    int[] fondo = consiglio.cerca(ammesse, obiettivo);
+    consiglio.stampa("fondo consigliato", fondo, obiettivo);
+    if (strategia == null) {
+      if (fondo != null)
+        System.out.println(
+            "soglie addestrate per il fondo consigliato: "
+                + consiglio.addestrata(aggregato(fondo)).nome());
+      ConsiglioFondo predefinite =
+          new ConsiglioFondo(
+              parametri, prodotti, StrategiaRestoAdattiva.INSTANCE, simulazioni, vendite);
+      predefinite.stampa(
+          "con le soglie predefinite (" + StrategiaRestoAdattiva.INSTANCE.nome() + ")",
+          predefinite.cerca(ammesse, obiettivo),
+          obiettivo);
+      consiglio.simulate.add(predefinite.simulate.sum());
+    }
+    long durata = System.nanoTime() - inizio;
+    long simulate = consiglio.simulate.sum();
+    System.err.printf(
+        "%,d vendite simulate in %.2f s: %,.0f vendite/s%n",
+        simulate, durata / 1e9, simulate * 1e9 / durata);
+  }
+
+  private void stampa(String titolo, int[] fondo, double obiettivo) {
+    if (fondo == null) {
+      System.out.printf(
+          "%s: nessun fondo con al più %d monete per taglio rispetta l'obiettivo%n",
+          titolo, MASSIMO);
+    } else {
+      double tasso = tassoRifiuti(fondo);
+      Aggregato a = aggregato(fondo);
+      System.out.printf(
+          "%s: %s (%s), rifiuti per CHANGE %.3f%% (obiettivo %.3f%%)%n",
+          titolo, a.vuoto() ? "<>" : a, a.valoreTotale(), 100 * tasso, 100 * obiettivo);
+    }
+  }
+
+  // i prodotti letti dall'input, se il listino è "-"
+  private static List<Prodotto> listino(String sorgente) {
+    if (!sorgente.equals("-"))
+      throw new IllegalArgumentException("listino non valido: " + sorgente);
+    List<Prodotto> prodotti = new ArrayList<>();
+    try (LettoreRighe in = LettoreRighe.standardInput()) {
+      while (in.haRiga()) {
+        String line = in.riga().toString().trim();
+        if (!line.isEmpty()) prodotti.add(Prodotto.parse(line));
+      }
+    }
+    if (prodotti.isEmpty()) throw new IllegalArgumentException("listino vuoto");
+    return prodotti;
+  }
+
+  private static boolean[] monete(String elenco) {
+    boolean[] ammesse = new boolean[MONETE.length];
+    for (String s : elenco.split(","))
+      ammesse[
+              Moneta.parse(s.trim())
+                  .orElseThrow(() -> new IllegalArgumentException("moneta non valida: " + s))
+                  .ordinal()] =
+          true;
+    return ammesse;
+  }
+
+  private static Aggregato aggregato(int[] fondo) {
+    Aggregato a = new Aggregato();
+    for (Moneta m : MONETE) if (fondo[m.ordinal()] > 0) a.aggiungi(m, fondo[m.ordinal()]);
+    return a;
+  }
+
+  // restituisce il fondo trovato (quantità per ordinale di moneta) o null se non ce n'è uno con
+  // al più MASSIMO monete per taglio
+  private int[] cerca(boolean[] ammesse, double obiettivo) {
+    // prima fase: k monete di ogni taglio ammesso, con k minimo (ricerca esponenziale e binaria)
+    int alto = 1;
+    while (tassoRifiuti(uniforme(ammesse, alto)) > obiettivo) {
+      if (alto == MASSIMO) return null;
+      alto *= 2;
+    }
+    int basso = alto / 2; // non basta, tranne che per alto == 1, dove si prova anche 0
+    if (alto == 1 && tassoRifiuti(uniforme(ammesse, 0)) <= obiettivo) alto = 0;
+    while (alto - basso > 1) {
+      int medio = (basso + alto) >>> 1;
+      if (tassoRifiuti(uniforme(ammesse, medio)) <= obiettivo) alto = medio;
+      else basso = medio;
+    }
+    int[] fondo = uniforme(ammesse, alto);
+
+    // seconda fase: ogni taglio, dal più grande, ridotto al minimo che mantiene l'obiettivo
+    for (int m = MONETE.length - 1; m >= 0; m--) {
+      int sufficiente = fondo[m];
+      int insufficiente = -1;
+      while (sufficiente - insufficiente > 1) {
+        int medio = (insufficiente + sufficiente) >>> 1;
+        fondo[m] = medio;
+        if (tassoRifiuti(fondo) <= obiettivo) sufficiente = medio;
+        else insufficiente = medio;
+      }
+      fondo[m] = sufficiente;
+    }
+    return fondo;
+  }
+
+  private static int[] uniforme(boolean[] ammesse, int k) {
+    int[] fondo = new int[MONETE.length];
+    for (int m = 0; m < fondo.length; m++) if (ammesse[m]) fondo[m] = k;
+    return fondo;
+  }
+
+  // frazione delle vendite rifiutate per CHANGE, su tutte le giornate (in parallelo)
+  private double tassoRifiuti(int[] fondo) {
+    Aggregato fondoCassa = aggregato(fondo);
+    StrategiaResto s = strategia != null ? strategia : addestrata(fondoCassa);
+    long rifiuti =
+        IntStream.range(0, simulazioni).parallel().mapToLong(g -> giornata(fondoCassa, s, g)).sum();
+    simulate.add((long) simulazioni * vendite);
+    return (double) rifiuti / ((long) simulazioni * vendite);
+  }
+
+  // le giornate valutate hanno i semi successivi a parametri.seme, quella dell'addestramento
+  // parametri.seme
+  private GeneratoreCarico generatore(long seme) {
+    return prodotti.isEmpty()
+        ? new GeneratoreCarico(parametri, seme)
+        : new GeneratoreCarico(parametri, prodotti, seme);
+  }
+
+  // strategia adattiva con le soglie ricavate dalle vendite della giornata di addestramento
+  private StrategiaRestoAdattiva addestrata(Aggregato fondoCassa) {
+    GeneratoreCarico generatore = generatore(parametri.seme);
+    GeneratoreCarico.Operazione op = new GeneratoreCarico.Operazione();
+    List<Importo> prezzi = new ArrayList<>();
+    List<Aggregato> pagamenti = new ArrayList<>();
+    for (int i = 0; i < vendite; i++) {
+      generatore.prossima(op);
+      // le vendite pagate meno del prezzo sono rifiutate prima di calcolare il resto
+      if (op.pagamento.valoreTotale().minoreDi(op.prodotto.prezzo())) continue;
+      prezzi.add(op.prodotto.prezzo());
+      pagamenti.add(op.pagamento);
+    }
+    return StrategiaRestoAdattiva.addestra(fondoCassa, prezzi, pagamenti);
+  }
+
+  // simula la giornata g e restituisce il numero di vendite rifiutate per CHANGE
+  private long giornata(Aggregato fondoCassa, StrategiaResto strategia, int g) {
+    GeneratoreCarico generatore = generatore(parametri.seme + g + 1);
+    List<Binario> binari = new ArrayList<>();
+    Map<Prodotto, Integer> scorte = new LinkedHashMap<>();
+    for (Prodotto p : generatore.prodotti()) {
+      binari.add(new Binario(Taglia.L, vendite));
+      scorte.put(p, vendite);
+    }
+    Distributore distributore = new Distributore(binari, fondoCassa, strategia);
+    distributore.caricaTutti(scorte);
+
+    GeneratoreCarico.Operazione op = new GeneratoreCarico.Operazione();
+    long rifiuti = 0;
+    for (int i = 0; i < vendite; i++) {
+      generatore.prossima(op);
+      try {
+        distributore.erogaProdotto(op.prodotto, op.pagamento);
+      } catch (ErogazioneException e) {
+        if (e.motivo() == ErogazioneException.Motivo.CHANGE) rifiuti++;
+      }
+    }
+    return rifiuti;
+  }
+}
@@ -0,0 +1,75 @@
+package clients;
+
+import java.util.Locale;
+import macchinette.Aggregato;
+import macchinette.Catalogo;
+import macchinette.Distributore;
+import macchinette.ErogazioneException;
+import macchinette.Moneta;
+import macchinette.StrategiaRestoH;
+
+public class ConsumiSimulati {
+
+  // istante dell'orologio simulato, in nanosecondi
+  private static long adesso;
+
+  // args: nessuno; le prime due righe sono i binari e il fondo cassa (come in UsaDistributore), le
+  // altre sono i comandi + e - di UsaDistributore, "attendi s", che fa avanzare di s secondi
+  // l'orologio simulato delle stime dei consumi, "velocita i", che stampa la velocità stimata di
+  // erogazione del binario i (in unità all'ora) e il tempo stimato al suo svuotamento (in secondi),
+  // o "moneta m", che stampa il tempo stimato all'esaurimento della moneta m (in secondi)
+  public static void main(String[] args) {
+    try (LettoreRighe in = LettoreRighe.standardInput();
+        ScrittoreRighe out = ScrittoreRighe.standardOutput()) {
+      String rigaBinari = in.riga().toString();
+      Distributore d =
+          UsaDistributore.distributore(
+              rigaBinari, in.riga().toString(), StrategiaRestoH.INSTANCE, () -> adesso);
+      Catalogo catalogo = new Catalogo();
+
+      while (in.haRiga()) {
+        String line = in.riga().toString().trim();
+        try {
+          if (line.startsWith("attendi")) {
+            adesso += (long) (Double.parseDouble(line.substring(7).trim()) * 1e9);
+            out.riga(line);
+          } else if (line.startsWith("velocita")) {
+            int i = Integer.parseInt(line.substring(8).trim());
+            out.riga(
+                line
+                    + " "
+                    + numero(d.velocitaErogazione(i) * 3600)
+                    + " "
+                    + numero(d.secondiAlloSvuotamento(i)));
+          } else if (line.startsWith("moneta")) {
+            Moneta m =
+                Moneta.parse(line.substring(6).trim())
+                    .orElseThrow(() -> new IllegalArgumentException("moneta non valida"));
+            out.riga(line + " " + numero(d.secondiAllEsaurimento(m)));
+          } else {
+            char comando = line.charAt(0);
+            String[] p = line.substring(1).trim().split(",", 2);
+            if (comando == '+') {
+              int nonCaricati =
+                  d.carica(catalogo.parse(p[1].trim()), Integer.parseInt(p[0].trim()));
+              out.riga("+ " + nonCaricati);
+            } else if (comando == '-') {
+              try {
+                out.riga(
+                    "- " + d.eroga(Integer.parseInt(p[0].trim()), Aggregato.parse(p[1].trim())));
+              } catch (ErogazioneException e) {
+                out.riga("- " + e.getMessage());
+              }
+            }
+          }
+        } catch (RuntimeException e) {
+          out.riga("! " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  private static String numero(double x) {
+    return Double.isInfinite(x) ? "infinito" : String.format(Locale.ROOT, "%.3f", x);
+  }
+}
@@ -0,0 +1,214 @@
+package clients;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import macchinette.Aggregato;
+import macchinette.Importo;
+import macchinette.Moneta;
+import macchinette.Prodotto;
+import macchinette.Taglia;
+
+/**
+ * Generatore di un flusso sintetico di caricamenti e acquisti per un distributore.
+ *
+ * <p>La popolarità dei prodotti segue una distribuzione di Zipf; ogni acquisto è pagato con le
+ * monete esatte, arrotondando all'euro con monete da 1 e 2 euro o solo con monete da 2 euro,
+ * secondo le proporzioni indicate; gli arrivi, se è fissato un tasso, sono un processo di Poisson
+ * che alterna fasi normali e raffiche in cui il tasso è moltiplicato per un fattore. Lo stesso
+ * seme produce sempre lo stesso flusso.
+ */
+final class GeneratoreCarico {
+
+  /** Parametri del carico, modificabili con argomenti {@code chiave=valore}. */
+  static final class Parametri {
+    int prodotti = 40; // prodotti distinti
+    double zipf = 1.0; // esponente della distribuzione di popolarità
+    double ricariche = 0.1; // frazione delle operazioni che sono caricamenti
+    int lotto = 10; // prodotti per caricamento
+    double esatti = 0.5; // frazione dei pagamenti con monete esatte
+    double arrotondati = 0.3; // frazione dei pagamenti arrotondati all'euro (gli altri: 2 euro)
+    double tasso = 0; // operazioni al secondo (0: ciascuna appena finita la precedente)
+    double raffiche = 0; // frazione delle fasi che sono raffiche
+    double fattoreRaffica = 10; // moltiplicatore del tasso durante le raffiche
+    int durataFase = 1000; // operazioni per fase, in media
+    long seme = 1;
+
+    /**
+     * Imposta i parametri indicati come {@code chiave=valore}, restituendo gli argomenti che non
+     * corrispondono ad alcun parametro.
+     */
+    List<String> imposta(String[] args) {
+      List<String> altri = new ArrayList<>();
+      for (String arg : args) {
+        String[] kv = arg.split("=", 2);
+        String v = kv.length == 2 ? kv[1] : "";
+        switch (kv[0]) {
+          case "prodotti" -> prodotti = Integer.parseInt(v);
+          case "zipf" -> zipf = Double.parseDouble(v);
+          case "ricariche" -> ricariche = Double.parseDouble(v);
+          case "lotto" -> lotto = Integer.parseInt(v);
+          case "esatti" -> esatti = Double.parseDouble(v);
+          case "arrotondati" -> arrotondati = Double.parseDouble(v);
+          case "tasso" -> tasso = Double.parseDouble(v);
+          case "raffiche" -> raffiche = Double.parseDouble(v);
+          case "fattoreRaffica" -> fattoreRaffica = Double.parseDouble(v);
+          case "durataFase" -> durataFase = Integer.parseInt(v);
+          case "seme" -> seme = Long.parseLong(v);
+          default -> altri.add(arg);
+        }
+      }
+      return altri;
+    }
+  }
+
+  enum Tipo {
+    CARICA,
+    ACQUISTO
+  }
+
+  /** Operazione generata; lo stesso oggetto è riusato per tutte le operazioni. */
+  static final class Operazione {
+    Tipo tipo;
+    Prodotto prodotto;
+    int quantita; // prodotti da caricare
+    Aggregato pagamento; // da non modificare: è condiviso tra le operazioni
+    long arrivo; // istante previsto di arrivo, in ns dall'inizio (0 senza tasso)
+  }
+
+  private static final Moneta[] MONETE = Moneta.values();
+  private static final Importo CENTESIMO = new Importo(0, 1);
+
+  private final Parametri parametri;
+  private final SplittableRandom caso;
+  private final List<Prodotto> prodotti = new ArrayList<>();
+  private final double[] cumulata; // funzione di ripartizione della popolarità
+  private final Aggregato[][] pagamenti; // per prodotto: esatto, arrotondato, da 2 euro
+  private boolean raffica;
+  private int restantiFase;
+  private long arrivo;
+
+  /** Crea un generatore; il catalogo dei prodotti dipende solo da parametri.seme. */
+  GeneratoreCarico(Parametri parametri, long seme) {
+    this(parametri, catalogo(parametri), seme);
+  }
+
+  /**
+   * Crea un generatore per i prodotti indicati, dal più al meno popolare, ignorando
+   * parametri.prodotti.
+   *
+   * @throws IllegalArgumentException se i prodotti sono zero
+   */
+  GeneratoreCarico(Parametri parametri, List<Prodotto> prodotti, long seme) {
+    if (prodotti.isEmpty()) throw new IllegalArgumentException("nessun prodotto");
+    this.parametri = parametri;
+    this.caso = new SplittableRandom(seme);
+    int n = prodotti.size();
+    cumulata = new double[n];
+    pagamenti = new Aggregato[n][];
+    double somma = 0;
+    for (int i = 0; i < n; i++) {
+      Prodotto p = prodotti.get(i);
+      int centesimi = p.prezzo().dividi(CENTESIMO);
+      this.prodotti.add(p);
+      pagamenti[i] =
+          new Aggregato[] {
+            esatto(centesimi),
+            arrotondato(centesimi),
+            Aggregato.parse(Math.max(1, (centesimi + 199) / 200) + " x 2")
+          };
+      somma += 1 / Math.pow(i + 1, parametri.zipf);
+      cumulata[i] = somma;
+    }
+    for (int i = 0; i < n; i++) cumulata[i] /= somma;
+  }
+
+  // prodotti sintetici con prezzi tra 50 centesimi e 3 euro e taglie a caso
+  private static List<Prodotto> catalogo(Parametri parametri) {
+    SplittableRandom caso = new SplittableRandom(parametri.seme);
+    List<Prodotto> prodotti = new ArrayList<>();
+    for (int i = 0; i < parametri.prodotti; i++) {
+      int centesimi = 50 + 10 * caso.nextInt(26);
+      prodotti.add(
+          new Prodotto(
+              String.format("prodotto-%03d", i),
+              new Importo(centesimi / 100, centesimi % 100),
+              Taglia.values()[caso.nextInt(3)]));
+    }
+    return prodotti;
+  }
+
+  /** Restituisce i prodotti, dal più al meno popolare. */
+  List<Prodotto> prodotti() {
+    return Collections.unmodifiableList(prodotti);
+  }
+
+  /** Genera la prossima operazione nell'oggetto indicato. */
+  void prossima(Operazione op) {
+    int i = scegliProdotto();
+    op.prodotto = prodotti.get(i);
+    if (caso.nextDouble() < parametri.ricariche) {
+      op.tipo = Tipo.CARICA;
+      op.quantita = parametri.lotto;
+      op.pagamento = null;
+    } else {
+      op.tipo = Tipo.ACQUISTO;
+      op.quantita = 0;
+      double p = caso.nextDouble();
+      int modo = p < parametri.esatti ? 0 : p < parametri.esatti + parametri.arrotondati ? 1 : 2;
+      op.pagamento = pagamenti[i][modo];
+    }
+    op.arrivo = prossimoArrivo();
+  }
+
+  // ricerca binaria nella funzione di ripartizione
+  private int scegliProdotto() {
+    double u = caso.nextDouble();
+    int basso = 0;
+    int alto = cumulata.length - 1;
+    while (basso < alto) {
+      int medio = (basso + alto) >>> 1;
+      if (cumulata[medio] < u) basso = medio + 1;
+      else alto = medio;
+    }
+    return basso;
+  }
+
+  private long prossimoArrivo() {
+    if (parametri.tasso <= 0) return 0;
+    if (restantiFase-- <= 0) {
+      raffica = caso.nextDouble() < parametri.raffiche;
+      restantiFase = 1 + (int) esponenziale(parametri.durataFase);
+    }
+    double tasso = parametri.tasso * (raffica ? parametri.fattoreRaffica : 1);
+    arrivo += (long) esponenziale(1e9 / tasso);
+    return arrivo;
+  }
+
+  private double esponenziale(double media) {
+    return -media * Math.log(1 - caso.nextDouble());
+  }
+
+  // monete esatte, a partire da quella di valore maggiore
+  private static Aggregato esatto(int centesimi) {
+    Aggregato a = new Aggregato();
+    for (int k = MONETE.length - 1; k >= 0 && centesimi > 0; k--) {
+      int valore = MONETE[k].valore().dividi(CENTESIMO);
+      if (centesimi >= valore) {
+        a.aggiungi(MONETE[k], centesimi / valore);
+        centesimi %= valore;
+      }
+    }
+    return a;
+  }
+
+  // l'importo arrotondato all'euro superiore, con monete da 2 euro e al più una da 1 euro
+  private static Aggregato arrotondato(int centesimi) {
+    int euro = (centesimi + 99) / 100;
+    Aggregato a = new Aggregato();
+    if (euro / 2 > 0) a.aggiungi(Moneta.EURO_2, euro / 2);
+    if (euro % 2 > 0) a.aggiungi(Moneta.EURO_1, 1);
+    return a;
+  }
+}
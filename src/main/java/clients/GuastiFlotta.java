@@ -0,0 +1,128 @@
+package clients;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.SocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class GuastiFlotta {
+
+  // nodo di prova: inoltra le richieste a un ServerDistributore, ma può rifiutare le importazioni
+  private static final class Intermediario implements Runnable, AutoCloseable {
+    private final ServerDistributore server;
+    private final ServerSocketChannel ascolto;
+    private volatile boolean rifiuta;
+
+    private Intermediario() throws IOException {
+      server = new ServerDistributore(List.of(), ServerDistributore.indirizzo("0"));
+      ascolto = ServerSocketChannel.open().bind(ServerDistributore.indirizzo("0"));
+      Thread t = new Thread(this, "intermediario");
+      t.setDaemon(true);
+      t.start();
+    }
+
+    @Override
+    public void run() {
+      // una connessione alla volta: la flotta riapre la connessione quando il nodo rientra
+      while (true) {
+        try (SocketChannel client = ascolto.accept()) {
+          inoltra(client);
+        } catch (IOException e) {
+          if (!ascolto.isOpen()) return;
+        }
+      }
+    }
+
+    private void inoltra(SocketChannel client) throws IOException {
+      try (SocketChannel verso = ServerDistributore.connetti(server.indirizzo());
+          LettoreRighe dalClient = new LettoreRighe(client);
+          ScrittoreRighe alClient =
+              new ScrittoreRighe(new PrintStream(Channels.newOutputStream(client), false));
+          LettoreRighe dalServer = new LettoreRighe(verso);
+          ScrittoreRighe alServer =
+              new ScrittoreRighe(new PrintStream(Channels.newOutputStream(verso), false))) {
+        while (dalClient.haRiga()) {
+          String riga = dalClient.riga().toString();
+          if (rifiuta && riga.startsWith("@importa")) {
+            alClient.riga("! importazione rifiutata");
+          } else {
+            alServer.riga(riga);
+            alServer.flush();
+            if (!dalServer.haRiga()) return;
+            alClient.riga(dalServer.riga());
+          }
+          alClient.flush();
+        }
+      }
+    }
+
+    private SocketAddress indirizzo() throws IOException {
+      return ascolto.getLocalAddress();
+    }
+
+    @Override
+    public void close() throws IOException {
+      ascolto.close();
+      server.close();
+    }
+  }
+
+  // args: nessuno; le prime due righe sono i binari e il fondo cassa (come in UsaDistributore)
+  // delle macchine aggiunte con "aggiungi m"; le altre righe sono "avvia n", che avvia il server
+  // del nodo n, "nodo n" e "togli n", che aggiungono e tolgono il nodo dalla flotta, "rifiuta n"
+  // e "accetta n", che fanno rifiutare o accettare le importazioni al nodo, "elenco", che stampa
+  // le macchine per nodo e quelle perse, "recupera", che reimporta le macchine perse, o "m
+  // comando", che inoltra un comando di UsaDistributore alla macchina m
+  public static void main(String[] args) throws IOException {
+    Map<String, Intermediario> intermediari = new HashMap<>();
+    try (LettoreRighe in = LettoreRighe.standardInput();
+        ScrittoreRighe out = ScrittoreRighe.standardOutput();
+        PartizioniFlotta flotta = new PartizioniFlotta()) {
+      String rigaBinari = in.riga().toString();
+      String rigaFondoCassa = in.riga().toString();
+      while (in.haRiga()) {
+        String line = in.riga().toString().trim();
+        String[] p = line.split(" ", 2);
+        try {
+          switch (p[0]) {
+            case "avvia" -> intermediari.put(p[1], new Intermediario());
+            case "rifiuta" -> intermediari.get(p[1]).rifiuta = true;
+            case "accetta" -> intermediari.get(p[1]).rifiuta = false;
+            case "nodo" ->
+                out.riga(
+                    line
+                        + ": "
+                        + flotta.aggiungiNodo(p[1], intermediari.get(p[1]).indirizzo())
+                        + " spostate");
+            case "togli" -> out.riga(line + ": " + flotta.rimuoviNodo(p[1]) + " spostate");
+            case "aggiungi" ->
+                flotta.aggiungi(
+                    Integer.parseInt(p[1]),
+                    UsaDistributore.distributore(rigaBinari, rigaFondoCassa));
+            case "elenco" -> out.riga(flotta.macchinePerNodo() + " perse " + flotta.perse());
+            case "recupera" -> out.riga(line + ": " + flotta.recupera());
+            default -> out.riga(line + " " + flotta.esegui(Integer.parseInt(p[0]), p[1]));
+          }
+        } catch (IOException | RuntimeException e) {
+          out.riga(line + ": " + e.getMessage());
+        }
+      }
+    } finally {
+      List<IOException> errori = new ArrayList<>();
+      for (Intermediario i : intermediari.values()) {
+        try {
+          i.close();
+        } catch (IOException e) {
+          errori.add(e);
+        }
+      }
+      if (!errori.isEmpty()) throw errori.get(0);
+    }
+  }
+}
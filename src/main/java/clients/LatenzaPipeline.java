@@ -0,0 +1,151 @@
+package clients;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import macchinette.Aggregato;
+import macchinette.Binario;
+import macchinette.Distributore;
+import macchinette.DistributoreAsincrono;
+import macchinette.ErogazioneException;
+import macchinette.Prodotto;
+import macchinette.StrategiaRestoH;
+import macchinette.Taglia;
+
+public class LatenzaPipeline {
+
+  private static final Prodotto PRODOTTO = Prodotto.parse("Acqua|.70|S");
+  private static final Aggregato PAGAMENTO = Aggregato.parse("1 x 1");
+
+  public static void main(String[] args) throws Exception {
+    int produttori = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    int operazioni = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+    int finestra = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+
+    for (int giro = 0; giro < 2; giro++) {
+      boolean riscaldamento = giro == 0;
+
+      Distributore sincronizzato = nuovoDistributore();
+      long[] latenze =
+          misura(
+              produttori,
+              operazioni,
+              i -> {
+                synchronized (sincronizzato) {
+                  if (i % 2 == 0) sincronizzato.carica(PRODOTTO, 1);
+                  else eroga(sincronizzato);
+                }
+              });
+      if (!riscaldamento) stampa("synchronized", latenze);
+
+      try (DistributoreAsincrono asincrono = new DistributoreAsincrono(nuovoDistributore(), 1024)) {
+        latenze =
+            misura(
+                produttori,
+                operazioni,
+                i -> {
+                  if (i % 2 == 0) asincrono.carica(PRODOTTO, 1).join();
+                  else asincrono.erogaProdotto(PRODOTTO, PAGAMENTO).exceptionally(e -> null).join();
+                });
+      }
+      if (!riscaldamento) stampa("ring buffer", latenze);
+
+      // i produttori pubblicano una finestra di comandi e attendono solo l'ultimo: la latenza
+      // misurata per ogni operazione è il tempo medio per comando della sua finestra
+      try (DistributoreAsincrono asincrono = new DistributoreAsincrono(nuovoDistributore(), 1024)) {
+        latenze =
+            misura(
+                produttori,
+                operazioni / finestra,
+                i -> {
+                  CompletableFuture<?> ultimo = null;
+                  for (int j = 0; j < finestra; j++)
+                    ultimo =
+                        j % 2 == 0
+                            ? asincrono.carica(PRODOTTO, 1)
+                            : asincrono.erogaProdotto(PRODOTTO, PAGAMENTO).exceptionally(e -> null);
+                  ultimo.join();
+                });
+      }
+      if (!riscaldamento) stampa("finestra " + finestra, perComando(latenze, finestra));
+    }
+  }
+
+  private static Distributore nuovoDistributore() {
+    List<Binario> binari = new ArrayList<>();
+    for (int i = 0; i < 20; i++) binari.add(new Binario(Taglia.L, 1_000_000));
+    return new Distributore(
+        binari, Aggregato.parse("1000 x .10, 1000 x .20"), StrategiaRestoH.INSTANCE);
+  }
+
+  private static void eroga(Distributore d) {
+    try {
+      d.erogaProdotto(PRODOTTO, PAGAMENTO);
+    } catch (ErogazioneException e) {
+      // un'altra coppia carica/eroga ha svuotato il distributore: conta come operazione
+    }
+  }
+
+  private interface OperazioneIndicizzata {
+    void esegui(int i) throws Exception;
+  }
+
+  // esegue le operazioni da più thread e restituisce la latenza (ns) di ciascuna, ordinate
+  private static long[] misura(int produttori, int operazioni, OperazioneIndicizzata op)
+      throws InterruptedException {
+    int perThread = operazioni / produttori;
+    long[][] latenze = new long[produttori][perThread];
+    Thread[] threads = new Thread[produttori];
+    long inizio = System.nanoTime();
+    for (int t = 0; t < produttori; t++) {
+      long[] mie = latenze[t];
+      threads[t] =
+          new Thread(
+              () -> {
+                for (int i = 0; i < perThread; i++) {
+                  long t0 = System.nanoTime();
+                  try {
+                    op.esegui(i);
+                  } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                  }
+                  mie[i] = System.nanoTime() - t0;
+                }
+              });
+      threads[t].start();
+    }
+    for (Thread thread : threads) thread.join();
+    long durata = System.nanoTime() - inizio;
+
+    long[] tutte = new long[perThread * produttori + 1];
+    for (int t = 0; t < produttori; t++)
+      System.arraycopy(latenze[t], 0, tutte, t * perThread, perThread);
+    Arrays.sort(tutte, 0, tutte.length - 1);
+    tutte[tutte.length - 1] = durata;
+    return tutte;
+  }
+
+  // ripartisce la latenza di ogni finestra sui suoi comandi
+  private static long[] perComando(long[] latenze, int finestra) {
+    int n = latenze.length - 1;
+    long[] risultato = new long[n * finestra + 1];
+    for (int i = 0; i < n; i++)
+      Arrays.fill(risultato, i * finestra, (i + 1) * finestra, latenze[i] / finestra);
+    risultato[risultato.length - 1] = latenze[n];
+    return risultato;
+  }
+
+  // l'ultimo elemento di latenze è la durata complessiva
+  private static void stampa(String nome, long[] latenze) {
+    int n = latenze.length - 1;
+    long durata = latenze[n];
+    System.out.printf(
+        "%-12s %,12.0f op/s  p50 %,8.2f us  p99 %,8.2f us  p99.9 %,8.2f us%n",
+        nome,
+        n * 1e9 / durata,
+        latenze[(int) (n * .50)] / 1e3,
+        latenze[(int) (n * .99)] / 1e3,
+        latenze[(int) (n * .999)] / 1e3);
+  }
+}
@@ -0,0 +1,166 @@
+package clients;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.NoSuchElementException;
+
+/**
+ * Lettore di righe da un canale, alternativo a {@link java.util.Scanner}.
+ *
+ * <p>I byte sono letti a blocchi in un {@link ByteBuffer} e decodificati in un {@link CharBuffer}
+ * con il charset di default (come fa {@code new Scanner(System.in)}); la riga corrente è
+ * accumulata in un unico {@link StringBuilder} riusato, restituito come {@link CharSequence}, per
+ * cui leggere una riga non crea oggetti. Le righe sono terminate da {@code \n}, {@code \r\n} o
+ * {@code \r}; l'ultima riga può non avere terminatore.
+ *
+ * <p>La garanzia riguarda la lettura: chi vuole evitare anche le stringhe deve fare il parsing
+ * direttamente dalla sequenza, come fanno {@link macchinette.Aggregato#parse(CharSequence, int,
+ * int)} e {@link macchinette.Moneta#riconosci(CharSequence)}. I client che leggono molte righe
+ * dello stesso formato (come CalcolaResti e OperazioniAggregati) lo fanno; quelli che
+ * interpretano comandi ne fanno una stringa per riga, perché il parsing di prodotti e importi
+ * richiede stringhe e ogni comando costa comunque molto più della copia.
+ */
+final class LettoreRighe implements AutoCloseable {
+
+  private static final int BLOCCO = 1 << 16;
+
+  private final ReadableByteChannel canale;
+  private final CharsetDecoder decoder;
+  private final ByteBuffer byteLetti = ByteBuffer.allocateDirect(BLOCCO);
+  private final CharBuffer caratteri = CharBuffer.allocate(BLOCCO);
+  private final StringBuilder riga = new StringBuilder();
+  private boolean pronta; // riga contiene una riga non ancora restituita
+  private boolean fine; // il canale è esaurito e tutti i suoi byte sono stati decodificati
+  private boolean saltaLF; // l'ultima riga è terminata con \r, che può essere seguito da \n
+  private Flushable daSvuotare; // svuotato prima di ogni lettura dal canale (può essere null)
+
+  LettoreRighe(ReadableByteChannel canale) {
+    this.canale = canale;
+    this.decoder =
+        Charset.defaultCharset()
+            .newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    caratteri.flip();
+  }
+
+  /**
+   * Crea un lettore dallo standard input, letto attraverso il canale del suo descrittore così che
+   * i byte arrivino direttamente nel buffer diretto, senza passare da {@link System#in} e da un
+   * array intermedio.
+   */
+  static LettoreRighe standardInput() {
+    return new LettoreRighe(new FileInputStream(FileDescriptor.in).getChannel());
+  }
+
+  /**
+   * Fa svuotare l'oggetto indicato (di norma lo {@link ScrittoreRighe} delle risposte) prima di
+   * ogni lettura dal canale, cioè quando le righe già lette sono esaurite e il lettore potrebbe
+   * dover attendere: l'output prodotto fin lì diventa visibile prima di attendere altro input.
+   *
+   * @param daSvuotare oggetto da svuotare, o null per non svuotare nulla
+   */
+  void svuotaPrimaDiLeggere(Flushable daSvuotare) {
+    this.daSvuotare = daSvuotare;
+  }
+
+  /** Verifica se c'è un'altra riga. */
+  boolean haRiga() {
+    if (pronta) return true;
+    riga.setLength(0);
+    boolean letto = false;
+    while (true) {
+      while (caratteri.hasRemaining()) {
+        char c = caratteri.get();
+        if (saltaLF) {
+          saltaLF = false;
+          if (c == '\n') continue;
+        }
+        if (c == '\n') return pronta = true;
+        if (c == '\r') {
+          saltaLF = true;
+          return pronta = true;
+        }
+        riga.append(c);
+        letto = true;
+      }
+      if (!riempi()) return pronta = letto;
+    }
+  }
+
+  /**
+   * Restituisce la prossima riga, senza terminatore; il contenuto resta valido fino alla chiamata
+   * successiva di {@link #haRiga} o {@link #riga}.
+   *
+   * @throws NoSuchElementException se non ci sono altre righe
+   */
+  CharSequence riga() {
+    if (!haRiga()) throw new NoSuchElementException("nessuna riga");
+    pronta = false;
+    return riga;
+  }
+
+  /**
+   * Verifica se un'altra riga completa è già stata letta dal canale, così che {@link #haRiga} possa
+   * restituirla senza attendere altri byte.
+   */
+  boolean rigaInAttesa() {
+    if (pronta) return true;
+    int inizio = caratteri.position();
+    if (saltaLF && inizio < caratteri.limit() && caratteri.get(inizio) == '\n') inizio++;
+    for (int i = inizio; i < caratteri.limit(); i++) {
+      char c = caratteri.get(i);
+      if (c == '\n' || c == '\r') return true;
+    }
+    return false;
+  }
+
+  /**
+   * Verifica se il lettore non trattiene byte o caratteri letti dal canale e non ancora restituiti,
+   * così che chi passa a leggere il canale direttamente non ne perda nessuno.
+   */
+  boolean esaurito() {
+    return !pronta && !caratteri.hasRemaining() && byteLetti.position() == 0;
+  }
+
+  // decodifica altri caratteri; restituisce false se il canale è esaurito
+  private boolean riempi() {
+    if (fine) return false;
+    caratteri.clear();
+    try {
+      while (caratteri.position() == 0 && !fine) {
+        if (daSvuotare != null) daSvuotare.flush();
+        boolean esaurito = canale.read(byteLetti) < 0;
+        byteLetti.flip();
+        decoder.decode(byteLetti, caratteri, esaurito);
+        byteLetti.compact();
+        if (esaurito) {
+          decoder.flush(caratteri);
+          fine = true;
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    caratteri.flip();
+    return caratteri.hasRemaining();
+  }
+
+  @Override
+  public void close() {
+    try {
+      canale.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
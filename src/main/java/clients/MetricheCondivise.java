@@ -0,0 +1,83 @@
+package clients;
+
+import macchinette.Aggregato;
+import macchinette.BinarioException;
+import macchinette.Catalogo;
+import macchinette.Distributore;
+import macchinette.ErogazioneException;
+import macchinette.Metriche;
+import macchinette.Moneta;
+
+public class MetricheCondivise {
+
+  // args: numero di distributori (2 se assente), tutti creati dalle prime due righe come in
+  // UsaDistributore e collegati allo stesso registro di metriche; le righe successive sono
+  // comandi "macchina comando" con i comandi + e - di UsaDistributore, di cui si stampa la
+  // risposta; alla fine si stampano i contatori del registro e il fondo cassa complessivo
+  public static void main(String[] args) {
+    int macchine = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+    try (LettoreRighe in = LettoreRighe.standardInput();
+        ScrittoreRighe out = ScrittoreRighe.standardOutput()) {
+      String rigaBinari = in.riga().toString();
+      String rigaFondoCassa = in.riga().toString();
+      Metriche metriche = new Metriche();
+      Distributore[] distributori = new Distributore[macchine];
+      // fondo cassa complessivo atteso, aggiornato a ogni erogazione riuscita
+      Aggregato fondoCassa = new Aggregato();
+      for (int m = 0; m < macchine; m++) {
+        distributori[m] = UsaDistributore.distributore(rigaBinari, rigaFondoCassa);
+        distributori[m].usaMetriche(metriche);
+        try {
+          fondoCassa.aggiungi(Aggregato.parse(rigaFondoCassa));
+        } catch (IllegalArgumentException e) {
+        }
+      }
+      Catalogo catalogo = new Catalogo();
+
+      while (in.haRiga()) {
+        String line = in.riga().toString();
+        try {
+          String[] mc = line.trim().split(" ", 2);
+          Distributore d = distributori[Integer.parseInt(mc[0])];
+          char comando = mc[1].charAt(0);
+          String[] p = mc[1].substring(1).trim().split(",", 2);
+          if (comando == '+') {
+            int nonCaricati =
+                d.carica(catalogo.parse(p[1].trim()), Integer.parseInt(p[0].trim()));
+            out.riga(mc[0] + " + " + nonCaricati);
+          } else if (comando == '-') {
+            Aggregato pagamento = Aggregato.parse(p[1].trim());
+            try {
+              Aggregato resto = d.eroga(Integer.parseInt(p[0].trim()), pagamento);
+              fondoCassa.aggiungi(pagamento);
+              fondoCassa.rimuovi(resto);
+              out.riga(mc[0] + " - " + resto);
+            } catch (ErogazioneException e) {
+              out.riga(mc[0] + " - " + e.getMessage());
+            }
+          }
+        } catch (Exception e) {
+        }
+      }
+
+      out.riga("erogazioni OK " + metriche.erogazioniRiuscite());
+      for (ErogazioneException.Motivo m : ErogazioneException.Motivo.values())
+        out.riga("erogazioni " + m + " " + metriche.erogazioniFallite(m));
+      out.riga("caricamenti " + metriche.caricamenti());
+      out.riga("prodotti caricati " + metriche.prodottiCaricati());
+      for (BinarioException.Motivo m : BinarioException.Motivo.values())
+        out.riga("caricamenti rifiutati " + m + " " + metriche.rifiuti(m));
+      out.riga("latenze erogazione " + metriche.latenzaErogazione().conteggio());
+      boolean coerente = true;
+      for (Moneta m : Moneta.values()) {
+        out.riga("fondo cassa " + m.name() + " " + metriche.monete(m));
+        coerente &= metriche.monete(m) == fondoCassa.quantita(m);
+      }
+      out.riga(
+          "fondo cassa "
+              + metriche.centesimiFondoCassa()
+              + " centesimi"
+              + (coerente ? "" : ", invece di " + fondoCassa));
+    }
+  }
+}
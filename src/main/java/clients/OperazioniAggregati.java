@@ -1,30 +1,33 @@
 package clients;
-import java.util.Scanner;
 import macchinette.Aggregato;
 import macchinette.AggregatoInsufficienteException;
 
 public class OperazioniAggregati {
 
   public static void main(String[] args) {
-    Scanner scanner = new Scanner(System.in);
     Aggregato corrente = new Aggregato();
 
-    while (scanner.hasNextLine()) {
-      String line = scanner.nextLine();
-      Aggregato operando = Aggregato.parse(line.substring(1).trim());
-      
-      if (line.charAt(0) == '+') {
-        corrente.aggiungi(operando);
-        System.out.println(corrente);
-      } else {
-        try {
-          corrente.rimuovi(operando);
-          System.out.println(corrente);
-        } catch (AggregatoInsufficienteException e) {
-          System.out.println(e.getMessage());
+    try (LettoreRighe in = LettoreRighe.standardInput();
+        ScrittoreRighe out = ScrittoreRighe.standardOutput()) {
+      in.svuotaPrimaDiLeggere(out);
+      while (in.haRiga()) {
+        CharSequence line = in.riga();
+        Aggregato operando = Aggregato.parse(line, 1, line.length());
+
+        if (line.charAt(0) == '+') {
+          corrente.aggiungi(operando);
+          corrente.appendTo(out.buffer());
+          out.aCapo();
+        } else {
+          try {
+            corrente.rimuovi(operando);
+            corrente.appendTo(out.buffer());
+            out.aCapo();
+          } catch (AggregatoInsufficienteException e) {
+            out.riga(e.getMessage());
+          }
         }
       }
     }
-    scanner.close();
   }
 }
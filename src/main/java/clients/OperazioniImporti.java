@@ -1,47 +1,51 @@
 package clients;
-import java.util.Scanner;
 import macchinette.Importo;
 
 public class OperazioniImporti {
 
   public static void main(String[] args) {
-    Scanner scanner = new Scanner(System.in);
-
-    while (scanner.hasNextLine()) {
-      try {
-        String line = scanner.nextLine();
-        String[] p;
-        if (line.contains(" + ")) {
-          p = line.split("\\s*\\+\\s*", 2);
-          System.out.println(Importo.parse(p[0]).somma(Importo.parse(p[1])));
-        } else if (line.contains(" - ")) {
-          p = line.split("\\s*-\\s*", 2);
-          try {
-            System.out.println(Importo.parse(p[0]).sottrai(Importo.parse(p[1])));
-          } catch (IllegalArgumentException e) {
-            System.out.println("negative");
-          }
-        } else if (line.contains(" * ")) {
-          p = line.split("\\s*\\*\\s*", 2);
-          int n = Integer.parseInt(p[1].trim());
-          if (n < 0) {
-            System.out.println("negative");
-          } else {
-            System.out.println(Importo.parse(p[0]).moltiplica(n));
-          }
-        } else {
-          p = line.split("\\s*/\\s*", 2);
-          Importo divisore = Importo.parse(p[1]);
-          if (divisore.equals(Importo.ZERO)) {
-            System.out.println("invalid");
+    try (LettoreRighe in = LettoreRighe.standardInput();
+        ScrittoreRighe out = ScrittoreRighe.standardOutput()) {
+      in.svuotaPrimaDiLeggere(out);
+      while (in.haRiga()) {
+        try {
+          String line = in.riga().toString();
+          String[] p;
+          if (line.contains(" + ")) {
+            p = line.split("\\s*\\+\\s*", 2);
+            Importo.parse(p[0]).somma(Importo.parse(p[1])).appendTo(out.buffer());
+            out.aCapo();
+          } else if (line.contains(" - ")) {
+            p = line.split("\\s*-\\s*", 2);
+            try {
+              Importo.parse(p[0]).sottrai(Importo.parse(p[1])).appendTo(out.buffer());
+              out.aCapo();
+            } catch (IllegalArgumentException e) {
+              out.riga("negative");
+            }
+          } else if (line.contains(" * ")) {
+            p = line.split("\\s*\\*\\s*", 2);
+            int n = Integer.parseInt(p[1].trim());
+            if (n < 0) {
+              out.riga("negative");
+            } else {
+              Importo.parse(p[0]).moltiplica(n).appendTo(out.buffer());
+              out.aCapo();
+            }
           } else {
-            System.out.println(Importo.parse(p[0]).dividi(divisore));
+            p = line.split("\\s*/\\s*", 2);
+            Importo divisore = Importo.parse(p[1]);
+            if (divisore.equals(Importo.ZERO)) {
+              out.riga("invalid");
+            } else {
+              out.buffer().append(Importo.parse(p[0]).dividi(divisore));
+              out.aCapo();
+            }
           }
+        } catch (Exception e) {
+          out.riga("invalid");
         }
-      } catch (Exception e) {
-        System.out.println("invalid");
       }
     }
-    scanner.close();
   }
 }
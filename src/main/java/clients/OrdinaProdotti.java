@@ -1,26 +1,177 @@
 package clients;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Scanner;
+import java.util.PriorityQueue;
+import macchinette.Importo;
 import macchinette.Prodotto;
+import macchinette.Taglia;
 
 public class OrdinaProdotti {
 
-  public static void main(String[] args) {
-    Scanner scanner = new Scanner(System.in);
-    List<Prodotto> prodotti = new ArrayList<>();
+  private static final Taglia[] TAGLIE = Taglia.values();
+  private static final Importo CENTESIMO = new Importo(0, 1);
 
-    while (scanner.hasNextLine()) {
-      prodotti.add(Prodotto.parse(scanner.nextLine()));
+  // chiave di ordinamento precalcolata, nello stesso ordine di Prodotto.compareTo: taglia, nome,
+  // prezzo; i prodotti con la stessa chiave sono uguali, quindi l'ordine tra loro non conta
+  private static final class Voce implements Comparable<Voce> {
+    final int taglia;
+    final String nome;
+    final int centesimi;
+
+    Voce(int taglia, String nome, int centesimi) {
+      this.taglia = taglia;
+      this.nome = nome;
+      this.centesimi = centesimi;
+    }
+
+    Voce(Prodotto p) {
+      this(p.taglia().ordinal(), p.nome(), p.prezzo().dividi(CENTESIMO));
+    }
+
+    // stima dei byte occupati nello heap: la voce, il riferimento nell'array, la stringa del nome
+    // e il suo array (fino a due byte per carattere)
+    long byteStimati() {
+      return 24 + 8 + 24 + 16 + 2L * nome.length();
+    }
+
+    Prodotto prodotto() {
+      return new Prodotto(nome, new Importo(centesimi / 100, centesimi % 100), TAGLIE[taglia]);
     }
 
-    Collections.sort(prodotti);
+    @Override
+    public int compareTo(Voce altra) {
+      if (taglia != altra.taglia) return Integer.compare(taglia, altra.taglia);
+      int cmp = nome.compareTo(altra.nome);
+      return cmp != 0 ? cmp : Integer.compare(centesimi, altra.centesimi);
+    }
+  }
+
+  // args: [limite] byte massimi stimati dei prodotti tenuti in memoria (predefinito 64 MiB); un
+  // elenco più grande è ordinato a blocchi che stanno nel limite (almeno un prodotto per blocco),
+  // salvati su file temporanei e poi fusi
+  public static void main(String[] args) throws IOException {
+    long limite = args.length > 0 ? Long.parseLong(args[0]) : 64L << 20;
+    if (limite <= 0) throw new IllegalArgumentException("limite non positivo: " + limite);
+    List<Path> blocchi = new ArrayList<>();
+    try (LettoreRighe in = LettoreRighe.standardInput();
+        ScrittoreRighe out = ScrittoreRighe.standardOutput()) {
+      Voce[] voci = new Voce[1024];
+      int n = 0;
+      long occupati = 0;
+      while (in.haRiga()) {
+        Voce v = new Voce(Prodotto.parse(in.riga().toString()));
+        if (n > 0 && occupati + v.byteStimati() > limite) {
+          blocchi.add(salva(voci, n));
+          Arrays.fill(voci, 0, n, null);
+          n = 0;
+          occupati = 0;
+        }
+        if (n == voci.length) voci = Arrays.copyOf(voci, 2 * n);
+        voci[n++] = v;
+        occupati += v.byteStimati();
+      }
+      Arrays.parallelSort(voci, 0, n);
+
+      // l'ultimo blocco resta in memoria e partecipa alla fusione insieme a quelli salvati
+      PriorityQueue<Sorgente> sorgenti = new PriorityQueue<>();
+      try {
+        if (n > 0) sorgenti.add(new Sorgente(voci, n));
+        for (Path b : blocchi) {
+          Sorgente s = new Sorgente(b);
+          if (s.avanza()) sorgenti.add(s);
+        }
+        while (!sorgenti.isEmpty()) {
+          Sorgente s = sorgenti.poll();
+          s.corrente.prodotto().appendTo(out.buffer());
+          out.aCapo();
+          if (s.avanza()) sorgenti.add(s);
+        }
+      } finally {
+        for (Sorgente s : sorgenti) s.close();
+      }
+    } finally {
+      for (Path b : blocchi) Files.deleteIfExists(b);
+    }
+  }
+
+  // ordina le prime n voci e le salva in un file temporaneo: numero di voci, poi per ciascuna
+  // taglia, lunghezza e byte UTF-8 del nome (writeUTF non accetta nomi oltre 64 KiB) e prezzo in
+  // centesimi
+  private static Path salva(Voce[] voci, int n) throws IOException {
+    Arrays.parallelSort(voci, 0, n);
+    Path blocco = Files.createTempFile("OrdinaProdotti", ".blocco");
+    try (DataOutputStream dati =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(blocco), 1 << 16))) {
+      dati.writeInt(n);
+      for (int i = 0; i < n; i++) {
+        dati.writeByte(voci[i].taglia);
+        byte[] nome = voci[i].nome.getBytes(StandardCharsets.UTF_8);
+        dati.writeInt(nome.length);
+        dati.write(nome);
+        dati.writeInt(voci[i].centesimi);
+      }
+    }
+    return blocco;
+  }
+
+  // sequenza ordinata di voci, in memoria o in un blocco salvato; corrente è la voce in testa
+  private static final class Sorgente implements Comparable<Sorgente>, AutoCloseable {
+    private final Voce[] voci;
+    private final DataInputStream dati;
+    private int restanti;
+    private int prossima;
+    Voce corrente;
+
+    Sorgente(Voce[] voci, int n) {
+      this.voci = voci;
+      this.dati = null;
+      this.restanti = n - 1;
+      this.corrente = voci[0];
+      this.prossima = 1;
+    }
+
+    Sorgente(Path blocco) throws IOException {
+      this.voci = null;
+      this.dati =
+          new DataInputStream(new BufferedInputStream(Files.newInputStream(blocco), 1 << 16));
+      this.restanti = dati.readInt();
+    }
+
+    boolean avanza() throws IOException {
+      if (restanti == 0) {
+        close();
+        return false;
+      }
+      restanti--;
+      corrente = voci != null ? voci[prossima++] : leggi();
+      return true;
+    }
+
+    private Voce leggi() throws IOException {
+      int taglia = dati.readByte();
+      byte[] nome = new byte[dati.readInt()];
+      dati.readFully(nome);
+      return new Voce(taglia, new String(nome, StandardCharsets.UTF_8), dati.readInt());
+    }
+
+    @Override
+    public int compareTo(Sorgente altra) {
+      return corrente.compareTo(altra.corrente);
+    }
 
-    for (Prodotto p : prodotti) {
-      System.out.println(p);
+    @Override
+    public void close() throws IOException {
+      if (dati != null) dati.close();
     }
-    scanner.close();
   }
 }
@@ -0,0 +1,330 @@
+package clients;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.SocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import macchinette.Distributore;
+import macchinette.Istantanea;
+
+/**
+ * Flotta di distributori ripartita tra più server ({@link ServerDistributore}), di norma processi
+ * distinti sulla stessa macchina, raggiunti su socket Unix o TCP di loopback.
+ *
+ * <p>Le macchine sono assegnate ai server (i nodi) con un hashing consistente: ogni nodo occupa
+ * {@value #VIRTUALI} punti di un anello di interi a 64 bit e una macchina appartiene al nodo del
+ * primo punto che segue il suo hash. Quando un nodo si aggiunge o si toglie cambiano nodo solo le
+ * macchine degli archi interessati, circa una su n: queste sono spostate esportandone l'istantanea
+ * dal vecchio nodo e importandola nel nuovo. Se uno spostamento non riesce, la macchina è
+ * reimportata nel vecchio nodo e l'anello torna quello precedente, riportando indietro le macchine
+ * già spostate. Se non riesce neppure la reimportazione, la macchina è segnata come persa: le sue
+ * richieste sono rifiutate e la flotta ne conserva l'istantanea, da reimportare con {@link
+ * #recupera}.
+ *
+ * <p>Le richieste sono inoltrate con il protocollo di ServerDistributore su una connessione per
+ * nodo, una richiesta alla volta per connessione. Gli spostamenti escludono le richieste (con un
+ * lock in scrittura), così che nessuna richiesta raggiunga una macchina in transito.
+ */
+final class PartizioniFlotta implements AutoCloseable {
+
+  private static final int VIRTUALI = 128;
+
+  // connessione verso un nodo
+  private static final class Nodo {
+    private final String nome;
+    private final SocketChannel canale;
+    private final LettoreRighe in;
+    private final ScrittoreRighe out;
+
+    private Nodo(String nome, SocketAddress indirizzo) throws IOException {
+      this.nome = nome;
+      this.canale = ServerDistributore.connetti(indirizzo);
+      this.in = new LettoreRighe(canale);
+      this.out = new ScrittoreRighe(new PrintStream(Channels.newOutputStream(canale), false));
+    }
+
+    private synchronized String richiesta(String riga) throws IOException {
+      out.riga(riga);
+      out.flush();
+      if (!in.haRiga()) throw new IOException("connessione con " + nome + " chiusa");
+      return in.riga().toString();
+    }
+
+    // come richiesta, ma per i comandi @ che devono riuscire
+    private String comando(String riga) throws IOException {
+      String risposta = richiesta(riga);
+      if (!risposta.startsWith("@"))
+        throw new IOException(nome + " ha rifiutato " + riga.split(" ", 3)[0] + ": " + risposta);
+      return risposta.substring(1).trim();
+    }
+
+    private void chiudi() throws IOException {
+      out.flush();
+      canale.close();
+    }
+  }
+
+  private final TreeMap<Long, Nodo> anello = new TreeMap<>();
+  private final Map<String, Nodo> nodi = new LinkedHashMap<>();
+  // nodo su cui si trova ciascuna macchina
+  private final Map<Integer, Nodo> posizioni = new HashMap<>();
+  // istantanee (in Base64) delle macchine che non si trovano su alcun nodo
+  private final Map<Integer, String> perse = new TreeMap<>();
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  // mescolamento finale di MurmurHash3: distribuisce uniformemente anche chiavi consecutive
+  private static long mescola(long x) {
+    x ^= x >>> 33;
+    x *= 0xff51afd7ed558ccdL;
+    x ^= x >>> 33;
+    x *= 0xc4ceb53a62185ec5L;
+    x ^= x >>> 33;
+    return x;
+  }
+
+  private static long punto(String nome, int k) {
+    return mescola(mescola(nome.hashCode()) + k);
+  }
+
+  // nodo a cui l'anello assegna la macchina (l'anello non è vuoto)
+  private Nodo assegnato(int macchina) {
+    Map.Entry<Long, Nodo> e = anello.ceilingEntry(mescola(macchina));
+    return (e != null ? e : anello.firstEntry()).getValue();
+  }
+
+  /**
+   * Aggiunge un nodo e vi sposta le macchine che l'anello gli assegna.
+   *
+   * @return il numero di macchine spostate
+   * @throws IOException se la connessione o uno spostamento non riescono (in tal caso l'anello
+   *     torna quello precedente e il nodo resta solo se vi rimangono macchine)
+   */
+  int aggiungiNodo(String nome, SocketAddress indirizzo) throws IOException {
+    lock.writeLock().lock();
+    try {
+      if (nodi.containsKey(nome)) throw new IllegalArgumentException("nodo già presente: " + nome);
+      Nodo nodo = new Nodo(nome, indirizzo);
+      nodi.put(nome, nodo);
+      TreeMap<Long, Nodo> precedente = new TreeMap<>(anello);
+      for (int k = 0; k < VIRTUALI; k++) anello.putIfAbsent(punto(nome, k), nodo);
+      try {
+        return ribilancia(precedente);
+      } catch (IOException | RuntimeException e) {
+        // il nodo resta solo se non è stato possibile riportarne via le macchine
+        if (!posizioni.containsValue(nodo)) {
+          nodi.remove(nome);
+          nodo.chiudi();
+        }
+        throw e;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Toglie un nodo, dopo averne spostato le macchine sugli altri; il server del nodo non viene
+   * fermato.
+   *
+   * @return il numero di macchine spostate
+   * @throws IOException se uno spostamento non riesce (in tal caso il nodo resta, con l'anello
+   *     precedente)
+   */
+  int rimuoviNodo(String nome) throws IOException {
+    lock.writeLock().lock();
+    try {
+      Nodo nodo = nodi.get(nome);
+      if (nodo == null) throw new IllegalArgumentException("nodo inesistente: " + nome);
+      if (nodi.size() == 1 && !posizioni.isEmpty())
+        throw new IllegalStateException("le macchine non avrebbero un nodo");
+      TreeMap<Long, Nodo> precedente = new TreeMap<>(anello);
+      anello.values().removeIf(n -> n == nodo);
+      int spostate = ribilancia(precedente);
+      nodi.remove(nome);
+      nodo.chiudi();
+      return spostate;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  // sposta ogni macchina sul nodo assegnato dall'anello, se non vi si trova già; se uno
+  // spostamento non riesce, ripristina l'anello precedente e vi riporta le macchine già spostate
+  private int ribilancia(TreeMap<Long, Nodo> precedente) throws IOException {
+    try {
+      return ribilancia();
+    } catch (IOException | RuntimeException e) {
+      anello.clear();
+      anello.putAll(precedente);
+      try {
+        ribilancia();
+      } catch (IOException | RuntimeException e2) {
+        e.addSuppressed(e2);
+      }
+      throw e;
+    }
+  }
+
+  private int ribilancia() throws IOException {
+    int spostate = 0;
+    for (Iterator<Map.Entry<Integer, Nodo>> i = posizioni.entrySet().iterator(); i.hasNext(); ) {
+      Map.Entry<Integer, Nodo> e = i.next();
+      Nodo da = e.getValue();
+      Nodo a = assegnato(e.getKey());
+      if (a == da) continue;
+      try {
+        sposta(e.getKey(), da, a);
+      } catch (IOException | RuntimeException x) {
+        if (perse.containsKey(e.getKey())) i.remove();
+        throw x;
+      }
+      e.setValue(a);
+      spostate++;
+    }
+    return spostate;
+  }
+
+  // l'esportazione toglie la macchina dal vecchio nodo: se l'importazione nel nuovo non riesce,
+  // la si reimporta nel vecchio, così che resti dov'era; se non riesce neppure questa, la macchina
+  // è persa e se ne conserva l'istantanea
+  private void sposta(int macchina, Nodo da, Nodo a) throws IOException {
+    String istantanea = da.comando("@esporta " + macchina);
+    try {
+      a.comando("@importa " + macchina + " " + istantanea);
+    } catch (IOException | RuntimeException e) {
+      try {
+        da.comando("@importa " + macchina + " " + istantanea);
+      } catch (IOException | RuntimeException e2) {
+        perse.put(macchina, istantanea);
+        IOException persa =
+            new IOException("macchina " + macchina + " persa, istantanea conservata", e);
+        persa.addSuppressed(e2);
+        throw persa;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Reimporta le macchine perse, ciascuna sul nodo che le spetta.
+   *
+   * @return il numero di macchine recuperate
+   * @throws IOException se un'importazione non riesce (la macchina resta persa, come quelle non
+   *     ancora tentate)
+   */
+  int recupera() throws IOException {
+    lock.writeLock().lock();
+    try {
+      if (anello.isEmpty() && !perse.isEmpty()) throw new IllegalStateException("nessun nodo");
+      int recuperate = 0;
+      for (Iterator<Map.Entry<Integer, String>> i = perse.entrySet().iterator(); i.hasNext(); ) {
+        Map.Entry<Integer, String> e = i.next();
+        Nodo nodo = assegnato(e.getKey());
+        nodo.comando("@importa " + e.getKey() + " " + e.getValue());
+        posizioni.put(e.getKey(), nodo);
+        i.remove();
+        recuperate++;
+      }
+      return recuperate;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Restituisce le macchine perse, in ordine crescente. */
+  Set<Integer> perse() {
+    lock.readLock().lock();
+    try {
+      return new TreeSet<>(perse.keySet());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Aggiunge alla flotta una macchina, con lo stato del distributore indicato, sul nodo che le
+   * spetta.
+   *
+   * @throws IOException se il trasferimento non riesce
+   */
+  void aggiungi(int macchina, Distributore distributore) throws IOException {
+    String istantanea = Base64.getEncoder().encodeToString(Istantanea.codifica(distributore));
+    lock.writeLock().lock();
+    try {
+      if (anello.isEmpty()) throw new IllegalStateException("nessun nodo");
+      if (posizioni.containsKey(macchina) || perse.containsKey(macchina))
+        throw new IllegalArgumentException("macchina già presente: " + macchina);
+      Nodo nodo = assegnato(macchina);
+      nodo.comando("@importa " + macchina + " " + istantanea);
+      posizioni.put(macchina, nodo);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Inoltra un comando (con la sintassi di {@link UsaDistributore}) alla macchina indicata e ne
+   * restituisce la risposta, come {@link ServerDistributore}.
+   *
+   * @throws IOException se la comunicazione con il nodo non riesce
+   */
+  String esegui(int macchina, String comando) throws IOException {
+    lock.readLock().lock();
+    try {
+      Nodo nodo = posizioni.get(macchina);
+      if (nodo == null)
+        return (perse.containsKey(macchina) ? "! macchina persa: " : "! macchina inesistente: ")
+            + macchina;
+      return nodo.richiesta(macchina + " " + comando);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Restituisce, per ogni nodo, il numero delle macchine che vi si trovano. */
+  Map<String, Integer> macchinePerNodo() {
+    lock.readLock().lock();
+    try {
+      Map<String, Integer> conteggi = new LinkedHashMap<>();
+      for (String nome : nodi.keySet()) conteggi.put(nome, 0);
+      for (Nodo n : posizioni.values()) conteggi.merge(n.nome, 1, Integer::sum);
+      return conteggi;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Chiude le connessioni con i nodi, senza fermarne i server. */
+  @Override
+  public void close() throws IOException {
+    lock.writeLock().lock();
+    try {
+      List<IOException> errori = new ArrayList<>();
+      for (Nodo n : nodi.values()) {
+        try {
+          n.chiudi();
+        } catch (IOException e) {
+          errori.add(e);
+        }
+      }
+      nodi.clear();
+      anello.clear();
+      posizioni.clear();
+      if (!errori.isEmpty()) throw errori.get(0);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+}
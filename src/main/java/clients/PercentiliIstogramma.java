@@ -0,0 +1,72 @@
+package clients;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import macchinette.Istogramma;
+
+public class PercentiliIstogramma {
+
+  private static final double[] PERCENTILI = {0, 10, 50, 90, 99, 99.9, 100};
+
+  // args: seme, numero di valori e massimo (escluso) dei valori casuali da aggiungere a quelli
+  // letti, uno per riga; i valori sono registrati in un istogramma e, alternandoli, in due
+  // istogrammi poi sommati, e se ne stampano conteggio, minimo, massimo e percentili, con il
+  // confronto tra i percentili e quelli esatti e tra l'istogramma e la somma dei due
+  public static void main(String[] args) {
+    long[] valori = new long[16];
+    int n = 0;
+    try (LettoreRighe in = LettoreRighe.standardInput();
+        ScrittoreRighe out = ScrittoreRighe.standardOutput()) {
+      while (in.haRiga()) {
+        String line = in.riga().toString().trim();
+        if (line.isEmpty()) continue;
+        if (n == valori.length) valori = Arrays.copyOf(valori, 2 * n);
+        valori[n++] = Long.parseLong(line);
+      }
+      if (args.length == 3) {
+        SplittableRandom caso = new SplittableRandom(Long.parseLong(args[0]));
+        int casuali = Integer.parseInt(args[1]);
+        long massimo = Long.parseLong(args[2]);
+        valori = Arrays.copyOf(valori, n + casuali);
+        // valori distribuiti su molti ordini di grandezza, come le latenze
+        for (int i = 0; i < casuali; i++)
+          valori[n++] = caso.nextLong(1, massimo) >>> caso.nextInt(32);
+      }
+      valori = Arrays.copyOf(valori, n);
+
+      Istogramma tutti = new Istogramma();
+      Istogramma pari = new Istogramma();
+      Istogramma dispari = new Istogramma();
+      for (int i = 0; i < n; i++) {
+        tutti.registra(valori[i]);
+        (i % 2 == 0 ? pari : dispari).registra(valori[i]);
+      }
+      pari.aggiungi(dispari);
+
+      out.riga("conteggio " + tutti.conteggio());
+      out.riga("minimo " + tutti.minimo());
+      out.riga("massimo " + tutti.massimo());
+      Arrays.sort(valori);
+      for (double p : PERCENTILI) {
+        long v = tutti.percentile(p);
+        StringBuilder riga = out.buffer().append("p").append(p).append(' ').append(v);
+        if (n > 0) {
+          long esatto = valori[Math.max(0, (int) Math.ceil(p / 100 * n) - 1)];
+          riga.append(" (esatto ").append(esatto).append(')');
+          // l'intervallo di un valore è più stretto di 1/128 del valore
+          if (v < esatto || v - esatto > esatto / 128) riga.append(" fuori tolleranza");
+        }
+        out.aCapo();
+      }
+
+      boolean uguali =
+          pari.conteggio() == tutti.conteggio()
+              && pari.minimo() == tutti.minimo()
+              && pari.massimo() == tutti.massimo()
+              && pari.media() == tutti.media();
+      for (int p = 0; p <= 1000; p++)
+        uguali &= pari.percentile(p / 10.0) == tutti.percentile(p / 10.0);
+      out.riga(uguali ? "somma uguale" : "somma diversa: " + pari + " invece di " + tutti);
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package clients;
+
+import java.util.concurrent.locks.LockSupport;
+import macchinette.Distributore;
+import macchinette.ErogazioneException;
+import macchinette.Istogramma;
+import macchinette.Metriche;
+
+public class ProvaCarico {
+
+  private static final String BINARI =
+      "10|S, 10|S, 10|S, 10|S, 10|S, 10|S, 10|M, 10|M, 10|M, 10|M, 10|M, 10|M, 10|L, 10|L, 10|L,"
+          + " 10|L";
+  private static final String FONDO_CASSA = "50 x .05, 50 x .10, 50 x .20, 50 x .50, 20 x 1";
+
+  // esiti: erogazione riuscita, un elemento per ogni motivo di errore, caricamento
+  private static final ErogazioneException.Motivo[] MOTIVI = ErogazioneException.Motivo.values();
+  private static final int RIUSCITA = 0;
+  private static final int CARICAMENTO = MOTIVI.length + 1;
+
+  // args: chiave=valore per i parametri del carico (vedi GeneratoreCarico.Parametri) e per
+  // distributori, operazioni (per distributore), binari e fondo (come in UsaDistributore) e
+  // metriche (testo o json: registra le operazioni in un registro comune e lo stampa)
+  public static void main(String[] args) throws InterruptedException {
+    GeneratoreCarico.Parametri parametri = new GeneratoreCarico.Parametri();
+    int distributori = 4;
+    int operazioni = 250_000;
+    String binari = BINARI;
+    String fondoCassa = FONDO_CASSA;
+    String formatoMetriche = null;
+    for (String arg : parametri.imposta(args)) {
+      String[] kv = arg.split("=", 2);
+      if (kv.length != 2) throw new IllegalArgumentException("argomento non valido: " + arg);
+      switch (kv[0]) {
+        case "distributori" -> distributori = Integer.parseInt(kv[1]);
+        case "operazioni" -> operazioni = Integer.parseInt(kv[1]);
+        case "binari" -> binari = kv[1];
+        case "fondo" -> fondoCassa = kv[1];
+        case "metriche" -> formatoMetriche = kv[1];
+        default -> throw new IllegalArgumentException("parametro sconosciuto: " + kv[0]);
+      }
+    }
+
+    // un thread per distributore, ciascuno con il proprio generatore e i propri istogrammi
+    Istogramma[][] istogrammi = new Istogramma[distributori][];
+    Thread[] threads = new Thread[distributori];
+    int perDistributore = operazioni;
+    boolean aTasso = parametri.tasso > 0;
+    Metriche metriche = formatoMetriche == null ? null : new Metriche();
+    long inizio = System.nanoTime();
+    for (int t = 0; t < distributori; t++) {
+      Distributore distributore = UsaDistributore.distributore(binari, fondoCassa);
+      distributore.usaMetriche(metriche);
+      GeneratoreCarico generatore = new GeneratoreCarico(parametri, parametri.seme + t + 1);
+      istogrammi[t] = nuoviIstogrammi();
+      Istogramma[] miei = istogrammi[t];
+      threads[t] =
+          new Thread(() -> esegui(distributore, generatore, perDistributore, aTasso, miei));
+      threads[t].start();
+    }
+    for (Thread thread : threads) thread.join();
+    long durata = System.nanoTime() - inizio;
+
+    Istogramma[] totali = nuoviIstogrammi();
+    for (Istogramma[] h : istogrammi)
+      for (int e = 0; e < totali.length; e++) totali[e].aggiungi(h[e]);
+    stampa(distributori, (long) operazioni * distributori, durata, totali);
+    if (metriche != null)
+      System.out.println(formatoMetriche.equals("json") ? metriche.json() : metriche.testo());
+  }
+
+  private static Istogramma[] nuoviIstogrammi() {
+    Istogramma[] h = new Istogramma[MOTIVI.length + 2];
+    for (int e = 0; e < h.length; e++) h[e] = new Istogramma();
+    return h;
+  }
+
+  // con un tasso fissato, la latenza è misurata dall'istante di arrivo previsto e non da quello
+  // effettivo, così che il ritardo accumulato quando il distributore non tiene il passo sia
+  // contato (invece di essere nascosto rallentando gli arrivi)
+  private static void esegui(
+      Distributore distributore,
+      GeneratoreCarico generatore,
+      int operazioni,
+      boolean aTasso,
+      Istogramma[] esiti) {
+    GeneratoreCarico.Operazione op = new GeneratoreCarico.Operazione();
+    long inizio = System.nanoTime();
+    for (int i = 0; i < operazioni; i++) {
+      generatore.prossima(op);
+      long arrivo = inizio + op.arrivo;
+      long attesa;
+      while ((attesa = arrivo - System.nanoTime()) > 0) {
+        if (attesa > 50_000) LockSupport.parkNanos(attesa - 50_000);
+        else Thread.onSpinWait();
+      }
+      long t0 = aTasso ? arrivo : System.nanoTime();
+      int esito;
+      if (op.tipo == GeneratoreCarico.Tipo.CARICA) {
+        distributore.carica(op.prodotto, op.quantita);
+        esito = CARICAMENTO;
+      } else {
+        try {
+          distributore.erogaProdotto(op.prodotto, op.pagamento);
+          esito = RIUSCITA;
+        } catch (ErogazioneException e) {
+          esito = e.motivo().ordinal() + 1;
+        }
+      }
+      esiti[esito].registra(System.nanoTime() - t0);
+    }
+  }
+
+  private static void stampa(int distributori, long operazioni, long durata, Istogramma[] esiti) {
+    System.out.printf(
+        "%d distributori, %,d operazioni in %.2f s: %,.0f op/s%n",
+        distributori, operazioni, durata / 1e9, operazioni * 1e9 / durata);
+    System.out.printf(
+        "%-12s %12s %7s %10s %10s %10s %10s %10s%n",
+        "esito", "conteggio", "%", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us");
+    for (int e = 0; e < esiti.length; e++) {
+      Istogramma h = esiti[e];
+      System.out.printf(
+          "%-12s %,12d %7.2f %10.2f %10.2f %10.2f %10.2f %10.2f%n",
+          nome(e),
+          h.conteggio(),
+          100.0 * h.conteggio() / operazioni,
+          h.percentile(50) / 1e3,
+          h.percentile(90) / 1e3,
+          h.percentile(99) / 1e3,
+          h.percentile(99.9) / 1e3,
+          h.massimo() / 1e3);
+    }
+  }
+
+  private static String nome(int esito) {
+    if (esito == RIUSCITA) return "erogazione";
+    if (esito == CARICAMENTO) return "caricamento";
+    return MOTIVI[esito - 1].name();
+  }
+}
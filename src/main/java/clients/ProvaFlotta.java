@@ -0,0 +1,180 @@
+package clients;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.SocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import macchinette.Distributore;
+import macchinette.StrategiaResto;
+
+public class ProvaFlotta {
+
+  private static final String BINARI = "20|S, 20|S, 20|M, 20|M, 20|L, 20|L";
+  private static final String FONDO_CASSA = "20 x .05, 20 x .10, 20 x .20, 20 x .50, 10 x 1";
+  private static final String[] PRODOTTI = {"Acqua|.70|S", "Caffè|.40|S", "Panino|2.50|M"};
+  private static final String[] PAGAMENTI = {"1 x 1", "2 x .50, 1 x .20", "1 x 2", "3 x .20"};
+  private static final int CLIENT = 4;
+  // strategie per il resto delle macchine, a rotazione: devono sopravvivere agli spostamenti
+  private static final String[] STRATEGIE = {"H", "L", "esatta", "adattiva"};
+
+  // args: nodi (processi server), macchine, richieste per macchina; le richieste sono inoltrate
+  // sia alla flotta ripartita sia a un server di riferimento con tutte le macchine, e le risposte
+  // devono coincidere anche se, durante la prova, si aggiunge un nodo e poi se ne toglie uno
+  public static void main(String[] args) throws Exception {
+    int nodi = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+    int macchine = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+    int richieste = args.length > 2 ? Integer.parseInt(args[2]) : 2_000;
+
+    Path cartella = Files.createTempDirectory("flotta");
+    List<Process> processi = new ArrayList<>();
+    List<Distributore> distributori = new ArrayList<>();
+    for (int m = 0; m < macchine; m++)
+      distributori.add(distributore(m));
+    try (ServerDistributore riferimento =
+            new ServerDistributore(distributori, ServerDistributore.indirizzo("0"));
+        PartizioniFlotta flotta = new PartizioniFlotta()) {
+      // un nodo in più, da aggiungere durante la prova
+      List<SocketAddress> indirizzi = new ArrayList<>();
+      for (int k = 0; k <= nodi; k++)
+        indirizzi.add(avvia(cartella.resolve("nodo-" + k + ".sock"), processi));
+      for (int k = 0; k < nodi; k++) flotta.aggiungiNodo("nodo-" + k, indirizzi.get(k));
+      for (int m = 0; m < macchine; m++)
+        flotta.aggiungi(m, distributore(m));
+      System.out.println("iniziale " + flotta.macchinePerNodo());
+
+      long totale = (long) macchine * richieste;
+      AtomicLong eseguite = new AtomicLong();
+      AtomicLong discordanti = new AtomicLong();
+      List<Thread> client = new ArrayList<>();
+      long inizio = System.nanoTime();
+      for (int c = 0; c < CLIENT; c++) {
+        int primo = c;
+        Thread t =
+            new Thread(
+                () -> {
+                  try {
+                    confronta(
+                        flotta,
+                        riferimento.indirizzo(),
+                        primo,
+                        macchine,
+                        richieste,
+                        eseguite,
+                        discordanti);
+                  } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                  }
+                });
+        t.start();
+        client.add(t);
+      }
+
+      attendi(eseguite, totale / 3);
+      int spostate = flotta.aggiungiNodo("nodo-" + nodi, indirizzi.get(nodi));
+      System.out.println("aggiunto nodo-" + nodi + ": " + spostate + " macchine spostate");
+      attendi(eseguite, 2 * totale / 3);
+      spostate = flotta.rimuoviNodo("nodo-0");
+      System.out.println("rimosso nodo-0: " + spostate + " macchine spostate");
+      for (Thread t : client) t.join();
+      long durata = System.nanoTime() - inizio;
+
+      System.out.println("finale " + flotta.macchinePerNodo());
+      System.out.printf(
+          "%,d richieste in %.2f s: %,.0f req/s, %d risposte discordanti%n",
+          eseguite.get(), durata / 1e9, eseguite.get() * 1e9 / durata, discordanti.get());
+    } finally {
+      for (Process p : processi) p.destroy();
+      for (Process p : processi) p.waitFor();
+      // i server cancellano il proprio socket alla chiusura; restano quelli non partiti
+      for (int k = 0; k <= nodi; k++) Files.deleteIfExists(cartella.resolve("nodo-" + k + ".sock"));
+      Files.delete(cartella);
+    }
+  }
+
+  // avvia un ServerDistributore senza macchine in un processo separato e ne attende l'avvio
+  private static SocketAddress avvia(Path socket, List<Process> processi) throws IOException {
+    String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    Process p =
+        new ProcessBuilder(
+                java,
+                "-cp",
+                System.getProperty("java.class.path"),
+                ServerDistributore.class.getName(),
+                "unix:" + socket)
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+    processi.add(p);
+    p.getOutputStream().close();
+    BufferedReader out =
+        new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8));
+    String riga = out.readLine();
+    if (riga == null || !riga.startsWith("in ascolto su"))
+      throw new IOException("il server su " + socket + " non è partito");
+    return ServerDistributore.indirizzo("unix:" + socket);
+  }
+
+  private static Distributore distributore(int macchina) {
+    StrategiaResto strategia = StrategiaResto.perNome(STRATEGIE[macchina % STRATEGIE.length]);
+    return UsaDistributore.distributore(BINARI, FONDO_CASSA, strategia);
+  }
+
+  private static void attendi(AtomicLong eseguite, long soglia) throws InterruptedException {
+    while (eseguite.get() < soglia) Thread.sleep(1);
+  }
+
+  // ogni client serve le macchine congrue a primo modulo CLIENT, una richiesta alla volta, con
+  // una sequenza di richieste che dipende solo dalla macchina
+  private static void confronta(
+      PartizioniFlotta flotta,
+      SocketAddress riferimento,
+      int primo,
+      int macchine,
+      int richieste,
+      AtomicLong eseguite,
+      AtomicLong discordanti)
+      throws IOException {
+    List<SplittableRandom> casi = new ArrayList<>();
+    for (int m = primo; m < macchine; m += CLIENT) casi.add(new SplittableRandom(m));
+    try (SocketChannel canale = ServerDistributore.connetti(riferimento);
+        LettoreRighe in = new LettoreRighe(canale);
+        ScrittoreRighe out =
+            new ScrittoreRighe(new PrintStream(Channels.newOutputStream(canale), false))) {
+      for (int r = 0; r < richieste; r++) {
+        for (int j = 0; j < casi.size(); j++) {
+          int m = primo + j * CLIENT;
+          String comando = comando(casi.get(j));
+          String risposta = flotta.esegui(m, comando);
+          out.append(Integer.toString(m)).append(" ").riga(comando);
+          out.flush();
+          String attesa = in.riga().toString();
+          if (!risposta.equals(attesa)) {
+            if (discordanti.getAndIncrement() < 10)
+              System.err.println(m + " " + comando + ": " + risposta + " invece di " + attesa);
+          }
+          eseguite.incrementAndGet();
+        }
+      }
+    }
+  }
+
+  private static String comando(SplittableRandom caso) {
+    int p = caso.nextInt(10);
+    if (p < 2)
+      return "+ " + (1 + caso.nextInt(5)) + ", " + PRODOTTI[caso.nextInt(PRODOTTI.length)];
+    if (p < 9)
+      return "- " + caso.nextInt(6) + ", " + PAGAMENTI[caso.nextInt(PAGAMENTI.length)];
+    return "?";
+  }
+}
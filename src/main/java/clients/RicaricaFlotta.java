@@ -0,0 +1,64 @@
+package clients;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import macchinette.Aggregato;
+import macchinette.Binario;
+import macchinette.Distributore;
+import macchinette.Prodotto;
+import macchinette.StrategiaRestoH;
+import macchinette.Taglia;
+
+public class RicaricaFlotta {
+
+  // args: distributori (predefinito 10000), binari per distributore (64), prodotti (40) e unità
+  // per prodotto (20); confronta il tempo della ricarica notturna della flotta con una chiamata a
+  // carica per prodotto e con una sola chiamata a caricaTutti per distributore
+  public static void main(String[] args) {
+    int distributori = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+    int binari = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+    GeneratoreCarico.Parametri parametri = new GeneratoreCarico.Parametri();
+    parametri.prodotti = args.length > 2 ? Integer.parseInt(args[2]) : 40;
+    int unita = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+    Map<Prodotto, Integer> ricarica = new LinkedHashMap<>();
+    for (Prodotto p : new GeneratoreCarico(parametri, 0).prodotti()) ricarica.put(p, unita);
+
+    for (int giro = 0; giro < 3; giro++) {
+      boolean riscaldamento = giro == 0;
+      List<Distributore> primaFlotta = flotta(distributori, binari);
+      long rimastiSingoli = 0;
+      long inizio = System.nanoTime();
+      for (Distributore d : primaFlotta)
+        for (Map.Entry<Prodotto, Integer> e : ricarica.entrySet())
+          rimastiSingoli += d.carica(e.getKey(), e.getValue());
+      long singoli = System.nanoTime() - inizio;
+
+      List<Distributore> secondaFlotta = flotta(distributori, binari);
+      long rimastiTutti = 0;
+      inizio = System.nanoTime();
+      for (Distributore d : secondaFlotta)
+        for (int r : d.caricaTutti(ricarica).values()) rimastiTutti += r;
+      long tutti = System.nanoTime() - inizio;
+
+      if (rimastiSingoli != rimastiTutti) throw new AssertionError("ricariche diverse");
+      if (riscaldamento) continue;
+      System.out.printf(
+          "%,d distributori, %,d prodotti non caricati: carica %,.0f ms, caricaTutti %,.0f ms%n",
+          distributori, rimastiTutti, singoli / 1e6, tutti / 1e6);
+    }
+  }
+
+  // distributori vuoti con binari di taglie e capacità alternate
+  private static List<Distributore> flotta(int distributori, int binari) {
+    List<Distributore> flotta = new ArrayList<>(distributori);
+    for (int k = 0; k < distributori; k++) {
+      List<Binario> b = new ArrayList<>(binari);
+      for (int i = 0; i < binari; i++) b.add(new Binario(Taglia.values()[i % 3], 8 + 4 * (i % 4)));
+      flotta.add(new Distributore(b, new Aggregato(), StrategiaRestoH.INSTANCE));
+    }
+    return flotta;
+  }
+}
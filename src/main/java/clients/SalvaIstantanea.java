@@ -0,0 +1,91 @@
+package clients;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import macchinette.Aggregato;
+import macchinette.Catalogo;
+import macchinette.Distributore;
+import macchinette.ErogazioneException;
+import macchinette.Istantanea;
+import macchinette.StrategiaResto;
+import macchinette.StrategiaRestoH;
+
+public class SalvaIstantanea {
+
+  // args: nome della strategia per il resto (H se assente, anonima per una strategia H senza
+  // nome, che le istantanee non possono registrare); le prime due righe sono i binari e il fondo
+  // cassa (come in UsaDistributore), le altre sono i comandi + e - di UsaDistributore, "?", che
+  // stampa lo stato, "salva", che salva l'istantanea su un file temporaneo e prosegue con il
+  // distributore ripristinato dal file, o "tronca n" e "altera n", che provano a decodificare
+  // l'istantanea ridotta ai primi n byte o con il byte n alterato
+  public static void main(String[] args) throws IOException {
+    Path file = Files.createTempFile("istantanea", ".bin");
+    try (LettoreRighe in = LettoreRighe.standardInput();
+        ScrittoreRighe out = ScrittoreRighe.standardOutput()) {
+      in.svuotaPrimaDiLeggere(out);
+      String rigaBinari = in.riga().toString();
+      StrategiaResto strategia = StrategiaRestoH.INSTANCE;
+      if (args.length > 0 && args[0].equals("anonima"))
+        strategia = StrategiaRestoH.INSTANCE::calcola;
+      else if (args.length > 0) strategia = StrategiaResto.perNome(args[0]);
+      Distributore d = UsaDistributore.distributore(rigaBinari, in.riga().toString(), strategia);
+      Catalogo catalogo = new Catalogo();
+
+      while (in.haRiga()) {
+        String line = in.riga().toString().trim();
+        try {
+          if (line.equals("?")) {
+            stampa(out, d);
+          } else if (line.equals("salva")) {
+            byte[] prima = Istantanea.codifica(d);
+            Istantanea.salva(d, file);
+            d = Istantanea.ripristina(file);
+            out.riga(
+                "salva "
+                    + Files.size(file)
+                    + " byte, "
+                    + (Arrays.equals(prima, Istantanea.codifica(d)) ? "uguale" : "diverso"));
+          } else if (line.startsWith("tronca") || line.startsWith("altera")) {
+            byte[] istantanea = Istantanea.codifica(d);
+            int n = Integer.parseInt(line.substring(6).trim());
+            if (line.startsWith("tronca")) istantanea = Arrays.copyOf(istantanea, n);
+            else istantanea[n] ^= 1;
+            try {
+              Istantanea.decodifica(istantanea);
+              out.riga(line + " decodificata");
+            } catch (IOException e) {
+              out.riga(line + " " + e.getMessage());
+            }
+          } else {
+            char comando = line.charAt(0);
+            String[] p = line.substring(1).trim().split(",", 2);
+            if (comando == '+') {
+              int nonCaricati =
+                  d.carica(catalogo.parse(p[1].trim()), Integer.parseInt(p[0].trim()));
+              out.riga("+ " + nonCaricati);
+            } else if (comando == '-') {
+              try {
+                out.riga(
+                    "- " + d.eroga(Integer.parseInt(p[0].trim()), Aggregato.parse(p[1].trim())));
+              } catch (ErogazioneException e) {
+                out.riga("- " + e.getMessage());
+              }
+            }
+          }
+        } catch (RuntimeException e) {
+          out.riga("! " + e.getMessage());
+        }
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  // stampa il valore del fondo cassa e i binari non vuoti del distributore
+  static void stampa(ScrittoreRighe out, Distributore d) {
+    out.riga("? " + d);
+    d.forEachNonVuoto((bin, indice) -> out.riga("? " + indice + " " + bin));
+  }
+}
@@ -0,0 +1,88 @@
+package clients;
+
+import java.io.Flushable;
+import java.io.PrintStream;
+
+/**
+ * Scrittore di righe con buffer, alternativo a {@link PrintStream#println}.
+ *
+ * <p>Il testo è accumulato in un {@link StringBuilder} e passato allo stream (con la sua
+ * codifica, quindi con gli stessi byte di {@code println}) solo quando il buffer supera una
+ * soglia, alla chiusura o, se lo scrittore è collegato a un lettore con {@link
+ * LettoreRighe#svuotaPrimaDiLeggere}, quando il lettore sta per attendere altro input, invece che
+ * con uno svuotamento sincronizzato a ogni riga: così un programma interattivo mostra le risposte
+ * prima di attendere la riga successiva. La chiusura svuota il buffer ma non chiude lo stream.
+ */
+final class ScrittoreRighe implements Appendable, Flushable, AutoCloseable {
+
+  private static final int SOGLIA = 1 << 16;
+  private static final String A_CAPO = System.lineSeparator();
+
+  private final PrintStream destinazione;
+  private final StringBuilder buffer = new StringBuilder(SOGLIA + 256);
+
+  ScrittoreRighe(PrintStream destinazione) {
+    this.destinazione = destinazione;
+  }
+
+  /** Crea uno scrittore sullo standard output. */
+  static ScrittoreRighe standardOutput() {
+    return new ScrittoreRighe(System.out);
+  }
+
+  @Override
+  public ScrittoreRighe append(CharSequence csq) {
+    buffer.append(csq);
+    if (buffer.length() >= SOGLIA) flush();
+    return this;
+  }
+
+  @Override
+  public ScrittoreRighe append(CharSequence csq, int inizio, int fine) {
+    buffer.append(csq, inizio, fine);
+    if (buffer.length() >= SOGLIA) flush();
+    return this;
+  }
+
+  @Override
+  public ScrittoreRighe append(char c) {
+    buffer.append(c);
+    if (buffer.length() >= SOGLIA) flush();
+    return this;
+  }
+
+  /** Scrive la rappresentazione testuale dell'oggetto e va a capo, come {@code println}. */
+  ScrittoreRighe riga(Object o) {
+    buffer.append(o);
+    return aCapo();
+  }
+
+  /**
+   * Restituisce il buffer, per scrivere la riga corrente direttamente (ad esempio con i metodi
+   * {@code appendTo} dei valori) senza passare da stringhe intermedie; la riga va poi terminata
+   * con {@link #aCapo()}.
+   */
+  StringBuilder buffer() {
+    return buffer;
+  }
+
+  /** Termina la riga corrente. */
+  ScrittoreRighe aCapo() {
+    buffer.append(A_CAPO);
+    if (buffer.length() >= SOGLIA) flush();
+    return this;
+  }
+
+  /** Passa allo stream il testo accumulato. */
+  @Override
+  public void flush() {
+    destinazione.append(buffer);
+    destinazione.flush();
+    buffer.setLength(0);
+  }
+
+  @Override
+  public void close() {
+    flush();
+  }
+}
@@ -0,0 +1,482 @@
+package clients;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import macchinette.Aggregato;
+import macchinette.Catalogo;
+import macchinette.Codifica;
+import macchinette.Distributore;
+import macchinette.DistributoreAsincrono;
+import macchinette.ErogazioneException;
+import macchinette.Istantanea;
+import macchinette.Prodotto;
+
+/**
+ * Server che espone uno o più distributori su un socket TCP (solo loopback) o Unix.
+ *
+ * <p>Il protocollo è a righe: ogni richiesta è {@code <macchina> <comando>}, dove il comando ha la
+ * sintassi di {@link UsaDistributore} ({@code + q, prodotto}, {@code - i, aggregato} o {@code ?}),
+ * e riceve esattamente una riga di risposta, nello stesso ordine delle richieste:
+ *
+ * <ul>
+ *   <li>{@code + n} con il numero di prodotti che non è stato possibile caricare;
+ *   <li>{@code - resto}, {@code - <>} o {@code - motivo} se l'erogazione non riesce;
+ *   <li>{@code ? i | nome | prezzo ; ...} con i binari non vuoti (solo {@code ?} se non ce ne
+ *       sono);
+ *   <li>{@code ! messaggio} se la richiesta è malformata.
+ * </ul>
+ *
+ * <p>Le macchine sono identificate da un numero, inizialmente la loro posizione nella lista passata
+ * al costruttore. Le richieste che iniziano con {@code @} spostano macchine tra server, come fa
+ * {@link PartizioniFlotta}:
+ *
+ * <ul>
+ *   <li>{@code @esporta m} toglie dal server la macchina m, dopo aver eseguito le richieste già
+ *       inoltrate (quelle successive ricevono {@code !}), e risponde {@code @ istantanea} con la
+ *       sua {@link Istantanea} in Base64;
+ *   <li>{@code @importa m istantanea} aggiunge la macchina m, ricostruita dall'istantanea con la
+ *       strategia per il resto che vi è registrata, e risponde {@code @ ok} ({@code !} se la
+ *       strategia non ha nome o ne ha uno sconosciuto);
+ *   <li>{@code @elenco} risponde {@code @} seguito dai numeri delle macchine presenti.
+ * </ul>
+ *
+ * <p>La richiesta {@code @binario}, terminata da {@code \n}, fa passare la connessione al formato
+ * binario di {@link Codifica}, che evita di scrivere e interpretare testo: il server risponde
+ * {@code @ binario} e da lì in poi richieste e risposte sono blocchi formati dalla lunghezza
+ * (varint) e dal contenuto. Il client non deve inviare altro prima di aver ricevuto la risposta
+ * (altrimenti il server risponde {@code !} e chiude la connessione). Il contenuto di una richiesta
+ * è il numero della macchina (varint) seguito da un comando di {@link Codifica}, preceduto dalle
+ * definizioni dei prodotti nuovi, che valgono per il resto della connessione anche se il comando
+ * non va a buon fine; quello di una risposta è un byte di tipo seguito dai campi:
+ *
+ * <ul>
+ *   <li>{@link Codifica#CARICA} e il numero (varint) di prodotti non caricati;
+ *   <li>{@link Codifica#EROGA} e il resto (aggregato), per entrambi i comandi di erogazione;
+ *   <li>{@link Codifica#INTERROGA}, il numero (varint) di binari non vuoti e, per ciascuno,
+ *       l'indice (varint) e il prodotto;
+ *   <li>{@link #ERRORE} e la riga (stringa) che il protocollo a righe darebbe al suo posto, cioè
+ *       {@code - motivo} o {@code ! messaggio}.
+ * </ul>
+ *
+ * <p>Spostamenti e richieste {@code @} restano nel protocollo a righe; una richiesta binaria più
+ * lunga di {@link #MAX_RICHIESTA} byte o malformata nel formato dei blocchi chiude la connessione.
+ *
+ * <p>Ogni connessione è servita da un thread virtuale; ogni distributore è incapsulato in un
+ * {@link DistributoreAsincrono}, per cui le connessioni non si contendono alcun lock. Le richieste
+ * già arrivate sono inoltrate tutte insieme e le relative risposte sono spedite con un'unica
+ * scrittura: un client può quindi inviare più richieste senza attendere le risposte.
+ */
+public final class ServerDistributore implements AutoCloseable {
+
+  // richieste inoltrate prima di attendere le risposte, anche se ne sono arrivate altre
+  private static final int MAX_IN_ATTESA = 1024;
+
+  /** Lunghezza massima in byte del contenuto di una richiesta binaria. */
+  static final int MAX_RICHIESTA = (1 << 16) - 8;
+
+  /** Tipo della risposta binaria che riporta un errore. */
+  static final byte ERRORE = 0;
+
+  private final Map<Integer, DistributoreAsincrono> macchine = new ConcurrentHashMap<>();
+  private final Catalogo catalogo = new Catalogo(); // condiviso tra le connessioni
+  private final ServerSocketChannel server;
+  private final ExecutorService connessioni = Executors.newVirtualThreadPerTaskExecutor();
+
+  /**
+   * Avvia il server sull'indirizzo indicato, con i distributori indicati (anche nessuno, se le
+   * macchine saranno importate).
+   *
+   * @throws IOException se non è possibile mettersi in ascolto
+   */
+  public ServerDistributore(List<Distributore> distributori, SocketAddress indirizzo)
+      throws IOException {
+    server =
+        indirizzo instanceof UnixDomainSocketAddress
+            ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+            : ServerSocketChannel.open();
+    server.bind(indirizzo);
+    for (Distributore d : distributori)
+      macchine.put(macchine.size(), new DistributoreAsincrono(d, 1024));
+    connessioni.execute(this::accetta);
+  }
+
+  /**
+   * Interpreta un indirizzo: {@code unix:percorso} per un socket Unix, altrimenti una porta TCP
+   * sull'interfaccia di loopback (0 per una porta libera qualsiasi).
+   */
+  public static SocketAddress indirizzo(String s) {
+    if (s.startsWith("unix:")) return UnixDomainSocketAddress.of(s.substring(5));
+    return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(s));
+  }
+
+  /** Restituisce l'indirizzo su cui il server è in ascolto. */
+  public SocketAddress indirizzo() {
+    try {
+      return server.getLocalAddress();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Apre una connessione verso un server, disattivando l'algoritmo di Nagle se si usa TCP. */
+  public static SocketChannel connetti(SocketAddress indirizzo) throws IOException {
+    SocketChannel canale = SocketChannel.open(indirizzo);
+    senzaRitardo(canale);
+    return canale;
+  }
+
+  private static void senzaRitardo(NetworkChannel canale) throws IOException {
+    if (canale.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY))
+      canale.setOption(StandardSocketOptions.TCP_NODELAY, true);
+  }
+
+  private void accetta() {
+    try {
+      while (true) {
+        SocketChannel canale = server.accept();
+        connessioni.execute(() -> servi(canale));
+      }
+    } catch (ClosedChannelException e) {
+      // il server è stato chiuso
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void servi(SocketChannel canale) {
+    try (canale;
+        LettoreRighe in = new LettoreRighe(canale);
+        ScrittoreRighe out =
+            new ScrittoreRighe(new PrintStream(Channels.newOutputStream(canale), false))) {
+      senzaRitardo(canale);
+      ArrayDeque<CompletableFuture<String>> inAttesa = new ArrayDeque<>();
+      while (in.haRiga()) {
+        String riga = in.riga().toString();
+        if (riga.trim().equals("@binario")) {
+          while (!inAttesa.isEmpty()) out.riga(inAttesa.remove().join());
+          if (!in.esaurito()) {
+            out.riga("! dati ricevuti prima della risposta a @binario");
+            return;
+          }
+          out.riga("@ binario");
+          out.flush();
+          serviBinario(canale);
+          return;
+        }
+        inAttesa.add(esegui(riga));
+        if (inAttesa.size() < MAX_IN_ATTESA && in.rigaInAttesa()) continue;
+        while (!inAttesa.isEmpty()) out.riga(inAttesa.remove().join());
+        out.flush();
+      }
+    } catch (IOException | UncheckedIOException e) {
+      // la connessione è stata chiusa dal client o dalla chiusura del server
+    }
+  }
+
+  private CompletableFuture<String> esegui(String riga) {
+    try {
+      riga = riga.trim();
+      if (riga.startsWith("@")) return gestisci(riga.substring(1).trim().split("\\s+"));
+      int spazio = riga.indexOf(' ');
+      if (spazio < 0) throw new IllegalArgumentException("richiesta incompleta");
+      int macchina = Integer.parseInt(riga.substring(0, spazio));
+      DistributoreAsincrono d = macchine.get(macchina);
+      if (d == null) throw new IllegalArgumentException("macchina inesistente: " + macchina);
+      String comando = riga.substring(spazio + 1).trim();
+      String[] p = comando.substring(1).trim().split(",", 2);
+
+      CompletableFuture<String> risposta;
+      switch (comando.charAt(0)) {
+        case '+':
+          risposta =
+              d.carica(catalogo.parse(p[1].trim()), Integer.parseInt(p[0].trim()))
+                  .thenApply(n -> "+ " + n);
+          break;
+        case '-':
+          risposta =
+              d.eroga(Integer.parseInt(p[0].trim()), Aggregato.parse(p[1].trim()))
+                  .thenApply(resto -> resto.appendTo(new StringBuilder("- ")).toString());
+          break;
+        case '?':
+          risposta = d.interroga(ServerDistributore::disponibili);
+          break;
+        default:
+          throw new IllegalArgumentException("comando sconosciuto: " + comando.charAt(0));
+      }
+      return risposta.exceptionally(ServerDistributore::errore);
+    } catch (RuntimeException e) {
+      return CompletableFuture.completedFuture(errore(e));
+    }
+  }
+
+  // richieste di spostamento delle macchine (già divise in parole, senza @)
+  private CompletableFuture<String> gestisci(String[] p) {
+    switch (p[0]) {
+      case "esporta" -> {
+        DistributoreAsincrono d = macchine.remove(Integer.parseInt(p[1]));
+        if (d == null) throw new IllegalArgumentException("macchina inesistente: " + p[1]);
+        // l'istantanea è presa insieme alla chiusura: un comando di un'altra connessione che ha
+        // già trovato la macchina o è eseguito prima o è rifiutato, mai eseguito dopo
+        return d.chiudi(Istantanea::codifica)
+            .thenApply(istantanea -> "@ " + Base64.getEncoder().encodeToString(istantanea));
+      }
+      case "importa" -> {
+        int macchina = Integer.parseInt(p[1]);
+        if (macchine.containsKey(macchina))
+          throw new IllegalArgumentException("macchina già presente: " + macchina);
+        Distributore d;
+        try {
+          d = Istantanea.decodifica(Base64.getDecoder().decode(p[2]));
+        } catch (IOException e) {
+          throw new IllegalArgumentException(e.getMessage(), e);
+        }
+        DistributoreAsincrono asincrono = new DistributoreAsincrono(d, 1024);
+        if (macchine.putIfAbsent(macchina, asincrono) != null) {
+          asincrono.close();
+          throw new IllegalArgumentException("macchina già presente: " + macchina);
+        }
+        return CompletableFuture.completedFuture("@ ok");
+      }
+      case "elenco" -> {
+        StringBuilder sb = new StringBuilder("@");
+        for (int m : new TreeSet<>(macchine.keySet())) sb.append(' ').append(m);
+        return CompletableFuture.completedFuture(sb.toString());
+      }
+      default -> throw new IllegalArgumentException("richiesta sconosciuta: @" + p[0]);
+    }
+  }
+
+  private static String disponibili(Distributore d) {
+    StringBuilder sb = new StringBuilder("?");
+    d.forEachNonVuoto(
+        (bin, indice) -> {
+          if (sb.length() > 1) sb.append(" ;");
+          Prodotto prod = bin.prodotto();
+          sb.append(' ').append(indice).append(" | ").append(prod.nome()).append(" | ");
+          prod.prezzo().appendTo(sb);
+        });
+    return sb.toString();
+  }
+
+  private static String errore(Throwable e) {
+    if (e instanceof CompletionException && e.getCause() != null) e = e.getCause();
+    if (e instanceof ErogazioneException) return "- " + e.getMessage();
+    return "! " + e.getMessage();
+  }
+
+  // serve la connessione nel formato binario: come nel protocollo a righe, le richieste complete
+  // già ricevute sono inoltrate tutte e le risposte spedite insieme; i prodotti definiti dal
+  // client sono registrati in un catalogo della connessione, che ne segue gli identificativi
+  private void serviBinario(SocketChannel canale) throws IOException {
+    ByteBuffer ricevuti = ByteBuffer.allocateDirect(MAX_RICHIESTA + 8).flip();
+    ByteBuffer risposte = ByteBuffer.allocateDirect(1 << 16);
+    Catalogo prodotti = new Catalogo();
+    Codifica.Comando comando = new Codifica.Comando();
+    ArrayDeque<CompletableFuture<byte[]>> inAttesa = new ArrayDeque<>();
+    while (true) {
+      while (inAttesa.size() < MAX_IN_ATTESA) {
+        int inizio = ricevuti.position();
+        int lunghezza;
+        try {
+          lunghezza = Codifica.leggiVarint(ricevuti);
+        } catch (BufferUnderflowException e) {
+          ricevuti.position(inizio);
+          break;
+        } catch (IllegalArgumentException e) {
+          throw new IOException("lunghezza malformata", e);
+        }
+        if (lunghezza > MAX_RICHIESTA) throw new IOException("richiesta troppo lunga");
+        if (lunghezza > ricevuti.remaining()) {
+          ricevuti.position(inizio);
+          break;
+        }
+        int fine = ricevuti.position() + lunghezza;
+        int limite = ricevuti.limit();
+        ricevuti.limit(fine);
+        inAttesa.add(eseguiBinario(ricevuti, prodotti, comando));
+        ricevuti.limit(limite).position(fine);
+      }
+      if (inAttesa.isEmpty()) {
+        // nessuna richiesta completa: il buffer ha sempre spazio per completarne una
+        ricevuti.compact();
+        boolean chiuso = canale.read(ricevuti) < 0;
+        ricevuti.flip();
+        if (chiuso) return;
+        continue;
+      }
+      while (!inAttesa.isEmpty()) {
+        byte[] risposta = inAttesa.remove().join();
+        if (risposta.length + 5 > risposte.remaining()) spedisci(canale, risposte);
+        ByteBuffer dove =
+            risposta.length + 5 <= risposte.remaining()
+                ? risposte
+                : ByteBuffer.allocate(risposta.length + 5);
+        Codifica.scriviVarint(dove, risposta.length);
+        dove.put(risposta);
+        if (dove != risposte) spedisci(canale, dove);
+      }
+      spedisci(canale, risposte);
+    }
+  }
+
+  // esegue la richiesta binaria contenuta tra posizione e limite del buffer
+  private CompletableFuture<byte[]> eseguiBinario(
+      ByteBuffer richiesta, Catalogo prodotti, Codifica.Comando c) {
+    try {
+      int macchina = Codifica.leggiVarint(richiesta);
+      byte tipo;
+      do tipo = Codifica.leggiComando(richiesta, prodotti, c);
+      while (tipo == Codifica.PRODOTTO && richiesta.hasRemaining());
+      if (richiesta.hasRemaining()) throw new IllegalArgumentException("byte in eccesso");
+      DistributoreAsincrono d = macchine.get(macchina);
+      if (d == null) throw new IllegalArgumentException("macchina inesistente: " + macchina);
+
+      CompletableFuture<byte[]> esito;
+      switch (tipo) {
+        case Codifica.CARICA ->
+            esito =
+                d.carica(prodotti.prodotto(c.idProdotto()), c.quantita())
+                    .thenApply(ServerDistributore::nonCaricati);
+        case Codifica.EROGA ->
+            esito = d.eroga(c.indiceBinario(), c.pagamento()).thenApply(ServerDistributore::resto);
+        case Codifica.EROGA_PRODOTTO ->
+            esito =
+                d.erogaProdotto(prodotti.prodotto(c.idProdotto()), c.pagamento())
+                    .thenApply(ServerDistributore::resto);
+        case Codifica.INTERROGA ->
+            esito =
+                d.interroga(
+                    distributore ->
+                        risposta(Codifica.INTERROGA, buf -> disponibili(distributore, buf)));
+        default -> throw new IllegalArgumentException("richiesta senza comando");
+      }
+      return esito.exceptionally(e -> erroreBinario(errore(e)));
+    } catch (BufferUnderflowException e) {
+      return CompletableFuture.completedFuture(erroreBinario("! richiesta incompleta"));
+    } catch (RuntimeException e) {
+      return CompletableFuture.completedFuture(erroreBinario(errore(e)));
+    }
+  }
+
+  private static byte[] nonCaricati(int n) {
+    return risposta(Codifica.CARICA, buf -> Codifica.scriviVarint(buf, n));
+  }
+
+  private static byte[] resto(Aggregato resto) {
+    return risposta(Codifica.EROGA, buf -> Codifica.scriviAggregato(buf, resto));
+  }
+
+  private static byte[] erroreBinario(String riga) {
+    return risposta(ERRORE, buf -> Codifica.scriviStringa(buf, riga));
+  }
+
+  // binari non vuoti: numero, poi indice e prodotto di ciascuno
+  private static void disponibili(Distributore d, ByteBuffer buf) {
+    int[] numero = new int[1];
+    d.forEachNonVuoto((bin, indice) -> numero[0]++);
+    Codifica.scriviVarint(buf, numero[0]);
+    d.forEachNonVuoto(
+        (bin, indice) -> {
+          Codifica.scriviVarint(buf, indice);
+          Codifica.scriviProdotto(buf, bin.prodotto());
+        });
+  }
+
+  // contenuto di una risposta binaria: il tipo seguito dai campi scritti da campi, in un buffer
+  // raddoppiato finché non basta
+  private static byte[] risposta(byte tipo, Consumer<ByteBuffer> campi) {
+    for (int capacita = 64; ; capacita *= 2) {
+      ByteBuffer buf = ByteBuffer.allocate(capacita);
+      try {
+        buf.put(tipo);
+        campi.accept(buf);
+        return Arrays.copyOf(buf.array(), buf.position());
+      } catch (BufferOverflowException e) {
+        // riprova con un buffer più grande
+      }
+    }
+  }
+
+  // scrive sul canale il contenuto del buffer (fino alla posizione) e lo svuota
+  private static void spedisci(SocketChannel canale, ByteBuffer buf) throws IOException {
+    buf.flip();
+    while (buf.hasRemaining()) canale.write(buf);
+    buf.clear();
+  }
+
+  /** Chiude il server, le connessioni aperte e i distributori. */
+  @Override
+  public void close() throws IOException {
+    SocketAddress locale = server.getLocalAddress();
+    server.close();
+    connessioni.shutdownNow();
+    try {
+      connessioni.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (DistributoreAsincrono d : macchine.values()) d.close();
+    if (locale instanceof UnixDomainSocketAddress)
+      Files.deleteIfExists(((UnixDomainSocketAddress) locale).getPath());
+  }
+
+  // args[0] è l'indirizzo; lo standard input contiene, per ogni distributore, la riga dei binari
+  // e quella del fondo cassa
+  public static void main(String[] args) throws Exception {
+    List<Distributore> distributori = new ArrayList<>();
+    try (LettoreRighe in = LettoreRighe.standardInput()) {
+      while (in.haRiga()) {
+        String binari = in.riga().toString();
+        String fondoCassa = in.haRiga() ? in.riga().toString() : "";
+        distributori.add(UsaDistributore.distributore(binari, fondoCassa));
+      }
+    }
+
+    ServerDistributore server = new ServerDistributore(distributori, indirizzo(args[0]));
+    CountDownLatch fermato = new CountDownLatch(1);
+    Runtime.getRuntime()
+        .addShutdownHook(
+            new Thread(
+                () -> {
+                  try {
+                    server.close();
+                  } catch (IOException e) {
+                  }
+                  fermato.countDown();
+                }));
+    System.out.println(
+        "in ascolto su " + server.indirizzo() + " con " + distributori.size() + " distributori");
+    fermato.await();
+  }
+}
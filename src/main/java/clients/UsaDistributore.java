@@ -1,22 +1,77 @@
 package clients;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Scanner;
+import java.util.function.LongSupplier;
 import macchinette.Aggregato;
 import macchinette.Binario;
+import macchinette.Catalogo;
 import macchinette.Distributore;
 import macchinette.ErogazioneException;
 import macchinette.Prodotto;
+import macchinette.StrategiaResto;
 import macchinette.StrategiaRestoH;
 
 public class UsaDistributore {
 
   public static void main(String[] args) {
-    Scanner scanner = new Scanner(System.in);
+    try (LettoreRighe in = LettoreRighe.standardInput();
+        ScrittoreRighe out = ScrittoreRighe.standardOutput()) {
+      in.svuotaPrimaDiLeggere(out);
+      String rigaBinari = in.riga().toString();
+      Distributore distributore = distributore(rigaBinari, in.riga().toString());
+      Catalogo catalogo = new Catalogo();
 
+      while (in.haRiga()) {
+        try {
+          String line = in.riga().toString();
+          char comando = line.charAt(0);
+          String[] p = line.substring(1).trim().split(",", 2);
+
+          if (comando == '+') {
+            int nonCaricati =
+                distributore.carica(catalogo.parse(p[1].trim()), Integer.parseInt(p[0].trim()));
+            out.buffer().append("+ ").append(nonCaricati);
+            out.aCapo();
+          } else if (comando == '-') {
+            try {
+              Aggregato resto = distributore.eroga(Integer.parseInt(p[0].trim()), Aggregato.parse(p[1].trim()));
+              resto.appendTo(out.buffer().append("- "));
+              out.aCapo();
+            } catch (ErogazioneException e) {
+              out.buffer().append("- ").append(e.getMessage());
+              out.aCapo();
+            }
+          } else {
+            distributore.forEachNonVuoto((bin, indice) -> {
+              Prodotto prod = bin.prodotto();
+              StringBuilder riga = out.buffer().append("? ").append(indice);
+              prod.prezzo().appendTo(riga.append(" | ").append(prod.nome()).append(" | "));
+              out.aCapo();
+            });
+          }
+        } catch (Exception e) {
+        }
+      }
+    }
+  }
+
+  // crea un distributore dalla riga dei binari e da quella del fondo cassa, ignorando i binari
+  // malformati e usando un fondo cassa vuoto se è malformato
+  static Distributore distributore(String rigaBinari, String rigaFondoCassa) {
+    return distributore(rigaBinari, rigaFondoCassa, StrategiaRestoH.INSTANCE);
+  }
+
+  // come sopra, con la strategia per il resto indicata
+  static Distributore distributore(
+      String rigaBinari, String rigaFondoCassa, StrategiaResto strategia) {
+    return distributore(rigaBinari, rigaFondoCassa, strategia, System::nanoTime);
+  }
+
+  // come sopra, con l'orologio indicato per le stime dei consumi
+  static Distributore distributore(
+      String rigaBinari, String rigaFondoCassa, StrategiaResto strategia, LongSupplier orologio) {
     List<Binario> binari = new ArrayList<>();
-    for (String parte : scanner.nextLine().split(",")) {
+    for (String parte : rigaBinari.split(",")) {
       try {
         binari.add(Binario.parse(parte.trim()));
       } catch (IllegalArgumentException e) {
@@ -25,39 +80,12 @@ public class UsaDistributore {
 
     Aggregato fondoCassa;
     try {
-      fondoCassa = Aggregato.parse(scanner.nextLine());
+      fondoCassa = Aggregato.parse(rigaFondoCassa);
     } catch (IllegalArgumentException e) {
       fondoCassa = new Aggregato();
     }
 
-    Distributore distributore = new Distributore(binari, fondoCassa, StrategiaRestoH.INSTANCE);
-
-    while (scanner.hasNextLine()) {
-      try {
-        String line = scanner.nextLine();
-        char comando = line.charAt(0);
-        String[] p = line.substring(1).trim().split(",", 2);
-
-        if (comando == '+') {
-          System.out.println("+ " + distributore.carica(Prodotto.parse(p[1].trim()), Integer.parseInt(p[0].trim())));
-        } else if (comando == '-') {
-          try {
-            Aggregato resto = distributore.eroga(Integer.parseInt(p[0].trim()), Aggregato.parse(p[1].trim()));
-            System.out.println("- " + (resto.vuoto() ? "<>" : resto));
-          } catch (ErogazioneException e) {
-            System.out.println("- " + e.getMessage());
-          }
-        } else {
-          Iterator<Distributore.BinarioConIndice> it = distributore.binariNonVuoti();
-          while (it.hasNext()) {
-            Distributore.BinarioConIndice bci = it.next();
-            Prodotto prod = bci.binario().prodotto();
-            System.out.println("? " + bci.indice() + " | " + prod.nome() + " | " + prod.prezzo());
-          }
-        }
-      } catch (Exception e) {
-      }
-    }
-    scanner.close();
+    return new Distributore(
+        binari, fondoCassa, strategia, Distributore.Politica.PIU_PIENO, orologio);
   }
 }
@@ -0,0 +1,104 @@
+package clients;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import macchinette.Aggregato;
+import macchinette.Catalogo;
+import macchinette.Distributore;
+import macchinette.DistributoreAsincrono;
+
+public class UsaDistributoreAsincrono {
+
+  // args: capacità del buffer (4 se assente); le prime due righe sono i binari e il fondo cassa
+  // (come in UsaDistributore), le altre sono i comandi + e - di UsaDistributore, "?", che
+  // interroga lo stato, "guasto", che accoda un'interrogazione che solleva un Error, "rientra",
+  // che accoda un caricamento da un'azione dipendente eseguita dallo scrittore, "chiudi", che
+  // chiude l'interfaccia, o "attendi", che attende i comandi accodati finora e ne stampa gli
+  // esiti nell'ordine di invio; i comandi rifiutati perché l'interfaccia è chiusa o guasta sono
+  // stampati come "rifiutato", sia che il rifiuto avvenga all'invio sia dopo
+  public static void main(String[] args) {
+    int capacita = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    try (LettoreRighe in = LettoreRighe.standardInput();
+        ScrittoreRighe out = ScrittoreRighe.standardOutput()) {
+      String rigaBinari = in.riga().toString();
+      Distributore d = UsaDistributore.distributore(rigaBinari, in.riga().toString());
+      DistributoreAsincrono asincrono = new DistributoreAsincrono(d, capacita);
+      Catalogo catalogo = new Catalogo();
+      List<String> comandi = new ArrayList<>();
+      List<CompletableFuture<?>> esiti = new ArrayList<>();
+
+      while (in.haRiga()) {
+        String line = in.riga().toString().trim();
+        if (line.equals("attendi")) {
+          for (int i = 0; i < esiti.size(); i++)
+            out.riga(comandi.get(i) + " -> " + esito(esiti.get(i)));
+          comandi.clear();
+          esiti.clear();
+          continue;
+        }
+        if (line.equals("chiudi")) {
+          asincrono.close();
+          out.riga("chiudi");
+          continue;
+        }
+        CompletableFuture<?> esito;
+        try {
+          char comando = line.charAt(0);
+          String[] p = line.substring(1).trim().split(",", 2);
+          if (line.equals("guasto")) {
+            esito =
+                asincrono.interroga(
+                    x -> {
+                      throw new AssertionError("guasto simulato");
+                    });
+          } else if (line.equals("rientra")) {
+            // lo scrittore resta fermo finché l'azione dipendente non è registrata, così che sia
+            // lui a eseguirla
+            CountDownLatch registrata = new CountDownLatch(1);
+            asincrono.interroga(x -> attendi(registrata));
+            esito =
+                asincrono
+                    .interroga(x -> x)
+                    .thenApply(x -> asincrono.carica(catalogo.parse("Acqua|.70|S"), 1));
+            registrata.countDown();
+          } else if (comando == '+') {
+            esito = asincrono.carica(catalogo.parse(p[1].trim()), Integer.parseInt(p[0].trim()));
+          } else if (comando == '-') {
+            esito = asincrono.eroga(Integer.parseInt(p[0].trim()), Aggregato.parse(p[1].trim()));
+          } else {
+            esito = asincrono.interroga(Distributore::toString);
+          }
+        } catch (IllegalStateException e) {
+          esito = CompletableFuture.failedFuture(e);
+        }
+        comandi.add(line);
+        esiti.add(esito);
+      }
+      asincrono.close();
+    }
+  }
+
+  private static boolean attendi(CountDownLatch latch) {
+    try {
+      latch.await();
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private static String esito(CompletableFuture<?> esito) {
+    try {
+      return String.valueOf(esito.join());
+    } catch (CompletionException e) {
+      Throwable causa = e.getCause();
+      if (causa instanceof IllegalStateException && causa.getMessage().startsWith("distributore"))
+        return "rifiutato";
+      return causa.getClass().getSimpleName() + ": " + causa.getMessage();
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package clients;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import macchinette.Aggregato;
+import macchinette.Binario;
+import macchinette.Catalogo;
+import macchinette.Distributore;
+import macchinette.ErogazioneException;
+import macchinette.FlottaFuoriHeap;
+import macchinette.StrategiaRestoH;
+
+public class UsaFlottaFuoriHeap {
+
+  // args: nessuno; la prima riga è il numero di distributori, le due successive i binari e il
+  // fondo cassa di ciascuno (come in UsaDistributore); le altre sono comandi "macchina comando"
+  // con i comandi + e - di UsaDistributore, "? macchina", che stampa fondo cassa e binari non
+  // vuoti, "~ macchina binario", che dice se la stima della velocità di erogazione del binario ha
+  // registrato erogazioni, o "riapri", che chiude la flotta e la riapre dal file temporaneo su cui
+  // è mappata
+  public static void main(String[] args) throws IOException {
+    Path file = Files.createTempFile("flotta", ".bin");
+    try (LettoreRighe in = LettoreRighe.standardInput();
+        ScrittoreRighe out = ScrittoreRighe.standardOutput()) {
+      in.svuotaPrimaDiLeggere(out);
+      int macchine = Integer.parseInt(in.riga().toString().trim());
+      List<Binario> binari = new ArrayList<>();
+      for (String parte : in.riga().toString().split(","))
+        binari.add(Binario.parse(parte.trim()));
+      Aggregato fondoCassa = Aggregato.parse(in.riga().toString());
+      FlottaFuoriHeap flotta =
+          FlottaFuoriHeap.crea(
+              file, macchine, binari, fondoCassa, Distributore.Politica.PIU_PIENO, 16);
+      Catalogo catalogo = new Catalogo();
+      try {
+        while (in.haRiga()) {
+          String line = in.riga().toString().trim();
+          try {
+            if (line.equals("riapri")) {
+              flotta.close();
+              flotta = FlottaFuoriHeap.apri(file);
+              out.riga("riaperta " + flotta);
+              continue;
+            }
+            String[] mc = line.split(" ", 2);
+            if (mc[0].equals("?")) {
+              int k = Integer.parseInt(mc[1].trim());
+              Distributore d = flotta.distributore(k, StrategiaRestoH.INSTANCE);
+              out.riga("? " + k + " " + d);
+              d.forEachNonVuoto(
+                  (bin, indice) -> out.riga("? " + k + " " + indice + " " + bin));
+              continue;
+            }
+            if (mc[0].equals("~")) {
+              String[] ki = mc[1].trim().split(" ");
+              Distributore d =
+                  flotta.distributore(Integer.parseInt(ki[0]), StrategiaRestoH.INSTANCE);
+              double v = d.velocitaErogazione(Integer.parseInt(ki[1]));
+              out.riga(line + (v > 0 ? " erogazioni recenti" : " nessuna erogazione"));
+              continue;
+            }
+            Distributore d = flotta.distributore(Integer.parseInt(mc[0]), StrategiaRestoH.INSTANCE);
+            char comando = mc[1].charAt(0);
+            String[] p = mc[1].substring(1).trim().split(",", 2);
+            if (comando == '+') {
+              int nonCaricati =
+                  d.carica(catalogo.parse(p[1].trim()), Integer.parseInt(p[0].trim()));
+              out.riga(mc[0] + " + " + nonCaricati);
+            } else if (comando == '-') {
+              try {
+                Aggregato resto =
+                    d.eroga(Integer.parseInt(p[0].trim()), Aggregato.parse(p[1].trim()));
+                out.riga(mc[0] + " - " + resto);
+              } catch (ErogazioneException e) {
+                out.riga(mc[0] + " - " + e.getMessage());
+              }
+            }
+          } catch (RuntimeException e) {
+            out.riga("! " + e.getMessage());
+          }
+        }
+      } finally {
+        flotta.close();
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package clients;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import macchinette.Aggregato;
+import macchinette.Catalogo;
+import macchinette.Distributore;
+import macchinette.ErogazioneException;
+import macchinette.Giornale;
+import macchinette.Istantanea;
+import macchinette.StrategiaRestoH;
+
+public class UsaGiornale {
+
+  // args: numero di record dopo cui il giornale si sincronizza (0 se assente); le prime due righe
+  // sono i binari e il fondo cassa (come in UsaDistributore), le altre sono i comandi + e - di
+  // UsaDistributore, "?", che stampa lo stato, "ripristina", che ricostruisce il distributore dal
+  // giornale e lo confronta con quello in uso, o "tronca n", che ricostruisce il distributore da
+  // una copia del giornale a cui mancano gli ultimi n byte scritti, come dopo un arresto
+  // improvviso durante la scrittura, e ne stampa lo stato
+  public static void main(String[] args) throws IOException {
+    int recordPerSync = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+    Path cartella = Files.createTempDirectory("giornale");
+    Path file = cartella.resolve("giornale.bin");
+    Path copia = cartella.resolve("copia.bin");
+    try (LettoreRighe in = LettoreRighe.standardInput();
+        ScrittoreRighe out = ScrittoreRighe.standardOutput()) {
+      in.svuotaPrimaDiLeggere(out);
+      String rigaBinari = in.riga().toString();
+      Distributore d = UsaDistributore.distributore(rigaBinari, in.riga().toString());
+      Catalogo catalogo = new Catalogo();
+
+      try (Giornale giornale = Giornale.crea(file, d, recordPerSync)) {
+        while (in.haRiga()) {
+          String line = in.riga().toString().trim();
+          try {
+            if (line.equals("?")) {
+              SalvaIstantanea.stampa(out, d);
+            } else if (line.equals("ripristina")) {
+              giornale.sincronizza();
+              Distributore r = Giornale.ripristina(file, StrategiaRestoH.INSTANCE);
+              boolean uguale = Arrays.equals(Istantanea.codifica(d), Istantanea.codifica(r));
+              out.riga("ripristina " + (uguale ? "uguale" : "diverso"));
+            } else if (line.startsWith("tronca")) {
+              giornale.sincronizza();
+              byte[] byteGiornale = Files.readAllBytes(file);
+              // il file è esteso a regioni intere: la parte non ancora scritta è fatta di zeri
+              int fine = byteGiornale.length;
+              while (fine > 0 && byteGiornale[fine - 1] == 0) fine--;
+              int n = Integer.parseInt(line.substring(6).trim());
+              Files.write(copia, Arrays.copyOf(byteGiornale, fine - n));
+              try {
+                Distributore r = Giornale.ripristina(copia, StrategiaRestoH.INSTANCE);
+                out.riga(line);
+                SalvaIstantanea.stampa(out, r);
+              } catch (IOException e) {
+                out.riga(line + " " + e.getMessage().replace(copia.toString(), "copia"));
+              }
+            } else {
+              char comando = line.charAt(0);
+              String[] p = line.substring(1).trim().split(",", 2);
+              if (comando == '+') {
+                int nonCaricati =
+                    d.carica(catalogo.parse(p[1].trim()), Integer.parseInt(p[0].trim()));
+                out.riga("+ " + nonCaricati);
+              } else if (comando == '-') {
+                try {
+                  out.riga(
+                      "- "
+                          + d.eroga(Integer.parseInt(p[0].trim()), Aggregato.parse(p[1].trim())));
+                } catch (ErogazioneException e) {
+                  out.riga("- " + e.getMessage());
+                }
+              }
+            }
+          } catch (RuntimeException e) {
+            out.riga("! " + e.getMessage());
+          }
+        }
+      }
+    } finally {
+      Files.deleteIfExists(copia);
+      Files.deleteIfExists(file);
+      Files.delete(cartella);
+    }
+  }
+}
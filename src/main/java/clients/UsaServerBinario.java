@@ -0,0 +1,113 @@
+package clients;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import macchinette.Aggregato;
+import macchinette.Prodotto;
+
+public class UsaServerBinario {
+
+  // args: nessuno; le prime due righe sono i binari e il fondo cassa (come in UsaDistributore)
+  // della macchina 0 di un ServerDistributore; le altre sono richieste "m comando" con i comandi
+  // "+ q, prodotto", "- i, pagamento", "* prodotto, pagamento" e "?", accodate sulla connessione
+  // binaria, "ripeti n m comando", che accoda n volte la stessa richiesta, "invia", che spedisce
+  // le richieste accodate e ne stampa le risposte nel formato a righe (quelle uguali consecutive
+  // una volta sola, seguite da "(x n)"), o "testo richiesta", che invia la richiesta sulla
+  // connessione a righe e ne stampa la risposta; alla fine le richieste accodate sono inviate
+  public static void main(String[] args) throws IOException {
+    try (LettoreRighe in = LettoreRighe.standardInput();
+        ScrittoreRighe out = ScrittoreRighe.standardOutput()) {
+      String rigaBinari = in.riga().toString();
+      String rigaFondoCassa = in.riga().toString();
+      try (ServerDistributore server =
+              new ServerDistributore(
+                  List.of(UsaDistributore.distributore(rigaBinari, rigaFondoCassa)),
+                  ServerDistributore.indirizzo("0"));
+          SocketChannel canaleTesto = ServerDistributore.connetti(server.indirizzo());
+          LettoreRighe dalServer = new LettoreRighe(canaleTesto);
+          ScrittoreRighe alServer =
+              new ScrittoreRighe(new PrintStream(Channels.newOutputStream(canaleTesto), false));
+          ClienteBinario binario =
+              new ClienteBinario(ServerDistributore.connetti(server.indirizzo()))) {
+        int accodate = 0;
+        while (in.haRiga()) {
+          String line = in.riga().toString().trim();
+          try {
+            if (line.equals("invia")) {
+              invia(binario, accodate, out);
+              accodate = 0;
+            } else if (line.startsWith("testo ")) {
+              alServer.riga(line.substring(6).trim());
+              alServer.flush();
+              out.riga(line + ": " + dalServer.riga());
+            } else if (line.startsWith("ripeti ")) {
+              String[] p = line.substring(7).trim().split(" ", 2);
+              for (int n = Integer.parseInt(p[0]); n > 0; n--) {
+                accoda(binario, p[1]);
+                accodate++;
+              }
+            } else {
+              accoda(binario, line);
+              accodate++;
+            }
+          } catch (RuntimeException e) {
+            out.riga("! " + e.getMessage());
+          }
+        }
+        if (accodate > 0) invia(binario, accodate, out);
+      }
+    }
+  }
+
+  // accoda la richiesta "m comando" sulla connessione binaria
+  private static void accoda(ClienteBinario binario, String richiesta) throws IOException {
+    String[] r = richiesta.trim().split(" ", 2);
+    int macchina = Integer.parseInt(r[0]);
+    String comando = r[1].trim();
+    String[] p = comando.substring(1).trim().split(",", 2);
+    switch (comando.charAt(0)) {
+      case '+' ->
+          binario.carica(macchina, Prodotto.parse(p[1].trim()), Integer.parseInt(p[0].trim()));
+      case '-' ->
+          binario.eroga(macchina, Integer.parseInt(p[0].trim()), Aggregato.parse(p[1].trim()));
+      case '*' ->
+          binario.erogaProdotto(
+              macchina, Prodotto.parse(p[0].trim()), Aggregato.parse(p[1].trim()));
+      case '?' -> binario.interroga(macchina);
+      default -> throw new IllegalArgumentException("comando sconosciuto: " + comando);
+    }
+  }
+
+  // spedisce le richieste accodate e stampa le risposte
+  private static void invia(ClienteBinario binario, int accodate, ScrittoreRighe out)
+      throws IOException {
+    binario.invia();
+    out.riga("invia " + accodate);
+    StringBuilder precedente = new StringBuilder();
+    StringBuilder risposta = new StringBuilder();
+    int uguali = 0;
+    for (int k = 0; k < accodate; k++) {
+      risposta.setLength(0);
+      binario.risposta(risposta);
+      if (uguali > 0 && risposta.compareTo(precedente) == 0) {
+        uguali++;
+        continue;
+      }
+      stampa(out, precedente, uguali);
+      precedente.setLength(0);
+      precedente.append(risposta);
+      uguali = 1;
+    }
+    stampa(out, precedente, uguali);
+  }
+
+  private static void stampa(ScrittoreRighe out, CharSequence risposta, int volte) {
+    if (volte == 0) return;
+    out.buffer().append(risposta);
+    if (volte > 1) out.buffer().append(" (x ").append(volte).append(')');
+    out.aCapo();
+  }
+}
@@ -0,0 +1,57 @@
+package clients;
+
+import macchinette.BinarioException;
+import macchinette.Catalogo;
+import macchinette.Distributore;
+import macchinette.Prodotto;
+
+public class VisteBinari {
+
+  // args: nessuno; le prime due righe sono i binari e il fondo cassa (come in UsaDistributore), le
+  // altre sono caricamenti "+ q, prodotto" fatti dal distributore, "dispensa" e "carica q,
+  // prodotto", tentati attraverso ogni binario restituito da forEachNonVuoto, o "? prodotto", che
+  // stampa le unità disponibili del prodotto e il prodotto trovato per nome
+  public static void main(String[] args) {
+    try (LettoreRighe in = LettoreRighe.standardInput();
+        ScrittoreRighe out = ScrittoreRighe.standardOutput()) {
+      String rigaBinari = in.riga().toString();
+      Distributore d = UsaDistributore.distributore(rigaBinari, in.riga().toString());
+      Catalogo catalogo = new Catalogo();
+
+      while (in.haRiga()) {
+        String line = in.riga().toString().trim();
+        try {
+          if (line.startsWith("+")) {
+            String[] p = line.substring(1).trim().split(",", 2);
+            out.riga("+ " + d.carica(catalogo.parse(p[1].trim()), Integer.parseInt(p[0].trim())));
+          } else if (line.startsWith("?")) {
+            Prodotto p = catalogo.parse(line.substring(1).trim());
+            out.riga(
+                "? "
+                    + p.nome()
+                    + " "
+                    + d.disponibili(p)
+                    + " "
+                    + d.cerca(p.nome()).map(Prodotto::toString).orElse("-"));
+          } else {
+            String[] p = line.substring(line.indexOf(' ') + 1).trim().split(",", 2);
+            d.forEachNonVuoto(
+                (bin, indice) -> {
+                  String esito;
+                  try {
+                    if (line.startsWith("dispensa")) bin.dispensa();
+                    else bin.carica(catalogo.parse(p[1].trim()), Integer.parseInt(p[0].trim()));
+                    esito = "eseguito";
+                  } catch (UnsupportedOperationException | BinarioException e) {
+                    esito = "rifiutato: " + e.getMessage();
+                  }
+                  out.riga(line + " " + indice + " " + esito + " " + bin);
+                });
+          }
+        } catch (RuntimeException e) {
+          out.riga("! " + e.getMessage());
+        }
+      }
+    }
+  }
+}
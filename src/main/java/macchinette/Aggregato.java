@@ -1,9 +1,9 @@
 package macchinette;
 
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.TreeMap;
 
 /**
@@ -102,6 +102,18 @@ public class Aggregato implements Iterable<Map.Entry<Moneta, Integer>> {
     }
   }
 
+  /**
+   * Rimuove monete di un solo tipo; il chiamante garantisce che siano presenti.
+   *
+   * @param moneta tipo di moneta
+   * @param quantita quantità da rimuovere (&gt; 0 e non maggiore di quella presente)
+   */
+  void rimuovi(Moneta moneta, int quantita) {
+    int nuova = monete.get(moneta) - quantita;
+    if (nuova == 0) monete.remove(moneta);
+    else monete.put(moneta, nuova);
+  }
+
   /** Rimuove tutte le monete dall'aggregato. */
   void clear() {
     monete.clear();
@@ -118,32 +130,58 @@ public class Aggregato implements Iterable<Map.Entry<Moneta, Integer>> {
    * @param s stringa da parsare
    * @return aggregato corrispondente
    */
-  public static Aggregato parse(String s) {
+  public static Aggregato parse(CharSequence s) {
     if (s == null) throw new NullPointerException();
-    Aggregato result = new Aggregato();
-    String str = s.trim();
-    if (str.isEmpty()) return result;
+    return parse(s, 0, s.length());
+  }
 
-    for (String parte : str.split(",")) {
-      String p = parte.trim();
-      if (p.isEmpty()) continue;
+  /**
+   * Parsing dei caratteri di s da inizio (incluso) a fine (escluso), nel formato di {@link
+   * #parse(CharSequence)}, senza copiarli in una stringa: la sequenza è scandita per indici e
+   * quantità e monete sono riconosciute direttamente su di essa.
+   *
+   * @param s sequenza da parsare
+   * @param inizio indice del primo carattere
+   * @param fine indice successivo all'ultimo carattere
+   * @return aggregato corrispondente
+   * @throws IndexOutOfBoundsException se inizio e fine non delimitano una parte di s
+   */
+  public static Aggregato parse(CharSequence s, int inizio, int fine) {
+    Objects.checkFromToIndex(inizio, fine, s.length());
+    Aggregato result = new Aggregato();
 
-      String[] tokens = p.split("\\s*x\\s*", 2);
-      if (tokens.length != 2)
-        throw new IllegalArgumentException("formato errato: " + p);
+    for (int parte = inizio; parte <= fine; ) {
+      int virgola = parte;
+      while (virgola < fine && s.charAt(virgola) != ',') virgola++;
+      int i = parte;
+      int j = virgola;
+      parte = virgola + 1;
+      while (i < j && s.charAt(i) <= ' ') i++;
+      while (j > i && s.charAt(j - 1) <= ' ') j--;
+      if (i == j) continue;
+
+      int per = i;
+      while (per < j && s.charAt(per) != 'x') per++;
+      if (per == j)
+        throw new IllegalArgumentException("formato errato: " + s.subSequence(i, j));
+      int q1 = per;
+      while (q1 > i && s.charAt(q1 - 1) <= ' ') q1--;
+      int m0 = per + 1;
+      while (m0 < j && s.charAt(m0) <= ' ') m0++;
 
       int q;
       try {
-        q = Integer.parseInt(tokens[0].trim());
+        q = Integer.parseInt(s, i, q1, 10);
       } catch (NumberFormatException e) {
-        throw new IllegalArgumentException("quantità non valida: " + tokens[0], e);
+        throw new IllegalArgumentException("quantità non valida: " + s.subSequence(i, q1), e);
       }
       if (q <= 0) throw new IllegalArgumentException("quantità non positiva");
 
-      Optional<Moneta> mOpt = Moneta.parse(tokens[1].trim());
-      if (mOpt.isEmpty()) throw new IllegalArgumentException("moneta non valida: " + tokens[1]);
+      Moneta m = Moneta.riconosci(s, m0, j);
+      if (m == null)
+        throw new IllegalArgumentException("moneta non valida: " + s.subSequence(m0, j));
 
-      result.aggiungi(mOpt.get(), q);
+      result.aggiungi(m, q);
     }
     return result;
   }
@@ -161,16 +199,49 @@ public class Aggregato implements Iterable<Map.Entry<Moneta, Integer>> {
     return monete.hashCode();
   }
 
-  @Override
-  public String toString() {
-    if (monete.isEmpty()) return "<>";
-    StringBuilder sb = new StringBuilder("<");
+  /**
+   * Aggiunge la rappresentazione testuale dell'aggregato (la stessa di {@link #toString()}) al
+   * builder, senza creare stringhe intermedie.
+   *
+   * @param sb builder a cui aggiungerla
+   * @return sb
+   */
+  public StringBuilder appendTo(StringBuilder sb) {
+    Objects.requireNonNull(sb);
+    sb.append('<');
     boolean first = true;
     for (Map.Entry<Moneta, Integer> e : monete.entrySet()) {
       if (!first) sb.append(", ");
       first = false;
-      sb.append(e.getValue()).append(" x ").append(e.getKey());
+      e.getKey().appendTo(sb.append(e.getValue().intValue()).append(" x "));
+    }
+    return sb.append('>');
+  }
+
+  /**
+   * Aggiunge la rappresentazione testuale dell'aggregato (la stessa di {@link #toString()}) alla
+   * destinazione.
+   *
+   * @param a destinazione a cui aggiungerla
+   * @return a
+   * @throws IOException se la destinazione la solleva
+   */
+  public Appendable appendTo(Appendable a) throws IOException {
+    Objects.requireNonNull(a);
+    if (a instanceof StringBuilder) return appendTo((StringBuilder) a);
+    a.append('<');
+    boolean first = true;
+    for (Map.Entry<Moneta, Integer> e : monete.entrySet()) {
+      if (!first) a.append(", ");
+      first = false;
+      e.getKey().appendTo(a.append(e.getValue().toString()).append(" x "));
     }
-    return sb.append(">").toString();
+    return a.append('>');
+  }
+
+  @Override
+  public String toString() {
+    if (monete.isEmpty()) return "<>";
+    return appendTo(new StringBuilder()).toString();
   }
 }
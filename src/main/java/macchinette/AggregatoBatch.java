@@ -0,0 +1,167 @@
+/*
+ * Copyright 2025 Massimo Santini
+ *
+ * This file is part of "Programmazione 2 @ UniMI" teaching material.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this file.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package macchinette;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Objects;
+
+/**
+ * Sequenza di aggregati memorizzata per colonne.
+ *
+ * <p>Invece di un oggetto per aggregato, il lotto tiene un array di interi per ogni moneta, con
+ * la quantità di quella moneta in ciascuna riga: occupa quattro byte per moneta e per riga e si
+ * presta a elaborazioni che scorrono una colonna alla volta, come {@link
+ * StrategiaResto#calcola(Importo, AggregatoBatch, AggregatoBatch)}.
+ *
+ * <p><strong>RI:</strong> colonne non è null e ha un elemento per ogni moneta; le colonne non sono
+ * null e hanno tutte la stessa lunghezza, non minore di righe; righe &gt;= 0; per ogni colonna gli
+ * elementi di indice minore di righe sono non negativi.
+ *
+ * <p><strong>AF:</strong> rappresenta la sequenza di righe aggregati a_0, ..., a_{righe-1} in cui
+ * a_i contiene colonne[m.ordinal()][i] monete m, per ogni moneta m.
+ */
+public final class AggregatoBatch {
+
+  private static final Moneta[] MONETE = Moneta.values();
+
+  private final int[][] colonne;
+  private int righe;
+
+  /** Crea un lotto vuoto. */
+  public AggregatoBatch() {
+    this(16);
+  }
+
+  /**
+   * Crea un lotto vuoto con lo spazio per il numero di righe indicato.
+   *
+   * @param capacita numero di righe previsto (&gt;= 0)
+   */
+  public AggregatoBatch(int capacita) {
+    if (capacita < 0) throw new IllegalArgumentException("capacità negativa");
+    this.colonne = new int[MONETE.length][capacita];
+  }
+
+  /** Restituisce il numero di righe. */
+  public int righe() {
+    return righe;
+  }
+
+  /**
+   * Aggiunge una riga con le monete dell'aggregato.
+   *
+   * @param aggregato aggregato da aggiungere
+   * @return indice della nuova riga
+   */
+  public int aggiungi(Aggregato aggregato) {
+    Objects.requireNonNull(aggregato);
+    garantisci(righe + 1);
+    for (Moneta m : MONETE) colonne[m.ordinal()][righe] = aggregato.quantita(m);
+    return righe++;
+  }
+
+  /**
+   * Restituisce la quantità di una moneta in una riga.
+   *
+   * @throws IndexOutOfBoundsException se la riga non esiste
+   */
+  public int quantita(int riga, Moneta moneta) {
+    Objects.requireNonNull(moneta);
+    Objects.checkIndex(riga, righe);
+    return colonne[moneta.ordinal()][riga];
+  }
+
+  /**
+   * Restituisce l'aggregato di una riga.
+   *
+   * @throws IndexOutOfBoundsException se la riga non esiste
+   */
+  public Aggregato aggregato(int riga) {
+    Objects.checkIndex(riga, righe);
+    Aggregato a = new Aggregato();
+    for (Moneta m : MONETE) {
+      int q = colonne[m.ordinal()][riga];
+      if (q > 0) a.aggiungi(m, q);
+    }
+    return a;
+  }
+
+  /** Restituisce la colonna (modificabile) della moneta; valgono i primi righe() elementi. */
+  int[] colonna(Moneta moneta) {
+    return colonne[moneta.ordinal()];
+  }
+
+  /** Porta il lotto al numero di righe indicato, tutte con quantità nulle. */
+  void azzera(int righe) {
+    garantisci(righe);
+    for (int[] c : colonne) Arrays.fill(c, 0, righe, 0);
+    this.righe = righe;
+  }
+
+  /**
+   * Calcola il resto per tutte le righe con la strategia greedy, scorrendo una colonna alla volta
+   * (dalla moneta di valore maggiore se dallAlto, altrimenti da quella di valore minore).
+   *
+   * <p>Per ogni moneta, il ciclo sulle righe lavora su array di interi contigui e non dipende da
+   * salti legati ai dati; contiene però una divisione intera, che il compilatore JIT non
+   * vettorizza.
+   */
+  static BitSet greedy(
+      Importo resto, AggregatoBatch disponibili, AggregatoBatch risultati, boolean dallAlto) {
+    Objects.requireNonNull(resto);
+    Objects.requireNonNull(disponibili);
+    Objects.requireNonNull(risultati);
+    int n = disponibili.righe;
+    risultati.azzera(n);
+    int[] rimanente = new int[n];
+    Arrays.fill(rimanente, resto.inCentesimi());
+
+    for (int k = 0; k < MONETE.length; k++) {
+      Moneta m = MONETE[dallAlto ? MONETE.length - 1 - k : k];
+      int valore = m.valore().inCentesimi();
+      int[] disp = disponibili.colonne[m.ordinal()];
+      int[] usate = risultati.colonne[m.ordinal()];
+      for (int i = 0; i < n; i++) {
+        int u = Math.min(rimanente[i] / valore, disp[i]);
+        usate[i] = u;
+        rimanente[i] -= u * valore;
+      }
+    }
+
+    BitSet riuscite = new BitSet(n);
+    for (int i = 0; i < n; i++) {
+      if (rimanente[i] == 0) riuscite.set(i);
+      else for (int[] c : risultati.colonne) c[i] = 0;
+    }
+    return riuscite;
+  }
+
+  private void garantisci(int capacita) {
+    if (capacita <= colonne[0].length) return;
+    int nuova = Math.max(capacita, colonne[0].length * 2);
+    for (int i = 0; i < colonne.length; i++) colonne[i] = Arrays.copyOf(colonne[i], nuova);
+  }
+
+  @Override
+  public String toString() {
+    return "AggregatoBatch[righe=" + righe + "]";
+  }
+}
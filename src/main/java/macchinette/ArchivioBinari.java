@@ -0,0 +1,395 @@
+/*
+ * Copyright 2025 Massimo Santini
+ *
+ * This file is part of "Programmazione 2 @ UniMI" teaching material.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this file.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package macchinette;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Stato di una sequenza di binari, memorizzato per campi (taglia, capacità, quantità e prodotto
+ * di ogni binario) invece che in un oggetto per binario.
+ *
+ * <p>I prodotti sono rappresentati da identificativi numerici assegnati dall'archivio, per cui
+ * verificare che un binario contenga un prodotto è un confronto tra interi. I {@link Binario} sono
+ * viste su una posizione dell'archivio. La sottoclasse {@link Vettori} tiene i campi in array
+ * paralleli di tipi primitivi, così che le scansioni dei binari leggano memoria contigua senza
+ * seguire riferimenti; la sottoclasse {@link Singolo} tiene in pochi campi il solo binario di un
+ * {@link Binario} creato da solo; altre sottoclassi possono tenerli altrove, ad esempio fuori
+ * dallo heap.
+ *
+ * <p>Le sottoclassi devono garantire che: numero() sia positivo e costante; per ogni binario i,
+ * ordinaleTaglia(i) sia l'ordinale di una taglia, capacita(i) sia positiva e costante, 0 &lt;=
+ * quantita(i) &lt;= capacita(i) e idProdotto(i) sia -1 se quantita(i) == 0 e altrimenti un
+ * identificativo assegnato a un prodotto di taglia contenuta in quella del binario; id e registra
+ * restituiscano identificativi distinti per prodotti distinti contenuti nei binari.
+ */
+abstract class ArchivioBinari {
+
+  private static final Taglia[] TAGLIE = Taglia.values();
+
+  /** Restituisce il numero di binari. */
+  abstract int numero();
+
+  /** Restituisce l'ordinale della taglia del binario i. */
+  abstract int ordinaleTaglia(int i);
+
+  /** Restituisce la capacità del binario i. */
+  abstract int capacita(int i);
+
+  /** Restituisce il numero di unità contenute nel binario i. */
+  abstract int quantita(int i);
+
+  /** Restituisce l'identificativo del prodotto contenuto nel binario i, -1 se vuoto. */
+  abstract int idProdotto(int i);
+
+  /** Imposta il contenuto del binario i; id è -1 se e solo se quantita è 0. */
+  abstract void imposta(int i, int id, int quantita);
+
+  /** Restituisce l'identificativo del prodotto, -1 se non ne ha uno. */
+  abstract int id(Prodotto p);
+
+  /** Restituisce l'identificativo del prodotto, assegnandogliene uno se necessario. */
+  abstract int registra(Prodotto p);
+
+  /** Restituisce il prodotto con l'identificativo (assegnato) indicato. */
+  abstract Prodotto prodottoConId(int id);
+
+  /** Restituisce la taglia del binario i. */
+  final Taglia taglia(int i) {
+    return TAGLIE[ordinaleTaglia(i)];
+  }
+
+  /** Restituisce il prodotto contenuto nel binario i (null se vuoto). */
+  final Prodotto prodotto(int i) {
+    int id = idProdotto(i);
+    return id < 0 ? null : prodottoConId(id);
+  }
+
+  /**
+   * Verifica se il binario i può ricevere almeno un'unità del prodotto indicato.
+   *
+   * @param id identificativo del prodotto (-1 se non ne ha uno)
+   * @param taglia ordinale della taglia del prodotto
+   * @return il motivo per cui non può riceverlo, o null se può
+   */
+  final BinarioException.Motivo rifiuto(int i, int id, int taglia) {
+    if (ordinaleTaglia(i) < taglia) return BinarioException.Motivo.SIZE;
+    int q = quantita(i);
+    if (q != 0 && idProdotto(i) != id) return BinarioException.Motivo.ITEM;
+    if (q == capacita(i)) return BinarioException.Motivo.CAPACITY;
+    return null;
+  }
+
+  /**
+   * Aggiunge al binario i (vuoto o contenente il prodotto id) q unità del prodotto id, senza
+   * verifiche; il chiamante garantisce che la taglia sia compatibile e che ci sia spazio.
+   */
+  final void aggiungi(int i, int id, int q) {
+    imposta(i, id, quantita(i) + q);
+  }
+
+  /**
+   * Carica q unità del prodotto p nel binario i.
+   *
+   * @throws BinarioException se impossibile (SIZE, ITEM, CAPACITY)
+   */
+  final void carica(int i, Prodotto p, int q) throws BinarioException {
+    int id = id(p);
+    if (ordinaleTaglia(i) < p.taglia().ordinal())
+      throw new BinarioException(BinarioException.Motivo.SIZE);
+    if (quantita(i) != 0 && idProdotto(i) != id)
+      throw new BinarioException(BinarioException.Motivo.ITEM);
+    if (quantita(i) + q > capacita(i)) throw new BinarioException(BinarioException.Motivo.CAPACITY);
+    aggiungi(i, id < 0 ? registra(p) : id, q);
+  }
+
+  /**
+   * Toglie un'unità dal binario i.
+   *
+   * @return il prodotto tolto
+   * @throws BinarioException se il binario è vuoto (EMPTY)
+   */
+  final Prodotto dispensa(int i) throws BinarioException {
+    int q = quantita(i);
+    if (q == 0) throw new BinarioException(BinarioException.Motivo.EMPTY);
+    int id = idProdotto(i);
+    imposta(i, q == 1 ? -1 : id, q - 1);
+    return prodottoConId(id);
+  }
+
+  /**
+   * Archivio di un solo binario, per i {@link Binario} creati da soli: al posto degli array e del
+   * catalogo di {@link Vettori} tiene il prodotto stesso, che ha l'identificativo 0.
+   *
+   * <p>Poiché c'è un solo binario, basta un identificativo: registra lo assegna al prodotto
+   * indicato, che prende il posto del precedente, e va quindi invocato (come fa {@link
+   * ArchivioBinari#carica}) solo se il binario è vuoto o contiene già quel prodotto.
+   *
+   * <p><strong>RI:</strong> taglia è l'ordinale di una taglia; capacita &gt; 0; 0 &lt;= quantita
+   * &lt;= capacita; se quantita &gt; 0, prodotto non è null e ha taglia contenuta in quella del
+   * binario.
+   *
+   * <p><strong>AF:</strong> rappresenta un binario di taglia Taglia.values()[taglia] e capacità
+   * capacita, che contiene quantita unità di prodotto (se quantita &gt; 0); prodotto, se non è
+   * null, ha l'identificativo 0.
+   */
+  static final class Singolo extends ArchivioBinari {
+
+    private final byte taglia;
+    private final int capacita;
+    private int quantita;
+    // l'ultimo prodotto registrato: resta anche quando il binario si svuota, così che dispensa
+    // possa restituirlo dopo aver azzerato il binario
+    private Prodotto prodotto;
+
+    /**
+     * Crea un archivio con un binario vuoto.
+     *
+     * @param taglia taglia del binario
+     * @param capacita capacità (positiva) del binario
+     * @throws IllegalArgumentException se la capacità non è positiva
+     */
+    Singolo(Taglia taglia, int capacita) {
+      if (capacita <= 0) throw new IllegalArgumentException("capacità non positiva");
+      this.taglia = (byte) taglia.ordinal();
+      this.capacita = capacita;
+    }
+
+    @Override
+    int numero() {
+      return 1;
+    }
+
+    @Override
+    int ordinaleTaglia(int i) {
+      Objects.checkIndex(i, 1);
+      return taglia;
+    }
+
+    @Override
+    int capacita(int i) {
+      Objects.checkIndex(i, 1);
+      return capacita;
+    }
+
+    @Override
+    int quantita(int i) {
+      Objects.checkIndex(i, 1);
+      return quantita;
+    }
+
+    @Override
+    int idProdotto(int i) {
+      Objects.checkIndex(i, 1);
+      return quantita == 0 ? -1 : 0;
+    }
+
+    @Override
+    void imposta(int i, int id, int quantita) {
+      Objects.checkIndex(i, 1);
+      this.quantita = quantita;
+    }
+
+    @Override
+    int id(Prodotto p) {
+      return Objects.requireNonNull(p).equals(prodotto) ? 0 : -1;
+    }
+
+    @Override
+    int registra(Prodotto p) {
+      prodotto = Objects.requireNonNull(p);
+      return 0;
+    }
+
+    @Override
+    Prodotto prodottoConId(int id) {
+      if (id != 0 || prodotto == null)
+        throw new IllegalArgumentException("prodotto sconosciuto: " + id);
+      return prodotto;
+    }
+  }
+
+  /**
+   * Archivio su array paralleli di tipi primitivi, con i prodotti identificati da un proprio
+   * elenco di identificativi.
+   *
+   * <p>Un identificativo resta assegnato al prodotto finché almeno un binario lo contiene: quando
+   * l'ultimo si svuota o passa a un altro prodotto, l'identificativo torna libero e può essere
+   * assegnato al prossimo prodotto registrato. Gli identificativi in uso sono quindi al più tanti
+   * quanti i binari (più quello appena registrato e non ancora caricato), anche se nel tempo ne
+   * passano moltissimi. Il prodotto resta associato all'identificativo liberato fino alla
+   * registrazione successiva, così che {@link ArchivioBinari#dispensa} possa restituirlo dopo
+   * aver svuotato il binario; per lo stesso motivo registra va seguita dal caricamento del
+   * prodotto prima di registrarne un altro.
+   *
+   * <p><strong>RI:</strong> taglie, capacita, quantita e prodotti non sono null e hanno la stessa
+   * lunghezza, positiva; perId, occupati e liberi non sono null e hanno la stessa lunghezza; ids
+   * non è null; per ogni i, taglie[i] è l'ordinale di una taglia, capacita[i] &gt; 0 e 0 &lt;=
+   * quantita[i] &lt;= capacita[i]; prodotti[i] è -1 se quantita[i] == 0 e altrimenti una chiave
+   * k di ids con ids.get(perId[k]) == k, e perId[k] ha taglia contenuta in taglie[i]; per ogni
+   * valore k di ids, occupati[k] è il numero di i con prodotti[i] == k; liberi[0 ..
+   * numeroLiberi) sono gli identificativi distinti che non sono valori di ids.
+   *
+   * <p><strong>AF:</strong> rappresenta i binari di indice da 0 a taglie.length - 1, dove il
+   * binario i ha taglia Taglia.values()[taglie[i]] e capacità capacita[i] e contiene quantita[i]
+   * unità del prodotto perId[prodotti[i]] (se quantita[i] &gt; 0); ids associa a ogni prodotto
+   * registrato il suo identificativo.
+   */
+  static final class Vettori extends ArchivioBinari {
+
+    private final byte[] taglie;
+    private final int[] capacita;
+    private final int[] quantita;
+    private final int[] prodotti;
+    private final Map<Prodotto, Integer> ids = new HashMap<>();
+    private Prodotto[] perId;
+    private int[] occupati;
+    private int[] liberi;
+    private int numeroLiberi;
+
+    /**
+     * Crea un archivio di binari vuoti.
+     *
+     * @param taglie taglie dei binari (almeno una)
+     * @param capacita capacità dei binari (positive), nello stesso ordine delle taglie
+     * @throws IllegalArgumentException se non ci sono binari, le lunghezze differiscono o una
+     *     capacità non è positiva
+     */
+    Vettori(Taglia[] taglie, int[] capacita) {
+      if (taglie.length == 0) throw new IllegalArgumentException("binari vuoti");
+      if (taglie.length != capacita.length)
+        throw new IllegalArgumentException("numero di taglie e capacità diversi");
+      int n = taglie.length;
+      this.taglie = new byte[n];
+      this.capacita = new int[n];
+      this.quantita = new int[n];
+      this.prodotti = new int[n];
+      for (int i = 0; i < n; i++) {
+        if (capacita[i] <= 0) throw new IllegalArgumentException("capacità non positiva");
+        this.taglie[i] = (byte) Objects.requireNonNull(taglie[i]).ordinal();
+        this.capacita[i] = capacita[i];
+        this.prodotti[i] = -1;
+      }
+      // un identificativo per binario più quello di un prodotto registrato e non ancora caricato;
+      // liberi è una pila, da cui gli identificativi escono a partire da 0
+      this.perId = new Prodotto[n + 1];
+      this.occupati = new int[n + 1];
+      this.liberi = new int[n + 1];
+      for (int k = n; k >= 0; k--) liberi[numeroLiberi++] = k;
+    }
+
+    /**
+     * Crea un archivio con una copia dello stato dei binari indicati.
+     *
+     * @param binari binari da copiare (almeno uno, non null)
+     */
+    static Vettori copia(List<Binario> binari) {
+      int n = binari.size();
+      Taglia[] taglie = new Taglia[n];
+      int[] capacita = new int[n];
+      for (int i = 0; i < n; i++) {
+        taglie[i] = binari.get(i).taglia();
+        capacita[i] = binari.get(i).capacita();
+      }
+      Vettori archivio = new Vettori(taglie, capacita);
+      for (int i = 0; i < n; i++) {
+        Binario b = binari.get(i);
+        if (!b.vuoto()) archivio.imposta(i, archivio.registra(b.prodotto()), b.quantita());
+      }
+      return archivio;
+    }
+
+    @Override
+    int numero() {
+      return taglie.length;
+    }
+
+    @Override
+    int ordinaleTaglia(int i) {
+      return taglie[i];
+    }
+
+    @Override
+    int capacita(int i) {
+      return capacita[i];
+    }
+
+    @Override
+    int quantita(int i) {
+      return quantita[i];
+    }
+
+    @Override
+    int idProdotto(int i) {
+      return prodotti[i];
+    }
+
+    @Override
+    void imposta(int i, int id, int quantita) {
+      int vecchio = prodotti[i];
+      if (vecchio != id) {
+        if (id >= 0) occupati[id]++;
+        if (vecchio >= 0 && --occupati[vecchio] == 0) libera(vecchio);
+      }
+      this.prodotti[i] = id;
+      this.quantita[i] = quantita;
+    }
+
+    // rende di nuovo assegnabile l'identificativo, che nessun binario contiene più
+    private void libera(int id) {
+      ids.remove(perId[id]);
+      liberi[numeroLiberi++] = id;
+    }
+
+    @Override
+    int id(Prodotto p) {
+      Integer id = ids.get(Objects.requireNonNull(p, "prodotto null"));
+      return id == null ? -1 : id;
+    }
+
+    @Override
+    int registra(Prodotto p) {
+      Integer assegnato = ids.get(Objects.requireNonNull(p, "prodotto null"));
+      if (assegnato != null) return assegnato;
+      if (numeroLiberi == 0) {
+        // solo se si registrano prodotti senza caricarli: gli identificativi non bastano più
+        int k = perId.length;
+        perId = Arrays.copyOf(perId, 2 * k);
+        occupati = Arrays.copyOf(occupati, 2 * k);
+        liberi = Arrays.copyOf(liberi, 2 * k);
+        for (int j = 2 * k - 1; j >= k; j--) liberi[numeroLiberi++] = j;
+      }
+      int id = liberi[--numeroLiberi];
+      perId[id] = p;
+      ids.put(p, id);
+      return id;
+    }
+
+    @Override
+    Prodotto prodottoConId(int id) {
+      if (id < 0 || id >= perId.length || perId[id] == null)
+        throw new IllegalArgumentException("prodotto sconosciuto: " + id);
+      return perId[id];
+    }
+  }
+}
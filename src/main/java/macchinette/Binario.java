@@ -19,27 +19,33 @@
 
 package macchinette;
 
+import java.io.IOException;
 import java.util.Objects;
 
 /**
  * Slot di un distributore con taglia e capacità fisse.
  *
- * <p><strong>RI:</strong> taglia non è null;
- * capacita è strettamente positivo;
- * quantita è compreso tra 0 e capacita (inclusi);
- * se prodotto è null allora quantita deve essere 0, e viceversa se quantita è 0 allora prodotto deve essere null;
- * se prodotto non è null allora la taglia del prodotto deve essere contenibile nella taglia del binario.
+ * <p>Un binario è una vista su una posizione di un archivio di binari (ArchivioBinari): i binari
+ * di un distributore condividono l'archivio del distributore, mentre un binario creato con il
+ * costruttore ha un archivio tutto suo, di una sola posizione e senza catalogo dei prodotti.
  *
- * <p><strong>AF:</strong> rappresenta un binario di un distributore automatico che può contenere
- * prodotti di una certa taglia fino a una capacità massima specificata; se il binario non è vuoto,
- * contiene quantita unità del prodotto indicato.
+ * <p>I binari di un distributore sono in sola lettura: il distributore tiene degli indici sul
+ * contenuto dei binari, che una modifica fatta attraverso la vista renderebbe incoerenti, per cui
+ * {@link #carica} e {@link #dispensa} sono possibili solo sui binari creati da soli.
+ *
+ * <p><strong>RI:</strong> archivio non è null;
+ * indice è compreso tra 0 (incluso) e archivio.numero() (escluso).
+ *
+ * <p><strong>AF:</strong> rappresenta il binario di indice indice dell'archivio: un binario di un
+ * distributore automatico che può contenere prodotti di una certa taglia fino a una capacità
+ * massima specificata; se il binario non è vuoto, contiene quantita unità del prodotto indicato.
  */
 public class Binario {
 
-  private final Taglia taglia;
-  private final int capacita;
-  private Prodotto prodotto;
-  private int quantita;
+  private final ArchivioBinari archivio;
+  private final int indice;
+  // vero per le viste sui binari di un distributore
+  private final boolean solaLettura;
 
   /**
    * Crea un binario vuoto.
@@ -50,32 +56,53 @@ public class Binario {
   public Binario(Taglia taglia, int capacita) {
     Objects.requireNonNull(taglia);
     if (capacita <= 0) throw new IllegalArgumentException("capacità non positiva");
-    this.taglia = taglia;
-    this.capacita = capacita;
+    this.archivio = new ArchivioBinari.Singolo(taglia, capacita);
+    this.indice = 0;
+    this.solaLettura = false;
   }
 
-
+  /** Crea la vista in sola lettura sul binario di indice dato dell'archivio di un distributore. */
+  Binario(ArchivioBinari archivio, int indice) {
+    this.archivio = archivio;
+    this.indice = indice;
+    this.solaLettura = true;
+  }
 
   /** Verifica se vuoto. */
   public boolean vuoto() {
-    return quantita == 0;
+    return archivio.quantita(indice) == 0;
   }
 
   /** Restituisce lo spazio disponibile. */
   public int spazioDisponibile() {
-    return capacita - quantita;
+    return archivio.capacita(indice) - archivio.quantita(indice);
+  }
+
+  /** Restituisce la taglia. */
+  Taglia taglia() {
+    return archivio.taglia(indice);
+  }
+
+  /** Restituisce la capacità. */
+  int capacita() {
+    return archivio.capacita(indice);
+  }
+
+  /** Restituisce il numero di unità contenute. */
+  int quantita() {
+    return archivio.quantita(indice);
   }
 
   /** Restituisce il prodotto (null se vuoto). */
   public Prodotto prodotto() {
-    return prodotto;
+    return archivio.prodotto(indice);
   }
 
   /** Verifica se il binario può accettare il prodotto (taglia e tipo). */
   public boolean accetta(Prodotto p) {
     Objects.requireNonNull(p);
-    if (!taglia.contiene(p.taglia())) return false;
-    return vuoto() || prodotto.equals(p);
+    BinarioException.Motivo m = archivio.rifiuto(indice, archivio.id(p), p.taglia().ordinal());
+    return m == null || m == BinarioException.Motivo.CAPACITY;
   }
 
   /**
@@ -84,20 +111,13 @@ public class Binario {
    * @param p prodotto da caricare
    * @param q quantità (&gt; 0)
    * @throws BinarioException se impossibile (SIZE, CAPACITY, ITEM)
+   * @throws UnsupportedOperationException se il binario è di un distributore
    */
   public void carica(Prodotto p, int q) throws BinarioException {
     Objects.requireNonNull(p);
     if (q <= 0) throw new IllegalArgumentException("quantità non positiva");
-
-    if (!taglia.contiene(p.taglia()))
-      throw new BinarioException(BinarioException.Motivo.SIZE);
-    if (!vuoto() && !prodotto.equals(p))
-      throw new BinarioException(BinarioException.Motivo.ITEM);
-    if (quantita + q > capacita)
-      throw new BinarioException(BinarioException.Motivo.CAPACITY);
-
-    if (vuoto()) this.prodotto = p;
-    this.quantita += q;
+    modificabile();
+    archivio.carica(indice, p, q);
   }
 
   /**
@@ -105,13 +125,16 @@ public class Binario {
    *
    * @return il prodotto dispensato
    * @throws BinarioException se vuoto
+   * @throws UnsupportedOperationException se il binario è di un distributore
    */
   public Prodotto dispensa() throws BinarioException {
-    if (vuoto()) throw new BinarioException(BinarioException.Motivo.EMPTY);
-    Prodotto p = this.prodotto;
-    this.quantita--;
-    if (this.quantita == 0) this.prodotto = null;
-    return p;
+    modificabile();
+    return archivio.dispensa(indice);
+  }
+
+  private void modificabile() {
+    if (solaLettura)
+      throw new UnsupportedOperationException("binario di un distributore: usare il distributore");
   }
 
   /**
@@ -142,9 +165,43 @@ public class Binario {
     return new Binario(t, cap);
   }
 
+  /**
+   * Aggiunge la rappresentazione testuale del binario (la stessa di {@link #toString()}) al
+   * builder, senza creare stringhe intermedie.
+   *
+   * @param sb builder a cui aggiungerla
+   * @return sb
+   */
+  public StringBuilder appendTo(StringBuilder sb) {
+    Objects.requireNonNull(sb);
+    if (vuoto())
+      return sb.append("<-, ").append(taglia()).append(", 0, ").append(capacita()).append('>');
+    prodotto().appendTo(sb.append('<')).append(", ").append(taglia());
+    return sb.append(", ").append(quantita()).append(", ").append(capacita()).append('>');
+  }
+
+  /**
+   * Aggiunge la rappresentazione testuale del binario (la stessa di {@link #toString()}) alla
+   * destinazione.
+   *
+   * @param a destinazione a cui aggiungerla
+   * @return a
+   * @throws IOException se la destinazione la solleva
+   */
+  public Appendable appendTo(Appendable a) throws IOException {
+    Objects.requireNonNull(a);
+    if (a instanceof StringBuilder) return appendTo((StringBuilder) a);
+    if (vuoto()) {
+      a.append("<-, ").append(taglia().toString()).append(", 0, ");
+      return a.append(Integer.toString(capacita())).append('>');
+    }
+    prodotto().appendTo(a.append('<')).append(", ").append(taglia().toString());
+    a.append(", ").append(Integer.toString(quantita())).append(", ");
+    return a.append(Integer.toString(capacita())).append('>');
+  }
+
   @Override
   public String toString() {
-    if (vuoto()) return "<-, " + taglia + ", 0, " + capacita + ">";
-    return "<" + prodotto + ", " + taglia + ", " + quantita + ", " + capacita + ">";
+    return appendTo(new StringBuilder()).toString();
   }
 }
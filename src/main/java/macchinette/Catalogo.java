@@ -0,0 +1,154 @@
+/*
+ * Copyright 2025 Massimo Santini
+ *
+ * This file is part of "Programmazione 2 @ UniMI" teaching material.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this file.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package macchinette;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Catalogo che associa a ogni prodotto un'istanza canonica e un identificativo numerico.
+ *
+ * <p>Prodotti uguali registrati nel catalogo sono rappresentati tutti dalla stessa istanza, così
+ * che il confronto tra prodotti del catalogo si riduca a un confronto di riferimenti (o di
+ * identificativi); gli identificativi sono assegnati consecutivamente a partire da 0, nell'ordine
+ * di registrazione. Il catalogo ricorda inoltre le descrizioni testuali già lette con {@link
+ * #parse(String)}, che per una descrizione nota restituisce l'istanza canonica con una sola
+ * ricerca, senza costruire nuovi oggetti.
+ *
+ * <p>Più thread possono usare il catalogo contemporaneamente: le letture non prendono lock, le
+ * registrazioni di prodotti nuovi sono serializzate.
+ *
+ * <p><strong>RI:</strong> voci, perTesto e prodotti non sono null; 0 &lt;= dimensione &lt;=
+ * prodotti.length; per ogni i in [0, dimensione), prodotti[i] non è null, i prodotti sono
+ * distinti e voci.get(prodotti[i]) è la voce (prodotti[i], i); voci non ha altre chiavi; ogni
+ * valore di perTesto è una voce di voci e la sua chiave è una descrizione del suo prodotto;
+ * perTesto ha al più MAX_TESTI chiavi.
+ *
+ * <p><strong>AF:</strong> associa al prodotto prodotti[i] l'identificativo i, per ogni i in [0,
+ * dimensione); prodotti[i] è l'istanza canonica dei prodotti uguali a esso.
+ */
+public final class Catalogo {
+
+  /** Numero massimo di descrizioni testuali ricordate. */
+  private static final int MAX_TESTI = 1 << 16;
+
+  /** Prodotto canonico e suo identificativo. */
+  private static final class Voce {
+    final Prodotto prodotto;
+    final int id;
+
+    Voce(Prodotto prodotto, int id) {
+      this.prodotto = prodotto;
+      this.id = id;
+    }
+  }
+
+  private final ConcurrentHashMap<Prodotto, Voce> voci = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Voce> perTesto = new ConcurrentHashMap<>();
+  private volatile Prodotto[] prodotti = new Prodotto[16];
+  private volatile int dimensione;
+
+  /** Crea un catalogo vuoto. */
+  public Catalogo() {}
+
+  /** Restituisce il numero di prodotti del catalogo. */
+  public int dimensione() {
+    return dimensione;
+  }
+
+  /**
+   * Restituisce l'istanza canonica del prodotto, registrandolo nel catalogo se non c'è.
+   *
+   * @throws NullPointerException se il prodotto è null
+   */
+  public Prodotto interna(Prodotto prodotto) {
+    return voce(prodotto).prodotto;
+  }
+
+  /**
+   * Restituisce l'identificativo del prodotto, registrandolo nel catalogo se non c'è.
+   *
+   * @throws NullPointerException se il prodotto è null
+   */
+  public int registra(Prodotto prodotto) {
+    return voce(prodotto).id;
+  }
+
+  /**
+   * Restituisce l'identificativo del prodotto.
+   *
+   * @return l'identificativo, o -1 se il prodotto non è nel catalogo
+   * @throws NullPointerException se il prodotto è null
+   */
+  public int id(Prodotto prodotto) {
+    Voce v = voci.get(Objects.requireNonNull(prodotto, "prodotto null"));
+    return v == null ? -1 : v.id;
+  }
+
+  /**
+   * Restituisce il prodotto con l'identificativo indicato.
+   *
+   * @throws IllegalArgumentException se l'identificativo non è assegnato
+   */
+  public Prodotto prodotto(int id) {
+    // dimensione va letta prima di prodotti: la sua scrittura pubblica l'elemento
+    int n = dimensione;
+    if (id < 0 || id >= n) throw new IllegalArgumentException("prodotto sconosciuto: " + id);
+    return prodotti[id];
+  }
+
+  /**
+   * Restituisce l'istanza canonica del prodotto descritto nel formato "nome|prezzo|taglia" (vedi
+   * {@link Prodotto#parse(String)}), registrandolo nel catalogo se non c'è.
+   *
+   * @throws IllegalArgumentException se il formato non è valido
+   */
+  public Prodotto parse(String s) {
+    Voce v = perTesto.get(Objects.requireNonNull(s));
+    if (v != null) return v.prodotto;
+    v = voce(Prodotto.parse(s));
+    // descrizioni diverse dello stesso prodotto occupano chiavi diverse: il limite evita che
+    // un flusso di descrizioni sempre nuove faccia crescere la mappa senza fine
+    if (perTesto.size() < MAX_TESTI) perTesto.putIfAbsent(s, v);
+    return v.prodotto;
+  }
+
+  private Voce voce(Prodotto prodotto) {
+    Voce v = voci.get(Objects.requireNonNull(prodotto, "prodotto null"));
+    if (v != null) return v;
+    synchronized (this) {
+      v = voci.get(prodotto);
+      if (v != null) return v;
+      int id = dimensione;
+      if (id == prodotti.length) prodotti = Arrays.copyOf(prodotti, 2 * id);
+      prodotti[id] = prodotto;
+      v = new Voce(prodotto, id);
+      voci.put(prodotto, v);
+      dimensione = id + 1;
+      return v;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "Catalogo" + Arrays.toString(Arrays.copyOf(prodotti, dimensione));
+  }
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright 2025 Massimo Santini
+ *
+ * This file is part of "Programmazione 2 @ UniMI" teaching material.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this file.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package macchinette;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Codifica binaria compatta di importi, aggregati, prodotti e comandi, usata dai formati su file e
+ * per lo scambio di comandi tra processi al posto della sintassi testuale.
+ *
+ * <p>Gli interi non negativi sono codificati come varint (7 bit per byte, il bit alto indica che
+ * segue un altro byte); un importo è il varint dei suoi centesimi; un aggregato è un byte con un
+ * bit per ogni moneta presente (nell'ordine di {@link Moneta}) seguito dalle quantità delle monete
+ * presenti; un prodotto è il nome (lunghezza e byte UTF-8), il prezzo e l'ordinale della taglia.
+ *
+ * <p>Un comando è un byte di tipo seguito dai suoi campi:
+ *
+ * <ul>
+ *   <li>{@link #PRODOTTO}: identificativo e prodotto, definisce il prossimo identificativo del
+ *       {@link Catalogo};
+ *   <li>{@link #CARICA}: identificativo del prodotto e quantità;
+ *   <li>{@link #EROGA}: indice del binario e pagamento;
+ *   <li>{@link #EROGA_PRODOTTO}: identificativo del prodotto e pagamento;
+ *   <li>{@link #INTERROGA}: nessun campo, chiede i binari non vuoti.
+ * </ul>
+ *
+ * <p>Le funzioni lavorano direttamente sul {@link ByteBuffer}: per scrivere non costruiscono
+ * rappresentazioni intermedie e per leggere riempiono un {@link Comando} riusabile.
+ *
+ * <p>Chi scrive e chi legge un flusso di comandi mantengono ciascuno il proprio catalogo, usato
+ * solo per quel flusso: ogni prodotto nuovo è trasmesso una sola volta, con la sua definizione, e
+ * da entrambe le parti riceve il primo identificativo libero, così che i due cataloghi restino
+ * uguali. Un comando entra nel catalogo solo quando è stato scritto o letto per intero.
+ *
+ * <p><strong>RI:</strong> classe di utilità non istanziabile, senza stato.
+ *
+ * <p><strong>AF:</strong> non rappresenta alcun valore; raccoglie funzioni di codifica.
+ */
+public final class Codifica {
+
+  /** Tipo del comando che definisce un prodotto. */
+  public static final byte PRODOTTO = 1;
+
+  /** Tipo del comando di caricamento. */
+  public static final byte CARICA = 2;
+
+  /** Tipo del comando di erogazione da un binario. */
+  public static final byte EROGA = 3;
+
+  /** Tipo del comando di erogazione di un prodotto. */
+  public static final byte EROGA_PRODOTTO = 4;
+
+  /** Tipo del comando che chiede i binari non vuoti. */
+  public static final byte INTERROGA = 5;
+
+  /** Massimo numero di byte occupati da un aggregato. */
+  public static final int MAX_AGGREGATO = 1 + 5 * 8;
+
+  private static final Moneta[] MONETE = Moneta.values();
+  private static final Taglia[] TAGLIE = Taglia.values();
+
+  private Codifica() {}
+
+  /** Scrive un intero non negativo come varint. */
+  public static void scriviVarint(ByteBuffer buf, int n) {
+    if (n < 0) throw new IllegalArgumentException("intero negativo: " + n);
+    while ((n & ~0x7F) != 0) {
+      buf.put((byte) ((n & 0x7F) | 0x80));
+      n >>>= 7;
+    }
+    buf.put((byte) n);
+  }
+
+  /**
+   * Legge un varint.
+   *
+   * @throws IllegalArgumentException se il varint è malformato
+   */
+  public static int leggiVarint(ByteBuffer buf) {
+    int n = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      byte b = buf.get();
+      n |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        if (n < 0) throw new IllegalArgumentException("varint fuori intervallo");
+        return n;
+      }
+    }
+    throw new IllegalArgumentException("varint troppo lungo");
+  }
+
+  /** Scrive una stringa come lunghezza (varint) seguita dai byte UTF-8. */
+  public static void scriviStringa(ByteBuffer buf, String s) {
+    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+    scriviVarint(buf, b.length);
+    buf.put(b);
+  }
+
+  /** Legge una stringa scritta da {@link #scriviStringa}. */
+  public static String leggiStringa(ByteBuffer buf) {
+    int n = leggiVarint(buf);
+    if (n > buf.remaining()) throw new BufferUnderflowException();
+    byte[] b = new byte[n];
+    buf.get(b);
+    return new String(b, StandardCharsets.UTF_8);
+  }
+
+  /** Scrive un importo come numero di centesimi. */
+  public static void scriviImporto(ByteBuffer buf, Importo importo) {
+    scriviVarint(buf, importo.inCentesimi());
+  }
+
+  /** Legge un importo scritto da {@link #scriviImporto}, restituendone i centesimi. */
+  public static int leggiCentesimi(ByteBuffer buf) {
+    return leggiVarint(buf);
+  }
+
+  /** Legge un importo scritto da {@link #scriviImporto}. */
+  public static Importo leggiImporto(ByteBuffer buf) {
+    int centesimi = leggiVarint(buf);
+    return new Importo(centesimi / 100, centesimi % 100);
+  }
+
+  /** Scrive le quantità di ciascuna moneta dell'aggregato. */
+  public static void scriviAggregato(ByteBuffer buf, Aggregato a) {
+    int maschera = 0;
+    for (int i = 0; i < MONETE.length; i++) if (a.quantita(MONETE[i]) > 0) maschera |= 1 << i;
+    buf.put((byte) maschera);
+    for (int i = 0; i < MONETE.length; i++)
+      if ((maschera & 1 << i) != 0) scriviVarint(buf, a.quantita(MONETE[i]));
+  }
+
+  /**
+   * Scrive come aggregato le quantità indicate, indicizzate per ordinale di {@link Moneta}.
+   *
+   * @throws IllegalArgumentException se una quantità è negativa
+   */
+  public static void scriviAggregato(ByteBuffer buf, int[] quantita) {
+    if (quantita.length != MONETE.length) throw new IllegalArgumentException("quantità errate");
+    int maschera = 0;
+    for (int i = 0; i < MONETE.length; i++) {
+      if (quantita[i] < 0) throw new IllegalArgumentException("quantità negativa");
+      if (quantita[i] > 0) maschera |= 1 << i;
+    }
+    buf.put((byte) maschera);
+    for (int i = 0; i < MONETE.length; i++) if (quantita[i] > 0) scriviVarint(buf, quantita[i]);
+  }
+
+  /**
+   * Legge un aggregato scritto da {@link #scriviAggregato} nell'array delle quantità, indicizzato
+   * per ordinale di {@link Moneta}.
+   */
+  public static void leggiAggregato(ByteBuffer buf, int[] quantita) {
+    int maschera = buf.get() & 0xFF;
+    for (int i = 0; i < MONETE.length; i++)
+      quantita[i] = (maschera & 1 << i) != 0 ? leggiVarint(buf) : 0;
+  }
+
+  /** Legge un aggregato scritto da {@link #scriviAggregato}. */
+  public static Aggregato leggiAggregato(ByteBuffer buf) {
+    int maschera = buf.get() & 0xFF;
+    Aggregato a = new Aggregato();
+    for (int i = 0; i < MONETE.length; i++)
+      if ((maschera & 1 << i) != 0) a.aggiungi(MONETE[i], leggiVarint(buf));
+    return a;
+  }
+
+  /** Scrive nome, prezzo e taglia del prodotto. */
+  public static void scriviProdotto(ByteBuffer buf, Prodotto p) {
+    scriviStringa(buf, p.nome());
+    scriviImporto(buf, p.prezzo());
+    buf.put((byte) p.taglia().ordinal());
+  }
+
+  /** Legge un prodotto scritto da {@link #scriviProdotto}. */
+  public static Prodotto leggiProdotto(ByteBuffer buf) {
+    String nome = leggiStringa(buf);
+    Importo prezzo = leggiImporto(buf);
+    int taglia = buf.get();
+    if (taglia < 0 || taglia >= TAGLIE.length)
+      throw new IllegalArgumentException("taglia non valida: " + taglia);
+    return new Prodotto(nome, prezzo, TAGLIE[taglia]);
+  }
+
+  /**
+   * Scrive un comando di caricamento, preceduto dalla definizione del prodotto se questo non è
+   * ancora nel catalogo (a cui viene aggiunto).
+   *
+   * <p>Se lo spazio nel buffer non basta, la sua posizione e il catalogo restano invariati e viene
+   * sollevata {@link BufferOverflowException}: chi scrive può svuotare il buffer e riprovare.
+   *
+   * @throws BufferOverflowException se il comando non entra nel buffer
+   */
+  public static void scriviCarica(
+      ByteBuffer buf, Catalogo catalogo, Prodotto prodotto, int quantita) {
+    int inizio = buf.position();
+    try {
+      int id = catalogo.id(prodotto);
+      boolean nuovo = id < 0;
+      if (nuovo) id = scriviDefinizione(buf, catalogo, prodotto);
+      buf.put(CARICA);
+      scriviVarint(buf, id);
+      scriviVarint(buf, quantita);
+      if (nuovo) catalogo.registra(prodotto);
+    } catch (BufferOverflowException e) {
+      buf.position(inizio);
+      throw e;
+    }
+  }
+
+  /**
+   * Scrive un comando di erogazione dal binario indicato.
+   *
+   * @throws BufferOverflowException se il comando non entra nel buffer, la cui posizione resta
+   *     invariata
+   */
+  public static void scriviEroga(ByteBuffer buf, int indiceBinario, Aggregato pagamento) {
+    int inizio = buf.position();
+    try {
+      buf.put(EROGA);
+      scriviVarint(buf, indiceBinario);
+      scriviAggregato(buf, pagamento);
+    } catch (BufferOverflowException e) {
+      buf.position(inizio);
+      throw e;
+    }
+  }
+
+  /**
+   * Scrive un comando di erogazione di un prodotto, preceduto dalla definizione del prodotto se
+   * questo non è ancora nel catalogo (a cui viene aggiunto).
+   *
+   * @throws BufferOverflowException se il comando non entra nel buffer; come per {@link
+   *     #scriviCarica}, la posizione del buffer e il catalogo restano invariati
+   */
+  public static void scriviErogaProdotto(
+      ByteBuffer buf, Catalogo catalogo, Prodotto prodotto, Aggregato pagamento) {
+    int inizio = buf.position();
+    try {
+      int id = catalogo.id(prodotto);
+      boolean nuovo = id < 0;
+      if (nuovo) id = scriviDefinizione(buf, catalogo, prodotto);
+      buf.put(EROGA_PRODOTTO);
+      scriviVarint(buf, id);
+      scriviAggregato(buf, pagamento);
+      if (nuovo) catalogo.registra(prodotto);
+    } catch (BufferOverflowException e) {
+      buf.position(inizio);
+      throw e;
+    }
+  }
+
+  /**
+   * Scrive un comando di interrogazione dei binari non vuoti.
+   *
+   * @throws BufferOverflowException se il comando non entra nel buffer, la cui posizione resta
+   *     invariata
+   */
+  public static void scriviInterroga(ByteBuffer buf) {
+    buf.put(INTERROGA);
+  }
+
+  // scrive la definizione del prodotto, non ancora nel catalogo, con il primo identificativo
+  // libero e lo restituisce; il prodotto va registrato solo quando il comando è scritto per intero
+  private static int scriviDefinizione(ByteBuffer buf, Catalogo catalogo, Prodotto prodotto) {
+    int id = catalogo.dimensione();
+    buf.put(PRODOTTO);
+    scriviVarint(buf, id);
+    scriviProdotto(buf, prodotto);
+    return id;
+  }
+
+  /**
+   * Legge il prossimo comando nel comando indicato; se è una definizione di prodotto, il prodotto
+   * è aggiunto al catalogo.
+   *
+   * <p>Se il buffer non contiene un comando completo, la sua posizione e il catalogo restano
+   * invariati e viene sollevata {@link BufferUnderflowException}: chi riceve i comandi a pezzi
+   * può riprovare dopo aver aggiunto altri byte.
+   *
+   * @return il tipo del comando letto
+   * @throws BufferUnderflowException se il comando è incompleto
+   * @throws IllegalArgumentException se il comando è malformato, fa riferimento a un prodotto
+   *     sconosciuto o definisce un prodotto già nel catalogo
+   */
+  public static byte leggiComando(ByteBuffer buf, Catalogo catalogo, Comando comando) {
+    Objects.requireNonNull(catalogo);
+    int inizio = buf.position();
+    try {
+      byte tipo = buf.get();
+      switch (tipo) {
+        case PRODOTTO -> {
+          int id = leggiVarint(buf);
+          if (id != catalogo.dimensione())
+            throw new IllegalArgumentException("identificativo inatteso: " + id);
+          Prodotto prodotto = leggiProdotto(buf);
+          if (catalogo.registra(prodotto) != id)
+            throw new IllegalArgumentException("prodotto già definito: " + prodotto);
+          comando.idProdotto = id;
+        }
+        case CARICA -> {
+          comando.idProdotto = leggiVarint(buf);
+          comando.quantita = leggiVarint(buf);
+          catalogo.prodotto(comando.idProdotto);
+        }
+        case EROGA -> {
+          comando.indiceBinario = leggiVarint(buf);
+          leggiAggregato(buf, comando.pagamento);
+        }
+        case EROGA_PRODOTTO -> {
+          comando.idProdotto = leggiVarint(buf);
+          leggiAggregato(buf, comando.pagamento);
+          catalogo.prodotto(comando.idProdotto);
+        }
+        case INTERROGA -> {}
+        default -> throw new IllegalArgumentException("tipo di comando sconosciuto: " + tipo);
+      }
+      comando.tipo = tipo;
+      return tipo;
+    } catch (BufferUnderflowException e) {
+      buf.position(inizio);
+      throw e;
+    }
+  }
+
+  /**
+   * Comando letto da {@link Codifica#leggiComando}, riusabile per letture successive.
+   *
+   * <p><strong>RI:</strong> pagamento non è null e ha un elemento non negativo per ogni moneta.
+   *
+   * <p><strong>AF:</strong> rappresenta l'ultimo comando letto, di tipo tipo (0 se non è stato
+   * letto alcun comando); i campi che il tipo non prevede non sono significativi.
+   */
+  public static final class Comando {
+
+    private byte tipo;
+    private int idProdotto;
+    private int quantita;
+    private int indiceBinario;
+    private final int[] pagamento = new int[MONETE.length];
+
+    /** Restituisce il tipo del comando. */
+    public byte tipo() {
+      return tipo;
+    }
+
+    /** Restituisce l'identificativo del prodotto (PRODOTTO, CARICA, EROGA_PRODOTTO). */
+    public int idProdotto() {
+      return idProdotto;
+    }
+
+    /** Restituisce la quantità da caricare (CARICA). */
+    public int quantita() {
+      return quantita;
+    }
+
+    /** Restituisce l'indice del binario (EROGA). */
+    public int indiceBinario() {
+      return indiceBinario;
+    }
+
+    /** Restituisce la quantità di una moneta nel pagamento (EROGA, EROGA_PRODOTTO). */
+    public int pagamento(Moneta moneta) {
+      return pagamento[moneta.ordinal()];
+    }
+
+    /** Restituisce il pagamento come aggregato (EROGA, EROGA_PRODOTTO). */
+    public Aggregato pagamento() {
+      Aggregato a = new Aggregato();
+      for (int i = 0; i < MONETE.length; i++)
+        if (pagamento[i] > 0) a.aggiungi(MONETE[i], pagamento[i]);
+      return a;
+    }
+
+    @Override
+    public String toString() {
+      return "Comando[tipo=" + tipo + "]";
+    }
+  }
+}
@@ -20,55 +20,261 @@
 package macchinette;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.TreeSet;
+import java.util.function.LongSupplier;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Stream;
 
 /**
  * Distributore automatico con binari, fondo cassa e strategia resto.
  *
- * <p><strong>RI:</strong> binari non è null e non è vuoto;
- * ogni elemento di binari non è null;
+ * <p>Lo stato dei binari è tenuto in un archivio (ArchivioBinari): di norma in array paralleli,
+ * così che le scansioni dei caricamenti e delle interrogazioni siano passate lineari su memoria
+ * contigua, oppure fuori dallo heap (vedi {@link FlottaFuoriHeap}); i binari restituiti dal
+ * distributore sono viste sull'archivio, in sola lettura perché il distributore ne indicizza il
+ * contenuto.
+ *
+ * <p><strong>RI:</strong> archivio non è null e ha almeno un binario;
+ * binari ha archivio.numero() elementi e binari[i] è la vista sul binario i dell'archivio;
  * fondoCassa non è null;
- * strategia non è null.
+ * strategia non è null;
+ * conIndice ha la stessa lunghezza di binari e conIndice[i] associa i a binari[i];
+ * perQuantita non è null e confronta gli indici dei binari per quantità e poi per indice;
+ * il bit i di nonVuoti è acceso se e solo se il binario i non è vuoto;
+ * politica non è null;
+ * scorte ha una chiave p se e solo se qualche binario contiene p; in tal caso scorte.get(p)
+ * contiene esattamente gli indici dei binari che contengono p, ordinati per quantità crescente e
+ * poi per indice decrescente, e la somma delle loro quantità;
+ * perNome associa a ogni nome la lista (senza ripetizioni) dei prodotti con quel nome che sono
+ * chiavi di scorte, e non contiene liste vuote;
+ * osservatori non è null e non contiene null;
+ * consumi non è null e ha una stima per ogni binario; orologio non è null;
+ * metriche può essere null.
  *
  * <p><strong>AF:</strong> rappresenta un distributore automatico i cui binari sono indicizzati
- * da 0 a binari.size()-1, con il fondo cassa dato dall'aggregato fondoCassa
- * e che utilizza la strategia indicata per calcolare i resti.
+ * da 0 a archivio.numero()-1, con il fondo cassa dato dalle quantità di fondoCassa
+ * e che utilizza la strategia indicata per calcolare i resti; quando l'erogazione è richiesta per
+ * prodotto, il binario da cui erogare è scelto secondo la politica indicata; consumi stima la
+ * velocità recente di erogazione dei binari e di consumo delle monete, negli istanti dati da
+ * orologio; se metriche non è null, le
+ * operazioni sono registrate in metriche.
  */
 public class Distributore {
 
-  private final List<Binario> binari;
-  private final Aggregato fondoCassa;
+  /** Politiche di scelta del binario nell'erogazione per prodotto. */
+  public enum Politica {
+    /** Eroga dal binario con più unità del prodotto (a parità, da quello di indice minore). */
+    PIU_PIENO,
+    /** Eroga dal binario con meno unità del prodotto (a parità, da quello di indice maggiore). */
+    MENO_PIENO
+  }
+
+  private static final int TAGLIE = Taglia.values().length;
+  private static final int[] NESSUNO = new int[0];
+  private static final OsservatoreDistributore[] NESSUN_OSSERVATORE = {};
+
+  // indici dei binari che contengono un prodotto, ordinati per quantità, e loro totale
+  private static final class Scorte {
+    private final TreeSet<Integer> binari;
+    private int totale;
+
+    private Scorte(TreeSet<Integer> binari) {
+      this.binari = binari;
+    }
+  }
+
+  private final ArchivioBinari archivio;
+  private final Binario[] binari;
+  private final FondoCassa fondoCassa;
   private final StrategiaResto strategia;
+  // coppie (indice, binario) create una volta sola e riusate da iteratori e stream
+  private final BinarioConIndice[] conIndice;
+  private final Comparator<Integer> perQuantita;
+  // insieme degli indici dei binari non vuoti, aggiornato da carica ed eroga
+  private final BitSet nonVuoti;
+  // numero di modifiche di nonVuoti, per invalidare le iterazioni in corso
+  private int modifiche;
+  private final Politica politica;
+  private final Map<Prodotto, Scorte> scorte = new HashMap<>();
+  private final Map<String, List<Prodotto>> perNome = new HashMap<>();
+  // sostituito (e non modificato) a ogni registrazione, così che un osservatore possa togliersi
+  // durante una notifica
+  private OsservatoreDistributore[] osservatori = NESSUN_OSSERVATORE;
+  private final StimaConsumi consumi;
+  private final LongSupplier orologio;
+  private Metriche metriche;
 
   /**
    * Crea un distributore.
    *
-   * <p><strong>IMPORTANTE:</strong> Il chiamante NON deve modificare i binari passati
-   * dopo la costruzione del distributore. Il distributore assume la proprietà esclusiva
-   * dei binari forniti, che non devono essere modificati esternamente per preservare
-   * l'integrità dello stato del distributore.
+   * <p>Il distributore copia lo stato dei binari passati: le modifiche successive a quei binari non
+   * hanno effetto sul distributore, e viceversa.
+   *
+   * <p>L'erogazione per prodotto usa la politica {@link Politica#PIU_PIENO}.
    *
    * @param binari lista binari (non vuota)
    * @param fondoCassa fondo cassa iniziale
    * @param strategia strategia per il resto
    */
   public Distributore(List<Binario> binari, Aggregato fondoCassa, StrategiaResto strategia) {
+    this(binari, fondoCassa, strategia, Politica.PIU_PIENO);
+  }
+
+  /**
+   * Crea un distributore con la politica indicata per l'erogazione per prodotto.
+   *
+   * <p>Come per il costruttore a tre argomenti, lo stato dei binari passati è copiato.
+   *
+   * @param binari lista binari (non vuota)
+   * @param fondoCassa fondo cassa iniziale
+   * @param strategia strategia per il resto
+   * @param politica politica di scelta del binario in {@link #erogaProdotto}
+   */
+  public Distributore(
+      List<Binario> binari, Aggregato fondoCassa, StrategiaResto strategia, Politica politica) {
+    this(binari, fondoCassa, strategia, politica, System::nanoTime);
+  }
+
+  /**
+   * Crea un distributore le cui stime dei consumi ({@link #velocitaErogazione} e seguenti) usano
+   * l'orologio indicato invece di {@link System#nanoTime}, ad esempio per simulare il passare del
+   * tempo.
+   *
+   * <p>Come per il costruttore a tre argomenti, lo stato dei binari passati è copiato.
+   *
+   * @param binari lista binari (non vuota)
+   * @param fondoCassa fondo cassa iniziale
+   * @param strategia strategia per il resto
+   * @param politica politica di scelta del binario in {@link #erogaProdotto}
+   * @param orologio istanti in nanosecondi, non decrescenti, come quelli di System.nanoTime
+   */
+  public Distributore(
+      List<Binario> binari,
+      Aggregato fondoCassa,
+      StrategiaResto strategia,
+      Politica politica,
+      LongSupplier orologio) {
+    this(copia(binari), new FondoCassa.Vettore(fondoCassa), strategia, politica, orologio);
+  }
+
+  /** Come il costruttore successivo, con stime nuove sullo heap. */
+  private Distributore(
+      ArchivioBinari archivio,
+      FondoCassa fondoCassa,
+      StrategiaResto strategia,
+      Politica politica,
+      LongSupplier orologio) {
+    this(
+        archivio,
+        fondoCassa,
+        strategia,
+        politica,
+        new StimaConsumi.Vettori(archivio.numero(), StimaConsumi.MEZZA_VITA, orologio.getAsLong()),
+        orologio);
+  }
+
+  private static ArchivioBinari copia(List<Binario> binari) {
     Objects.requireNonNull(binari);
-    Objects.requireNonNull(fondoCassa);
-    Objects.requireNonNull(strategia);
     if (binari.isEmpty()) throw new IllegalArgumentException("binari vuoti");
     for (int i = 0; i < binari.size(); i++)
       if (binari.get(i) == null) throw new NullPointerException("binario " + i + " null");
+    return ArchivioBinari.Vettori.copia(binari);
+  }
 
-    this.binari = new ArrayList<>(binari);
-    this.fondoCassa = new Aggregato(fondoCassa);
+  /**
+   * Crea un distributore i cui binari, il cui fondo cassa e le cui stime dei consumi sono quelli
+   * indicati, che il distributore modifica direttamente.
+   *
+   * @param archivio archivio dei binari
+   * @param fondoCassa fondo cassa
+   * @param strategia strategia per il resto
+   * @param politica politica di scelta del binario in {@link #erogaProdotto}
+   * @param consumi stime dei consumi, con una stima per ogni binario dell'archivio
+   * @param orologio istanti delle stime, in nanosecondi
+   */
+  Distributore(
+      ArchivioBinari archivio,
+      FondoCassa fondoCassa,
+      StrategiaResto strategia,
+      Politica politica,
+      StimaConsumi consumi,
+      LongSupplier orologio) {
+    Objects.requireNonNull(archivio);
+    Objects.requireNonNull(fondoCassa);
+    Objects.requireNonNull(strategia);
+    Objects.requireNonNull(politica);
+    Objects.requireNonNull(consumi);
+    Objects.requireNonNull(orologio);
+
+    this.archivio = archivio;
+    this.perQuantita = perQuantita(archivio);
+    this.binari = new Binario[archivio.numero()];
+    this.fondoCassa = fondoCassa;
     this.strategia = strategia;
+    this.politica = politica;
+    this.conIndice = new BinarioConIndice[this.binari.length];
+    this.nonVuoti = new BitSet(this.binari.length);
+    this.consumi = consumi;
+    this.orologio = orologio;
+    long adesso = orologio.getAsLong();
+    for (int i = 0; i < conIndice.length; i++) {
+      this.binari[i] = new Binario(archivio, i);
+      conIndice[i] = new BinarioConIndice(i, this.binari[i]);
+      if (archivio.quantita(i) > 0) {
+        nonVuoti.set(i);
+        indicizza(i);
+        consumi.caricamento(i, archivio.prodotto(i), adesso);
+      }
+    }
+  }
+
+  // ordina i binari per quantità crescente e, a parità, per indice decrescente: così il massimo
+  // è il più pieno con indice minore; non cattura il distributore, che è ancora in costruzione
+  private static Comparator<Integer> perQuantita(ArchivioBinari archivio) {
+    return (a, b) -> {
+      int cmp = Integer.compare(archivio.quantita(a), archivio.quantita(b));
+      return cmp != 0 ? cmp : Integer.compare(b, a);
+    };
   }
 
+  // aggiunge il binario i (non vuoto) all'indice per prodotto
+  private void indicizza(int i) {
+    Prodotto p = archivio.prodotto(i);
+    Scorte s = scorte.get(p);
+    if (s == null) {
+      s = new Scorte(new TreeSet<>(perQuantita));
+      scorte.put(p, s);
+      perNome.computeIfAbsent(p.nome(), n -> new ArrayList<>(1)).add(p);
+    }
+    s.binari.add(i);
+    s.totale += archivio.quantita(i);
+  }
 
+  // toglie il binario i (non vuoto) dall'indice per prodotto; va invocato prima di modificarlo
+  private void deindicizza(int i) {
+    Prodotto p = archivio.prodotto(i);
+    Scorte s = scorte.get(p);
+    s.binari.remove(i);
+    s.totale -= archivio.quantita(i);
+    if (s.binari.isEmpty()) {
+      scorte.remove(p);
+      List<Prodotto> omonimi = perNome.get(p.nome());
+      omonimi.remove(p);
+      if (omonimi.isEmpty()) perNome.remove(p.nome());
+    }
+  }
 
   /**
    * Carica prodotti nei binari (in ordine).
@@ -79,25 +285,150 @@ public class Distributore {
     Objects.requireNonNull(prodotto);
     if (quantita <= 0) throw new IllegalArgumentException("quantità non positiva");
 
+    Eventi.Caricamento evento = new Eventi.Caricamento();
+    evento.begin();
     int rimanenti = quantita;
-    for (Binario bin : binari) {
-      if (rimanenti <= 0) break;
-      if (!bin.accetta(prodotto)) continue;
+    // il prodotto è confrontato con i binari tramite identificativo e ordinale della taglia
+    int id = archivio.id(prodotto);
+    int taglia = prodotto.taglia().ordinal();
+    for (int i = 0, n = binari.length; i < n && rimanenti > 0; i++) {
+      if (archivio.rifiuto(i, id, taglia) != null) continue;
 
-      int spazio = bin.spazioDisponibile();
-      if (spazio <= 0) continue;
+      int daCaricare = Math.min(rimanenti, archivio.capacita(i) - archivio.quantita(i));
+      if (archivio.quantita(i) > 0) {
+        deindicizza(i);
+      } else {
+        if (id < 0) id = archivio.registra(prodotto);
+        consumi.caricamento(i, prodotto, orologio.getAsLong());
+      }
+      archivio.aggiungi(i, id, daCaricare);
+      rimanenti -= daCaricare;
+      occupato(i);
+      indicizza(i);
+    }
+    if (rimanenti < quantita) {
+      notificaCaricamento(prodotto, quantita - rimanenti);
+      if (metriche != null) metriche.caricamento(quantita - rimanenti);
+    } else if (metriche != null) {
+      registraRifiuto(id, taglia);
+    }
+    evento.termina(prodotto, quantita, quantita - rimanenti);
+    return rimanenti;
+  }
 
-      int daCaricare = Math.min(rimanenti, spazio);
-      try {
-        bin.carica(prodotto, daCaricare);
-        rimanenti -= daCaricare;
-      } catch (BinarioException e) {
-        // già verificato, continua
+  /**
+   * Carica più prodotti, con lo stesso effetto di {@link #carica} invocato per ciascuno di essi
+   * nell'ordine di iterazione della mappa.
+   *
+   * <p>Invece di scandire tutti i binari per ogni prodotto, il caricamento divide una volta sola i
+   * binari vuoti per taglia e poi, per ogni prodotto, visita in ordine di indice soltanto i binari
+   * che possono riceverlo: quelli che già lo contengono e hanno spazio e quelli vuoti di taglia
+   * sufficiente. Osservatori, metriche ed eventi ricevono un caricamento per prodotto, come con
+   * {@link #carica}; solo se le metriche sono attive e un prodotto non viene caricato affatto, i
+   * binari sono scanditi tutti per registrarne il motivo.
+   *
+   * @param carichi quantità (positive) da caricare per prodotto
+   * @return per ogni prodotto, nello stesso ordine, il numero di unità non caricate
+   * @throws IllegalArgumentException se una quantità non è positiva (nel qual caso non viene
+   *     caricato nulla)
+   */
+  public Map<Prodotto, Integer> caricaTutti(Map<Prodotto, Integer> carichi) {
+    Objects.requireNonNull(carichi);
+    for (Map.Entry<Prodotto, Integer> e : carichi.entrySet()) {
+      Objects.requireNonNull(e.getKey());
+      if (Objects.requireNonNull(e.getValue()) <= 0)
+        throw new IllegalArgumentException("quantità non positiva: " + e.getKey());
+    }
+
+    // binari vuoti divisi per taglia: un prodotto di taglia t può andare in quelli di taglia >= t
+    BitSet[] vuoti = new BitSet[TAGLIE];
+    for (int t = 0; t < TAGLIE; t++) vuoti[t] = new BitSet(binari.length);
+    for (int i = 0; i < binari.length; i++)
+      if (archivio.quantita(i) == 0) vuoti[archivio.ordinaleTaglia(i)].set(i);
+
+    int[] prossimoVuoto = new int[TAGLIE];
+    Map<Prodotto, Integer> rimasti = new LinkedHashMap<>();
+    for (Map.Entry<Prodotto, Integer> e : carichi.entrySet()) {
+      Prodotto prodotto = e.getKey();
+      int quantita = e.getValue();
+      Eventi.Caricamento evento = new Eventi.Caricamento();
+      evento.begin();
+      int rimanenti = caricaCandidati(prodotto, quantita, vuoti, prossimoVuoto);
+      if (rimanenti < quantita) {
+        notificaCaricamento(prodotto, quantita - rimanenti);
+        if (metriche != null) metriche.caricamento(quantita - rimanenti);
+      } else if (metriche != null) {
+        registraRifiuto(archivio.id(prodotto), prodotto.taglia().ordinal());
+      }
+      evento.termina(prodotto, quantita, quantita - rimanenti);
+      rimasti.put(prodotto, rimanenti);
+    }
+    return rimasti;
+  }
+
+  // carica il prodotto fondendo, in ordine di indice, i binari che lo contengono e hanno spazio
+  // con quelli vuoti di taglia sufficiente (tolti da vuoti man mano che vengono occupati);
+  // prossimoVuoto è lo spazio per il primo binario vuoto ancora da visitare di ogni taglia
+  private int caricaCandidati(
+      Prodotto prodotto, int quantita, BitSet[] vuoti, int[] prossimoVuoto) {
+    int id = archivio.id(prodotto);
+    int taglia = prodotto.taglia().ordinal();
+    int[] propri = conSpazio(prodotto);
+    for (int t = taglia; t < TAGLIE; t++) prossimoVuoto[t] = vuoti[t].nextSetBit(0);
+    int k = 0;
+    int rimanenti = quantita;
+    while (rimanenti > 0) {
+      int i = k < propri.length ? propri[k] : Integer.MAX_VALUE;
+      int daTaglia = -1;
+      for (int t = taglia; t < TAGLIE; t++) {
+        if (prossimoVuoto[t] >= 0 && prossimoVuoto[t] < i) {
+          i = prossimoVuoto[t];
+          daTaglia = t;
+        }
+      }
+      if (i == Integer.MAX_VALUE) break;
+      if (daTaglia < 0) {
+        k++;
+        deindicizza(i);
+      } else {
+        vuoti[daTaglia].clear(i);
+        prossimoVuoto[daTaglia] = vuoti[daTaglia].nextSetBit(i + 1);
+        if (id < 0) id = archivio.registra(prodotto);
+        consumi.caricamento(i, prodotto, orologio.getAsLong());
       }
+      int daCaricare = Math.min(rimanenti, archivio.capacita(i) - archivio.quantita(i));
+      archivio.aggiungi(i, id, daCaricare);
+      rimanenti -= daCaricare;
+      occupato(i);
+      indicizza(i);
     }
     return rimanenti;
   }
 
+  // registra nelle metriche un caricamento rifiutato da tutti i binari con il motivo del binario
+  // più vicino ad accettare il prodotto: pieno dello stesso prodotto, poi della taglia giusta ma
+  // con un altro prodotto, poi troppo piccolo; senza binari non registra nulla
+  private void registraRifiuto(int id, int taglia) {
+    BinarioException.Motivo motivo = null;
+    for (int i = 0; i < binari.length && motivo != BinarioException.Motivo.CAPACITY; i++) {
+      BinarioException.Motivo m = archivio.rifiuto(i, id, taglia);
+      if (motivo == null || m != BinarioException.Motivo.SIZE) motivo = m;
+    }
+    if (motivo != null) metriche.rifiuto(motivo);
+  }
+
+  // indici, in ordine crescente, dei binari che contengono il prodotto e non sono pieni
+  private int[] conSpazio(Prodotto prodotto) {
+    Scorte s = scorte.get(prodotto);
+    if (s == null) return NESSUNO;
+    int[] indici = new int[s.binari.size()];
+    int n = 0;
+    for (int i : s.binari) if (archivio.quantita(i) < archivio.capacita(i)) indici[n++] = i;
+    indici = Arrays.copyOf(indici, n);
+    Arrays.sort(indici);
+    return indici;
+  }
+
   /**
    * Eroga un prodotto dal binario specificato.
    *
@@ -106,19 +437,72 @@ public class Distributore {
    */
   public Aggregato eroga(int indiceBinario, Aggregato pagamento) throws ErogazioneException {
     Objects.requireNonNull(pagamento);
+    long inizio = metriche == null ? 0 : System.nanoTime();
+    Eventi.Erogazione evento = new Eventi.Erogazione();
+    evento.begin();
 
-    if (indiceBinario < 0 || indiceBinario >= binari.size())
-      throw new ErogazioneException(ErogazioneException.Motivo.SLOT);
+    if (indiceBinario < 0 || indiceBinario >= binari.length)
+      throw fallita(
+          evento, inizio, indiceBinario, null, pagamento, ErogazioneException.Motivo.SLOT);
 
-    Binario bin = binari.get(indiceBinario);
+    Binario bin = binari[indiceBinario];
     if (bin.vuoto())
-      throw new ErogazioneException(ErogazioneException.Motivo.EMPTY);
+      throw fallita(
+          evento, inizio, indiceBinario, null, pagamento, ErogazioneException.Motivo.EMPTY);
+
+    return eroga(indiceBinario, bin, pagamento, evento, inizio);
+  }
+
+  /**
+   * Eroga un prodotto scegliendo, secondo la politica del distributore, uno dei binari che lo
+   * contengono; la scelta non richiede di scandire tutti i binari.
+   *
+   * @param prodotto prodotto da erogare
+   * @param pagamento monete inserite
+   * @return aggregato del resto
+   * @throws ErogazioneException se impossibile (EMPTY se nessun binario contiene il prodotto,
+   *     VALUE, CHANGE)
+   */
+  public Aggregato erogaProdotto(Prodotto prodotto, Aggregato pagamento)
+      throws ErogazioneException {
+    Objects.requireNonNull(prodotto);
+    Objects.requireNonNull(pagamento);
+    long inizio = metriche == null ? 0 : System.nanoTime();
+    Eventi.Erogazione evento = new Eventi.Erogazione();
+    evento.begin();
 
-    Importo prezzo = bin.prodotto().prezzo();
+    Scorte s = scorte.get(prodotto);
+    if (s == null)
+      throw fallita(evento, inizio, -1, null, pagamento, ErogazioneException.Motivo.EMPTY);
+    int indice = politica == Politica.PIU_PIENO ? s.binari.last() : s.binari.first();
+    return eroga(indice, binari[indice], pagamento, evento, inizio);
+  }
+
+  // registra l'erogazione non riuscita (iniziata all'istante inizio) nell'evento e nelle metriche
+  // e restituisce l'eccezione da sollevare
+  private ErogazioneException fallita(
+      Eventi.Erogazione evento,
+      long inizio,
+      int indiceBinario,
+      Prodotto prodotto,
+      Aggregato pagamento,
+      ErogazioneException.Motivo motivo) {
+    evento.termina(indiceBinario, prodotto, pagamento, motivo.name());
+    if (metriche != null) metriche.erogazione(motivo, System.nanoTime() - inizio);
+    return new ErogazioneException(motivo);
+  }
+
+  // eroga dal binario bin (non vuoto) di indice indiceBinario
+  private Aggregato eroga(
+      int indiceBinario, Binario bin, Aggregato pagamento, Eventi.Erogazione evento, long inizio)
+      throws ErogazioneException {
+    Prodotto prodotto = bin.prodotto();
+    Importo prezzo = prodotto.prezzo();
     Importo pagato = pagamento.valoreTotale();
 
     if (pagato.minoreDi(prezzo))
-      throw new ErogazioneException(ErogazioneException.Motivo.VALUE);
+      throw fallita(
+          evento, inizio, indiceBinario, prodotto, pagamento, ErogazioneException.Motivo.VALUE);
 
     Importo importoResto = pagato.sottrai(prezzo);
 
@@ -126,31 +510,263 @@ public class Distributore {
     if (importoResto.equals(Importo.ZERO)) {
       resto = new Aggregato();
     } else {
-      Aggregato disponibile = new Aggregato(fondoCassa);
+      Aggregato disponibile = fondoCassa.aggregato();
       disponibile.aggiungi(pagamento);
 
+      Eventi.CalcoloResto calcolo = new Eventi.CalcoloResto();
+      boolean misura = metriche != null || evento.isEnabled();
+      long inizioCalcolo = misura ? System.nanoTime() : 0;
+      calcolo.begin();
       Optional<Aggregato> restoOpt = strategia.calcola(importoResto, disponibile);
+      calcolo.termina(strategia, importoResto, restoOpt);
+      if (misura) {
+        long durata = System.nanoTime() - inizioCalcolo;
+        evento.tempoStrategia = durata;
+        if (metriche != null) metriche.strategia(durata);
+      }
       if (restoOpt.isEmpty())
-        throw new ErogazioneException(ErogazioneException.Motivo.CHANGE);
+        throw fallita(
+            evento, inizio, indiceBinario, prodotto, pagamento, ErogazioneException.Motivo.CHANGE);
       resto = restoOpt.get();
     }
 
     // Esegue transazione
     fondoCassa.aggiungi(pagamento);
-    if (!resto.vuoto()) {
-      try {
-        fondoCassa.rimuovi(resto);
-      } catch (AggregatoInsufficienteException e) {
-        throw new AssertionError(e);
-      }
+    if (!fondoCassa.rimuovi(resto)) throw new AssertionError("resto non disponibile: " + resto);
+    dispensa(indiceBinario, bin);
+    consumi.erogazione(indiceBinario, pagamento, resto, orologio.getAsLong());
+
+    notificaErogazione(indiceBinario, pagamento, resto);
+    evento.termina(indiceBinario, prodotto, pagamento, "OK");
+    if (metriche != null) {
+      metriche.variaFondoCassa(pagamento, 1);
+      metriche.variaFondoCassa(resto, -1);
+      metriche.erogazione(null, System.nanoTime() - inizio);
     }
+    return resto;
+  }
+
+  // toglie un'unità dal binario bin (non vuoto) di indice i, aggiornando gli indici; passa
+  // dall'archivio perché le viste dei binari sono in sola lettura
+  private void dispensa(int i, Binario bin) {
+    deindicizza(i);
     try {
-      bin.dispensa();
+      archivio.dispensa(i);
     } catch (BinarioException e) {
       throw new AssertionError(e);
     }
+    if (bin.vuoto()) {
+      nonVuoti.clear(i);
+      modifiche++;
+    } else {
+      indicizza(i);
+    }
+  }
 
-    return resto;
+  // segna come non vuoto il binario i, appena caricato
+  private void occupato(int i) {
+    if (!nonVuoti.get(i)) {
+      nonVuoti.set(i);
+      modifiche++;
+    }
+  }
+
+  /**
+   * Applica l'effetto di un'erogazione già avvenuta, senza ricalcolare il resto; usato per
+   * ricostruire lo stato da un giornale.
+   *
+   * @param indiceBinario indice di un binario non vuoto
+   * @param pagamento quantità inserite di ciascuna moneta, per ordinale di {@link Moneta}
+   * @param resto quantità restituite di ciascuna moneta, per ordinale di {@link Moneta}
+   * @throws IllegalStateException se il binario è vuoto o il fondo cassa non contiene il resto
+   */
+  void applicaErogazione(int indiceBinario, int[] pagamento, int[] resto) {
+    Binario bin = binari[indiceBinario];
+    if (bin.vuoto()) throw new IllegalStateException("binario " + indiceBinario + " vuoto");
+    Moneta[] monete = Moneta.values();
+    for (int i = 0; i < monete.length; i++)
+      if (fondoCassa.quantita(i) + pagamento[i] < resto[i])
+        throw new IllegalStateException("fondo cassa insufficiente per il resto");
+    for (int i = 0; i < monete.length; i++)
+      fondoCassa.imposta(i, fondoCassa.quantita(i) + pagamento[i] - resto[i]);
+    if (metriche != null)
+      for (int i = 0; i < monete.length; i++)
+        metriche.variaFondoCassa(monete[i], (long) pagamento[i] - resto[i]);
+    dispensa(indiceBinario, bin);
+  }
+
+  // le notifiche seguono operazioni già eseguite: un osservatore che fallisce non deve farle
+  // sembrare non riuscite, per cui la sua eccezione è solo segnalata
+  private void notificaCaricamento(Prodotto prodotto, int caricati) {
+    for (OsservatoreDistributore o : osservatori) {
+      try {
+        o.caricato(prodotto, caricati);
+      } catch (RuntimeException e) {
+        segnala(e);
+      }
+    }
+  }
+
+  private void notificaErogazione(int indiceBinario, Aggregato pagamento, Aggregato resto) {
+    for (OsservatoreDistributore o : osservatori) {
+      try {
+        o.erogato(indiceBinario, pagamento, resto);
+      } catch (RuntimeException e) {
+        segnala(e);
+      }
+    }
+  }
+
+  private static void segnala(RuntimeException e) {
+    Thread t = Thread.currentThread();
+    t.getUncaughtExceptionHandler().uncaughtException(t, e);
+  }
+
+  /**
+   * Registra un osservatore, che riceverà le notifiche delle operazioni successive.
+   *
+   * <p>Le notifiche avvengono dopo che l'operazione è stata eseguita: se un osservatore solleva
+   * un'eccezione, l'operazione resta riuscita, gli altri osservatori ricevono comunque la notifica
+   * e l'eccezione è passata al gestore delle eccezioni non catturate del thread corrente.
+   *
+   * @param osservatore osservatore da registrare
+   */
+  public void aggiungiOsservatore(OsservatoreDistributore osservatore) {
+    Objects.requireNonNull(osservatore);
+    OsservatoreDistributore[] nuovi = Arrays.copyOf(osservatori, osservatori.length + 1);
+    nuovi[osservatori.length] = osservatore;
+    osservatori = nuovi;
+  }
+
+  /**
+   * Toglie un osservatore registrato in precedenza (se registrato più volte, una sola
+   * registrazione); può essere invocato anche dall'osservatore durante una notifica.
+   *
+   * @param osservatore osservatore da togliere
+   * @return true se l'osservatore era registrato
+   */
+  public boolean rimuoviOsservatore(OsservatoreDistributore osservatore) {
+    Objects.requireNonNull(osservatore);
+    for (int i = 0; i < osservatori.length; i++) {
+      if (osservatori[i].equals(osservatore)) {
+        OsservatoreDistributore[] nuovi = new OsservatoreDistributore[osservatori.length - 1];
+        System.arraycopy(osservatori, 0, nuovi, 0, i);
+        System.arraycopy(osservatori, i + 1, nuovi, i, nuovi.length - i);
+        osservatori = nuovi;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Registra le operazioni successive nel registro di metriche indicato, al posto dell'eventuale
+   * registro precedente (da cui il fondo cassa del distributore viene tolto).
+   *
+   * @param metriche registro da usare, o null per non registrare le operazioni
+   */
+  public void usaMetriche(Metriche metriche) {
+    if (this.metriche != null) this.metriche.variaFondoCassa(fondoCassa.aggregato(), -1);
+    this.metriche = metriche;
+    if (metriche != null) metriche.variaFondoCassa(fondoCassa.aggregato(), 1);
+  }
+
+  /**
+   * Restituisce la stima delle unità erogate al secondo dal binario indicato nel passato recente.
+   *
+   * <p>La stima pesa ogni erogazione in modo che il suo contributo si dimezzi ogni mezz'ora; è
+   * aggiornata a ogni erogazione in tempo e memoria costanti e ricomincia da zero quando il
+   * binario, vuoto, è caricato con un prodotto diverso dall'ultimo che ha contenuto.
+   *
+   * @param indiceBinario indice del binario
+   * @return unità al secondo (&gt;= 0)
+   * @throws IndexOutOfBoundsException se l'indice non è valido
+   */
+  public double velocitaErogazione(int indiceBinario) {
+    Objects.checkIndex(indiceBinario, binari.length);
+    return consumi.velocita(indiceBinario, orologio.getAsLong());
+  }
+
+  /**
+   * Restituisce il tempo stimato perché il binario indicato si svuoti, se le erogazioni
+   * continuano alla velocità stimata da {@link #velocitaErogazione}.
+   *
+   * @param indiceBinario indice del binario
+   * @return secondi: 0 se il binario è vuoto, {@link Double#POSITIVE_INFINITY} se non risultano
+   *     erogazioni recenti
+   * @throws IndexOutOfBoundsException se l'indice non è valido
+   */
+  public double secondiAlloSvuotamento(int indiceBinario) {
+    Objects.checkIndex(indiceBinario, binari.length);
+    return StimaConsumi.secondiPer(
+        archivio.quantita(indiceBinario), consumi.velocita(indiceBinario, orologio.getAsLong()));
+  }
+
+  /**
+   * Restituisce il tempo stimato perché il fondo cassa esaurisca la moneta indicata, se resti e
+   * pagamenti continuano come nel passato recente (con la stessa mezza vita di {@link
+   * #velocitaErogazione}).
+   *
+   * @param moneta moneta
+   * @return secondi: 0 se il fondo cassa non contiene la moneta, {@link Double#POSITIVE_INFINITY}
+   *     se la moneta non è uscita più di quanto sia entrata
+   */
+  public double secondiAllEsaurimento(Moneta moneta) {
+    Objects.requireNonNull(moneta);
+    return StimaConsumi.secondiPer(
+        fondoCassa.quantita(moneta), consumi.consumo(moneta, orologio.getAsLong()));
+  }
+
+  /** Restituisce il numero di binari. */
+  int numeroBinari() {
+    return binari.length;
+  }
+
+  /** Restituisce il binario di indice dato (in sola lettura). */
+  Binario binario(int indice) {
+    return binari[indice];
+  }
+
+  /** Restituisce la strategia per il resto. */
+  StrategiaResto strategia() {
+    return strategia;
+  }
+
+  /** Restituisce la politica di erogazione per prodotto. */
+  Politica politica() {
+    return politica;
+  }
+
+  /** Restituisce una copia del fondo cassa. */
+  Aggregato fondoCassa() {
+    return fondoCassa.aggregato();
+  }
+
+  /**
+   * Restituisce il numero di unità del prodotto presenti nel distributore.
+   *
+   * @param prodotto prodotto cercato
+   * @return unità disponibili (0 se il prodotto non è presente)
+   */
+  public int disponibili(Prodotto prodotto) {
+    Objects.requireNonNull(prodotto);
+    Scorte s = scorte.get(prodotto);
+    return s == null ? 0 : s.totale;
+  }
+
+  /**
+   * Cerca un prodotto disponibile con il nome indicato, ad esempio per mostrarne il prezzo.
+   *
+   * <p>Se più prodotti disponibili hanno lo stesso nome (con prezzo o taglia diversi), restituisce
+   * quello caricato per primo tra quelli ancora presenti.
+   *
+   * @param nome nome del prodotto
+   * @return Optional con il prodotto, o empty se nessun prodotto con quel nome è disponibile
+   */
+  public Optional<Prodotto> cerca(String nome) {
+    Objects.requireNonNull(nome);
+    List<Prodotto> omonimi = perNome.get(nome);
+    return omonimi == null ? Optional.empty() : Optional.of(omonimi.get(0));
   }
 
   /** Classe helper per rappresentare un binario con il suo indice. */
@@ -172,19 +788,65 @@ public class Distributore {
     }
   }
 
-  /** Iteratore sui binari non vuoti con il loro indice. */
+  /**
+   * Iteratore sui binari non vuoti con il loro indice, in ordine crescente di indice.
+   *
+   * <p>L'iteratore è calcolato pigramente sull'insieme dei binari non vuoti e restituisce sempre
+   * le stesse istanze di {@link BinarioConIndice} per lo stesso indice. Se durante l'iterazione un
+   * binario si svuota o un binario vuoto viene caricato, l'iteratore è invalidato: le invocazioni
+   * successive di hasNext e next sollevano {@link ConcurrentModificationException}.
+   */
   public Iterator<BinarioConIndice> binariNonVuoti() {
-    List<BinarioConIndice> result = new ArrayList<>();
-    for (int i = 0; i < binari.size(); i++) {
-      if (!binari.get(i).vuoto()) {
-        result.add(new BinarioConIndice(i, binari.get(i)));
+    return new Iterator<>() {
+      private final int attese = modifiche;
+      private int prossimo = nonVuoti.nextSetBit(0);
+
+      @Override
+      public boolean hasNext() {
+        if (modifiche != attese) throw new ConcurrentModificationException();
+        return prossimo >= 0;
+      }
+
+      @Override
+      public BinarioConIndice next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        BinarioConIndice corrente = conIndice[prossimo];
+        prossimo = nonVuoti.nextSetBit(prossimo + 1);
+        return corrente;
       }
+    };
+  }
+
+  /**
+   * Stream (sequenziale) dei binari non vuoti con il loro indice, in ordine crescente di indice.
+   *
+   * <p>Come per {@link #binariNonVuoti}, il distributore non va caricato né usato per erogare
+   * finché lo stream non è stato consumato.
+   *
+   * @return stream pigro sui binari non vuoti
+   */
+  public Stream<BinarioConIndice> streamBinariNonVuoti() {
+    return nonVuoti.stream().mapToObj(i -> conIndice[i]);
+  }
+
+  /**
+   * Applica l'azione a ogni binario non vuoto, in ordine crescente di indice, senza creare
+   * oggetti intermedi.
+   *
+   * @param azione azione che riceve il binario (in sola lettura) e il suo indice
+   * @throws ConcurrentModificationException se l'azione svuota un binario o ne carica uno vuoto
+   */
+  public void forEachNonVuoto(ObjIntConsumer<Binario> azione) {
+    Objects.requireNonNull(azione);
+    int attese = modifiche;
+    for (int i = nonVuoti.nextSetBit(0); i >= 0; i = nonVuoti.nextSetBit(i + 1)) {
+      azione.accept(binari[i], i);
+      if (modifiche != attese) throw new ConcurrentModificationException();
     }
-    return result.iterator();
   }
 
   @Override
   public String toString() {
-    return "Distributore[binari=" + binari.size() + ", fondoCassa=" + fondoCassa.valoreTotale() + "]";
+    return "Distributore[binari=" + binari.length + ", fondoCassa=" + fondoCassa.valoreTotale() + "]";
   }
 }
@@ -0,0 +1,395 @@
+/*
+ * Copyright 2025 Massimo Santini
+ *
+ * This file is part of "Programmazione 2 @ UniMI" teaching material.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this file.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package macchinette;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Interfaccia asincrona a un distributore, con un unico thread scrittore.
+ *
+ * <p>I comandi sono pubblicati da un numero qualsiasi di thread produttori in un buffer circolare
+ * preallocato e sono eseguiti, nell'ordine di pubblicazione, da un solo thread che è l'unico ad
+ * accedere al distributore; per questo il distributore non richiede alcuna sincronizzazione. Il
+ * risultato di ogni comando è restituito tramite un {@link CompletableFuture}. Se il buffer è
+ * pieno, i produttori attendono che lo scrittore liberi spazio; se è vuoto, lo scrittore si
+ * sospende finché un produttore non pubblica un comando.
+ *
+ * <p>I future sono completati dal thread scrittore, che esegue subito, prima di passare al comando
+ * successivo, le azioni dipendenti già registrate con i metodi non Async di {@link
+ * CompletableFuture} (thenApply, whenComplete e simili). Queste azioni devono essere brevi e non
+ * devono bloccarsi: attendere un altro future di questa interfaccia, ad esempio, ferma per sempre
+ * lo scrittore, che è il solo a poterlo completare. Accodare comandi o chiudere l'interfaccia dal
+ * thread scrittore solleva {@link IllegalStateException}, perché con il buffer pieno lo scrittore
+ * attenderebbe se stesso. Le azioni lunghe o bloccanti vanno registrate con le varianti Async.
+ *
+ * <p>Se un comando solleva un {@link Error} (ad esempio {@link OutOfMemoryError}), lo stato del
+ * distributore è incerto: il future del comando è completato eccezionalmente con l'errore,
+ * l'interfaccia si chiude e i comandi ancora in coda sono rifiutati con {@link
+ * IllegalStateException}, così che nessun future resti in sospeso.
+ *
+ * <p><strong>RI:</strong> distributore e anello non sono null; la lunghezza di anello è una
+ * potenza di due e maschera vale anello.length-1; detto r il valore di reclamato senza il bit
+ * CHIUSO, vale consumato &lt; r; per ogni sequenza s con consumato &lt; s &lt; r, il comando s
+ * occupa la cella anello[s &amp; maschera] se pubblicati[s &amp; maschera] vale s, altrimenti è
+ * in fase di scrittura (o attende che la cella si liberi).
+ *
+ * <p><strong>AF:</strong> rappresenta la coda dei comandi con numero di sequenza compreso tra
+ * consumato+1 e r-1, che saranno applicati in ordine al distributore (o rifiutati, se guasto non
+ * è null); se reclamato ha il bit CHIUSO acceso non si accettano nuovi comandi e l'ultimo comando
+ * della coda è FERMA, a meno che l'interfaccia sia stata chiusa per un guasto; inAttesa indica che
+ * lo scrittore è (o sta per essere) sospeso in attesa di un comando.
+ */
+public final class DistributoreAsincrono implements AutoCloseable {
+
+  // tipi di comando
+  private static final int CARICA = 0;
+  private static final int EROGA = 1;
+  private static final int EROGA_PRODOTTO = 2;
+  private static final int INTERROGA = 3;
+  private static final int FERMA = 4;
+
+  // bit di reclamato che indica la chiusura
+  private static final long CHIUSO = 1L << 62;
+
+  // cella preallocata del buffer, riusata per tutti i comandi che vi transitano
+  private static final class Comando {
+    private int tipo;
+    private int intero;
+    private Prodotto prodotto;
+    private Aggregato pagamento;
+    private Runnable interrogazione;
+    private CompletableFuture<Integer> esitoIntero;
+    private CompletableFuture<Aggregato> esitoAggregato;
+    private CompletableFuture<?> esitoInterrogazione;
+
+    private void fallisci(Throwable e) {
+      if (esitoIntero != null) esitoIntero.completeExceptionally(e);
+      if (esitoAggregato != null) esitoAggregato.completeExceptionally(e);
+      if (esitoInterrogazione != null) esitoInterrogazione.completeExceptionally(e);
+    }
+
+    private void svuota() {
+      prodotto = null;
+      pagamento = null;
+      interrogazione = null;
+      esitoIntero = null;
+      esitoAggregato = null;
+      esitoInterrogazione = null;
+    }
+  }
+
+  private final Distributore distributore;
+  private final Comando[] anello;
+  private final int maschera;
+  private final AtomicLongArray pubblicati;
+  private final AtomicLong reclamato = new AtomicLong(0);
+  private final AtomicLong consumato = new AtomicLong(-1);
+  private final Thread scrittore;
+  private volatile boolean inAttesa;
+  private volatile Throwable guasto;
+
+  /**
+   * Crea l'interfaccia asincrona e avvia il thread scrittore.
+   *
+   * <p>Dopo la costruzione il distributore non deve più essere usato direttamente.
+   *
+   * @param distributore distributore da servire
+   * @param capacita numero di celle del buffer, arrotondato alla potenza di due successiva (&gt;
+   *     0)
+   */
+  public DistributoreAsincrono(Distributore distributore, int capacita) {
+    Objects.requireNonNull(distributore);
+    if (capacita <= 0 || capacita > 1 << 30)
+      throw new IllegalArgumentException("capacità non valida: " + capacita);
+    this.distributore = distributore;
+    int n = Integer.highestOneBit(capacita);
+    if (n < capacita) n <<= 1;
+    this.anello = new Comando[n];
+    for (int i = 0; i < n; i++) anello[i] = new Comando();
+    this.maschera = n - 1;
+    this.pubblicati = new AtomicLongArray(n);
+    for (int i = 0; i < n; i++) pubblicati.set(i, -1);
+    this.scrittore = new Thread(this::consuma, "distributore-scrittore");
+    this.scrittore.setDaemon(true);
+    this.scrittore.start();
+  }
+
+  /**
+   * Accoda un caricamento (vedi {@link Distributore#carica}).
+   *
+   * @return future con il numero di prodotti non caricati
+   */
+  public CompletableFuture<Integer> carica(Prodotto prodotto, int quantita) {
+    Objects.requireNonNull(prodotto);
+    if (quantita <= 0) throw new IllegalArgumentException("quantità non positiva");
+    CompletableFuture<Integer> esito = new CompletableFuture<>();
+    long seq = reclama();
+    Comando c = anello[(int) seq & maschera];
+    c.tipo = CARICA;
+    c.prodotto = prodotto;
+    c.intero = quantita;
+    c.esitoIntero = esito;
+    pubblica(seq);
+    return esito;
+  }
+
+  /**
+   * Accoda un'erogazione dal binario indicato (vedi {@link Distributore#eroga}).
+   *
+   * @return future con il resto, completato eccezionalmente con {@link ErogazioneException} se
+   *     l'erogazione è impossibile
+   */
+  public CompletableFuture<Aggregato> eroga(int indiceBinario, Aggregato pagamento) {
+    Objects.requireNonNull(pagamento);
+    CompletableFuture<Aggregato> esito = new CompletableFuture<>();
+    long seq = reclama();
+    Comando c = anello[(int) seq & maschera];
+    c.tipo = EROGA;
+    c.intero = indiceBinario;
+    c.pagamento = pagamento;
+    c.esitoAggregato = esito;
+    pubblica(seq);
+    return esito;
+  }
+
+  /**
+   * Accoda un'erogazione per prodotto (vedi {@link Distributore#erogaProdotto}).
+   *
+   * @return future con il resto, completato eccezionalmente con {@link ErogazioneException} se
+   *     l'erogazione è impossibile
+   */
+  public CompletableFuture<Aggregato> erogaProdotto(Prodotto prodotto, Aggregato pagamento) {
+    Objects.requireNonNull(prodotto);
+    Objects.requireNonNull(pagamento);
+    CompletableFuture<Aggregato> esito = new CompletableFuture<>();
+    long seq = reclama();
+    Comando c = anello[(int) seq & maschera];
+    c.tipo = EROGA_PRODOTTO;
+    c.prodotto = prodotto;
+    c.pagamento = pagamento;
+    c.esitoAggregato = esito;
+    pubblica(seq);
+    return esito;
+  }
+
+  /**
+   * Accoda un'interrogazione del distributore, eseguita dal thread scrittore dopo tutti i comandi
+   * accodati in precedenza.
+   *
+   * <p>La funzione non deve modificare il distributore né conservarne riferimenti.
+   *
+   * @param <T> tipo del risultato
+   * @param interrogazione funzione da applicare al distributore
+   * @return future con il risultato della funzione
+   */
+  public <T> CompletableFuture<T> interroga(
+      Function<? super Distributore, ? extends T> interrogazione) {
+    Objects.requireNonNull(interrogazione);
+    CompletableFuture<T> esito = new CompletableFuture<>();
+    long seq = reclama();
+    Comando c = anello[(int) seq & maschera];
+    c.tipo = INTERROGA;
+    c.interrogazione = () -> esito.complete(interrogazione.apply(distributore));
+    c.esitoInterrogazione = esito;
+    pubblica(seq);
+    return esito;
+  }
+
+  /**
+   * Esegue i comandi già accodati, poi ferma il thread scrittore; i comandi inviati dopo la
+   * chiusura sono rifiutati con {@link IllegalStateException}.
+   */
+  @Override
+  public void close() {
+    ferma(null, null);
+    boolean interrotto = false;
+    while (scrittore.isAlive()) {
+      try {
+        scrittore.join();
+      } catch (InterruptedException e) {
+        interrotto = true;
+      }
+    }
+    if (interrotto) Thread.currentThread().interrupt();
+  }
+
+  /**
+   * Chiude l'interfaccia come {@link #close}, ma senza attendere il thread scrittore, e applica
+   * al distributore un'ultima interrogazione dopo tutti i comandi accettati: nessun comando può
+   * modificare il distributore dopo l'interrogazione, perché quelli inviati dopo la chiusura sono
+   * rifiutati.
+   *
+   * <p>La funzione non deve modificare il distributore né conservarne riferimenti.
+   *
+   * @param <T> tipo del risultato
+   * @param interrogazione funzione da applicare al distributore
+   * @return future con il risultato della funzione, completato eccezionalmente con {@link
+   *     IllegalStateException} se l'interfaccia era già chiusa o si chiude per un guasto
+   */
+  public <T> CompletableFuture<T> chiudi(
+      Function<? super Distributore, ? extends T> interrogazione) {
+    Objects.requireNonNull(interrogazione);
+    CompletableFuture<T> esito = new CompletableFuture<>();
+    if (!ferma(() -> esito.complete(interrogazione.apply(distributore)), esito))
+      esito.completeExceptionally(
+          new IllegalStateException("distributore asincrono chiuso", guasto));
+    return esito;
+  }
+
+  // impedisce nuovi comandi e accoda FERMA, con l'eventuale interrogazione finale; restituisce
+  // false se l'interfaccia era già chiusa
+  private boolean ferma(Runnable interrogazione, CompletableFuture<?> esito) {
+    nonDalloScrittore();
+    long seq;
+    do {
+      seq = reclamato.get();
+    } while ((seq & CHIUSO) == 0 && !reclamato.compareAndSet(seq, (seq + 1) | CHIUSO));
+    if ((seq & CHIUSO) != 0) return false;
+    attendiSpazio(seq);
+    Comando c = anello[(int) seq & maschera];
+    c.tipo = FERMA;
+    c.interrogazione = interrogazione;
+    c.esitoInterrogazione = esito;
+    pubblica(seq);
+    return true;
+  }
+
+  // un'azione dipendente eseguita dallo scrittore non può accodare comandi: se il buffer fosse
+  // pieno, lo scrittore attenderebbe se stesso
+  private void nonDalloScrittore() {
+    if (Thread.currentThread() == scrittore)
+      throw new IllegalStateException("comando accodato dal thread scrittore");
+  }
+
+  // reclama la prossima sequenza, attendendo che la sua cella sia libera
+  private long reclama() {
+    nonDalloScrittore();
+    long seq;
+    do {
+      seq = reclamato.get();
+      if ((seq & CHIUSO) != 0)
+        throw new IllegalStateException("distributore asincrono chiuso", guasto);
+    } while (!reclamato.compareAndSet(seq, seq + 1));
+    attendiSpazio(seq);
+    return seq;
+  }
+
+  // contropressione: la cella di seq è libera quando il comando seq-capacità è stato consumato
+  private void attendiSpazio(long seq) {
+    long limite = seq - anello.length;
+    for (int tentativi = 0; consumato.get() < limite; tentativi++) attendi(tentativi);
+  }
+
+  // la pubblicazione precede la lettura di inAttesa, come in attendiPubblicazione il contrario:
+  // se lo scrittore si sta sospendendo, almeno uno dei due vede la scrittura dell'altro
+  private void pubblica(long seq) {
+    pubblicati.set((int) seq & maschera, seq);
+    if (inAttesa) LockSupport.unpark(scrittore);
+  }
+
+  // attesa progressiva: prima attiva, poi cedendo il processore, infine sospendendosi
+  private static void attendi(int tentativi) {
+    if (tentativi < 100) Thread.onSpinWait();
+    else if (tentativi < 200) Thread.yield();
+    else LockSupport.parkNanos(10_000);
+  }
+
+  // attende che il comando seq sia pubblicato: prima attivamente, poi sospendendosi finché un
+  // produttore non lo risveglia
+  private void attendiPubblicazione(long seq) {
+    int cella = (int) seq & maschera;
+    for (int tentativi = 0; pubblicati.get(cella) != seq; tentativi++) {
+      if (tentativi < 200) {
+        attendi(tentativi);
+      } else {
+        inAttesa = true;
+        if (pubblicati.get(cella) != seq) LockSupport.park(this);
+        inAttesa = false;
+      }
+    }
+  }
+
+  // ciclo del thread scrittore: consuma a lotti tutti i comandi pubblicati consecutivamente; dopo
+  // un guasto rifiuta i comandi reclamati prima della chiusura e termina
+  private void consuma() {
+    long prossimo = 0;
+    long fine = Long.MAX_VALUE;
+    while (prossimo < fine) {
+      attendiPubblicazione(prossimo);
+      long ultimo = prossimo;
+      while (pubblicati.get((int) (ultimo + 1) & maschera) == ultimo + 1) ultimo++;
+      boolean ferma = false;
+      for (long s = prossimo; s <= ultimo; s++) {
+        Comando c = anello[(int) s & maschera];
+        ferma |= guasto == null ? esegui(c) : rifiuta(c);
+        if (guasto != null && fine == Long.MAX_VALUE) fine = chiudiPerGuasto();
+      }
+      consumato.set(ultimo);
+      if (ferma) return;
+      prossimo = ultimo + 1;
+    }
+  }
+
+  // impedisce nuovi comandi e restituisce la prima sequenza non reclamata
+  private long chiudiPerGuasto() {
+    long seq;
+    do {
+      seq = reclamato.get();
+    } while ((seq & CHIUSO) == 0 && !reclamato.compareAndSet(seq, seq | CHIUSO));
+    return seq & ~CHIUSO;
+  }
+
+  // esegue un comando e ne libera la cella; restituisce true se il comando è FERMA
+  private boolean esegui(Comando c) {
+    try {
+      switch (c.tipo) {
+        case CARICA -> c.esitoIntero.complete(distributore.carica(c.prodotto, c.intero));
+        case EROGA -> c.esitoAggregato.complete(distributore.eroga(c.intero, c.pagamento));
+        case EROGA_PRODOTTO ->
+            c.esitoAggregato.complete(distributore.erogaProdotto(c.prodotto, c.pagamento));
+        case INTERROGA -> c.interrogazione.run();
+        default -> {
+          // FERMA, con l'eventuale interrogazione finale
+          if (c.interrogazione != null) c.interrogazione.run();
+        }
+      }
+    } catch (ErogazioneException | RuntimeException e) {
+      c.fallisci(e);
+    } catch (Throwable e) {
+      c.fallisci(e);
+      guasto = e;
+    } finally {
+      c.svuota();
+    }
+    return c.tipo == FERMA;
+  }
+
+  // rifiuta un comando dopo un guasto e ne libera la cella; restituisce true se è FERMA
+  private boolean rifiuta(Comando c) {
+    c.fallisci(new IllegalStateException("distributore asincrono guasto", guasto));
+    c.svuota();
+    return c.tipo == FERMA;
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2025 Massimo Santini
+ *
+ * This file is part of "Programmazione 2 @ UniMI" teaching material.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this file.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package macchinette;
+
+import java.util.Map;
+import java.util.Optional;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Eventi di Java Flight Recorder emessi dal distributore.
+ *
+ * <p>Gli eventi si abilitano e si filtrano per durata con il profilo {@code macchinette.jfc} (tra
+ * le risorse), ad esempio con {@code
+ * -XX:StartFlightRecording:settings=default,settings=macchinette.jfc,filename=registrazione.jfr}.
+ * Quando nessuna registrazione li abilita, {@link Event#shouldCommit()} è falso e i campi non
+ * vengono nemmeno calcolati: il costo si riduce a una verifica per operazione.
+ *
+ * <p><strong>RI:</strong> classe di utilità non istanziabile, senza stato.
+ *
+ * <p><strong>AF:</strong> non rappresenta alcun valore; raccoglie le classi degli eventi.
+ */
+final class Eventi {
+
+  private Eventi() {}
+
+  /** Erogazione, riuscita o meno, da un binario del distributore. */
+  @Name("macchinette.Erogazione")
+  @Label("Erogazione")
+  @Category("Macchinette")
+  @Threshold("20 us")
+  @StackTrace(false)
+  static final class Erogazione extends Event {
+
+    @Label("Binario")
+    @Description("Indice del binario, -1 se non è stato individuato")
+    int binario;
+
+    @Label("Prodotto")
+    String prodotto;
+
+    @Label("Prezzo")
+    @Description("Prezzo del prodotto in centesimi")
+    int prezzo;
+
+    @Label("Pagamento")
+    @Description("Valore del pagamento in centesimi")
+    int pagamento;
+
+    @Label("Esito")
+    @Description("OK o il motivo per cui l'erogazione non è riuscita")
+    String esito;
+
+    @Label("Tempo della strategia")
+    @Timespan(Timespan.NANOSECONDS)
+    long tempoStrategia;
+
+    /** Completa e registra l'evento, se va registrato. */
+    void termina(int binario, Prodotto prodotto, Aggregato pagamento, String esito) {
+      end();
+      if (!shouldCommit()) return;
+      this.binario = binario;
+      if (prodotto != null) {
+        this.prodotto = prodotto.nome();
+        this.prezzo = prodotto.prezzo().inCentesimi();
+      }
+      this.pagamento = pagamento.valoreTotale().inCentesimi();
+      this.esito = esito;
+      commit();
+    }
+  }
+
+  /** Caricamento di un prodotto nel distributore. */
+  @Name("macchinette.Caricamento")
+  @Label("Caricamento")
+  @Category("Macchinette")
+  @Threshold("20 us")
+  @StackTrace(false)
+  static final class Caricamento extends Event {
+
+    @Label("Prodotto")
+    String prodotto;
+
+    @Label("Richiesti")
+    int richiesti;
+
+    @Label("Caricati")
+    int caricati;
+
+    /** Completa e registra l'evento, se va registrato. */
+    void termina(Prodotto prodotto, int richiesti, int caricati) {
+      end();
+      if (!shouldCommit()) return;
+      this.prodotto = prodotto.nome();
+      this.richiesti = richiesti;
+      this.caricati = caricati;
+      commit();
+    }
+  }
+
+  /** Calcolo del resto da parte della strategia del distributore. */
+  @Name("macchinette.CalcoloResto")
+  @Label("Calcolo del resto")
+  @Category("Macchinette")
+  @Threshold("10 us")
+  @StackTrace(false)
+  static final class CalcoloResto extends Event {
+
+    @Label("Strategia")
+    String strategia;
+
+    @Label("Importo")
+    @Description("Resto richiesto in centesimi")
+    int importo;
+
+    @Label("Monete")
+    @Description("Numero di monete restituite")
+    int monete;
+
+    @Label("Riuscito")
+    boolean riuscito;
+
+    /** Completa e registra l'evento, se va registrato. */
+    void termina(StrategiaResto strategia, Importo importo, Optional<Aggregato> resto) {
+      end();
+      if (!shouldCommit()) return;
+      this.strategia = strategia.toString();
+      this.importo = importo.inCentesimi();
+      this.riuscito = resto.isPresent();
+      if (riuscito) for (Map.Entry<Moneta, Integer> e : resto.get()) monete += e.getValue();
+      commit();
+    }
+  }
+}
@@ -0,0 +1,584 @@
+/*
+ * Copyright 2025 Massimo Santini
+ *
+ * This file is part of "Programmazione 2 @ UniMI" teaching material.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this file.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package macchinette;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemoryLayout.PathElement;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Stato di una flotta di distributori tenuto fuori dallo heap, in un {@link MemorySegment}
+ * eventualmente mappato su un file.
+ *
+ * <p>Tutti i distributori della flotta hanno lo stesso numero di binari. Il segmento contiene
+ * un'intestazione (magia, versione, numero di distributori, di binari per distributore e di
+ * prodotti, massimo numero di prodotti, politica), la tabella dei prodotti, con record di
+ * lunghezza fissa (prezzo in centesimi, taglia e nome UTF-8 di al più {@value #MAX_NOME} byte),
+ * e, per ogni distributore, le quantità delle monete del fondo cassa seguite dai binari
+ * (capacità, quantità, indice del prodotto nella tabella o -1, taglia) e dalle stime dei consumi
+ * (i contatori e gli istanti di {@link StimaConsumi}, a 64 bit). Ai campi si accede
+ * tramite {@link VarHandle} ricavati dai layout; sullo heap restano solo la flotta e un catalogo
+ * dei prodotti.
+ *
+ * <p>{@link #distributore} restituisce un {@link Distributore} che opera direttamente sul segmento:
+ * binari e fondo cassa sono letti e scritti nella flotta, senza copie sullo heap. Le viste si
+ * creano quando servono (la creazione costa una scansione dei binari del distributore) e non vanno
+ * tenute tutte in memoria; per ciascun distributore della flotta va usata una vista alla volta, da
+ * un thread alla volta, mentre viste su distributori diversi possono essere usate in parallelo.
+ * Anche le stime dei consumi stanno nel segmento, così che una vista nuova prosegua quelle delle
+ * viste precedenti; poiché gli istanti di {@link System#nanoTime} non sono confrontabili tra
+ * processi diversi, le stime ricominciano da zero quando la flotta è riaperta.
+ *
+ * <p>Se la flotta è mappata su un file, lo stato sopravvive alla chiusura e si riapre con {@link
+ * #apri}; {@link #forza} e {@link #close} ne garantiscono la scrittura su disco. Dopo la chiusura,
+ * la flotta e le sue viste non vanno più usate.
+ *
+ * <p><strong>RI:</strong> arena, segmento, politica e catalogo non sono null; macchine, binari e
+ * maxProdotti sono positivi; segmento ha dimensione dimensione(macchine, binari, maxProdotti) e
+ * contiene un'intestazione coerente con i campi; catalogo.dimensione() è il numero di prodotti
+ * dell'intestazione (al più maxProdotti) e catalogo.prodotto(k) è il prodotto del record k della
+ * tabella; nel segmento, ogni binario rispetta gli invarianti di {@link ArchivioBinari}, con gli
+ * identificativi del catalogo.
+ *
+ * <p><strong>AF:</strong> rappresenta i distributori di indice da 0 a macchine - 1, il cui fondo
+ * cassa e i cui binari sono quelli memorizzati nel segmento all'inizio della rispettiva regione.
+ */
+public final class FlottaFuoriHeap implements AutoCloseable {
+
+  private static final int MAGIA = 0x4D464C54;
+  private static final int VERSIONE = 2;
+
+  /** Lunghezza massima in byte del nome UTF-8 di un prodotto. */
+  public static final int MAX_NOME = 56;
+
+  private static final Moneta[] MONETE = Moneta.values();
+  private static final Taglia[] TAGLIE = Taglia.values();
+
+  private static final StructLayout INTESTAZIONE =
+      MemoryLayout.structLayout(
+          ValueLayout.JAVA_INT.withName("magia"),
+          ValueLayout.JAVA_INT.withName("versione"),
+          ValueLayout.JAVA_INT.withName("macchine"),
+          ValueLayout.JAVA_INT.withName("binari"),
+          ValueLayout.JAVA_INT.withName("maxProdotti"),
+          ValueLayout.JAVA_INT.withName("prodotti"),
+          ValueLayout.JAVA_INT.withName("politica"),
+          MemoryLayout.paddingLayout(36));
+
+  private static final StructLayout PRODOTTO =
+      MemoryLayout.structLayout(
+          ValueLayout.JAVA_INT.withName("prezzo"),
+          ValueLayout.JAVA_SHORT.withName("lunghezza"),
+          ValueLayout.JAVA_BYTE.withName("taglia"),
+          MemoryLayout.paddingLayout(1),
+          MemoryLayout.sequenceLayout(MAX_NOME, ValueLayout.JAVA_BYTE).withName("nome"));
+
+  private static final StructLayout BINARIO =
+      MemoryLayout.structLayout(
+          ValueLayout.JAVA_INT.withName("capacita"),
+          ValueLayout.JAVA_INT.withName("quantita"),
+          ValueLayout.JAVA_INT.withName("prodotto"),
+          ValueLayout.JAVA_BYTE.withName("taglia"),
+          MemoryLayout.paddingLayout(3));
+
+  private static final VarHandle INTESTAZIONE_MAGIA = campo(INTESTAZIONE, "magia");
+  private static final VarHandle INTESTAZIONE_VERSIONE = campo(INTESTAZIONE, "versione");
+  private static final VarHandle INTESTAZIONE_MACCHINE = campo(INTESTAZIONE, "macchine");
+  private static final VarHandle INTESTAZIONE_BINARI = campo(INTESTAZIONE, "binari");
+  private static final VarHandle INTESTAZIONE_MAX_PRODOTTI = campo(INTESTAZIONE, "maxProdotti");
+  private static final VarHandle INTESTAZIONE_PRODOTTI = campo(INTESTAZIONE, "prodotti");
+  private static final VarHandle INTESTAZIONE_POLITICA = campo(INTESTAZIONE, "politica");
+  private static final VarHandle PRODOTTO_PREZZO = campo(PRODOTTO, "prezzo");
+  private static final VarHandle PRODOTTO_LUNGHEZZA = campo(PRODOTTO, "lunghezza");
+  private static final VarHandle PRODOTTO_TAGLIA = campo(PRODOTTO, "taglia");
+  private static final long PRODOTTO_NOME = PRODOTTO.byteOffset(PathElement.groupElement("nome"));
+  private static final VarHandle BINARIO_CAPACITA = campo(BINARIO, "capacita");
+  private static final VarHandle BINARIO_QUANTITA = campo(BINARIO, "quantita");
+  private static final VarHandle BINARIO_PRODOTTO = campo(BINARIO, "prodotto");
+  private static final VarHandle BINARIO_TAGLIA = campo(BINARIO, "taglia");
+  private static final VarHandle MONETA = ValueLayout.JAVA_INT.varHandle();
+  private static final VarHandle REALE = ValueLayout.JAVA_DOUBLE.varHandle();
+  private static final VarHandle ISTANTE = ValueLayout.JAVA_LONG.varHandle();
+
+  private static final long DIM_FONDO = MONETE.length * ValueLayout.JAVA_INT.byteSize();
+
+  private final Arena arena;
+  private final MemorySegment segmento;
+  private final boolean mappato;
+  private final int macchine;
+  private final int binari;
+  private final int maxProdotti;
+  private final Distributore.Politica politica;
+  private final Catalogo catalogo = new Catalogo();
+
+  private FlottaFuoriHeap(
+      Arena arena,
+      MemorySegment segmento,
+      boolean mappato,
+      int macchine,
+      int binari,
+      int maxProdotti,
+      Distributore.Politica politica) {
+    this.arena = arena;
+    this.segmento = segmento;
+    this.mappato = mappato;
+    this.macchine = macchine;
+    this.binari = binari;
+    this.maxProdotti = maxProdotti;
+    this.politica = politica;
+  }
+
+  // var handle di un campo di una struttura, con coordinate (segmento, posizione della struttura)
+  private static VarHandle campo(StructLayout layout, String nome) {
+    return layout.varHandle(PathElement.groupElement(nome));
+  }
+
+  // fondo cassa e binari occupano un multiplo di 8 byte: le stime, che li seguono, sono allineate
+  private static long dimensioneMacchina(int binari) {
+    return DIM_FONDO
+        + binari * BINARIO.byteSize()
+        + (StimaConsumi.reali(binari) + StimaConsumi.istanti(binari)) * Long.BYTES;
+  }
+
+  private static long dimensione(int macchine, int binari, int maxProdotti) {
+    return INTESTAZIONE.byteSize()
+        + maxProdotti * PRODOTTO.byteSize()
+        + macchine * dimensioneMacchina(binari);
+  }
+
+  // posizione della regione del distributore indicato (fondo cassa, poi binari)
+  private long macchina(int macchina) {
+    if (macchina < 0 || macchina >= macchine)
+      throw new IllegalArgumentException("distributore inesistente: " + macchina);
+    return INTESTAZIONE.byteSize()
+        + maxProdotti * PRODOTTO.byteSize()
+        + macchina * dimensioneMacchina(binari);
+  }
+
+  /**
+   * Crea una flotta di distributori uguali, ciascuno con una copia dei binari e del fondo cassa
+   * indicati.
+   *
+   * @param file file su cui mappare la flotta (sostituito se esiste), o null per tenerla in
+   *     memoria
+   * @param macchine numero di distributori (&gt; 0)
+   * @param binari binari di ciascun distributore (non vuota)
+   * @param fondoCassa fondo cassa iniziale di ciascun distributore
+   * @param politica politica di scelta del binario nell'erogazione per prodotto
+   * @param maxProdotti numero massimo di prodotti distinti caricabili nella flotta (&gt; 0)
+   * @return la flotta
+   * @throws IllegalArgumentException se un numero non è positivo, i binari sono vuoti o un
+   *     prodotto dei binari ha un nome troppo lungo
+   * @throws IOException se il file non può essere creato o mappato
+   */
+  public static FlottaFuoriHeap crea(
+      Path file,
+      int macchine,
+      List<Binario> binari,
+      Aggregato fondoCassa,
+      Distributore.Politica politica,
+      int maxProdotti)
+      throws IOException {
+    Objects.requireNonNull(binari);
+    Objects.requireNonNull(fondoCassa);
+    Objects.requireNonNull(politica);
+    if (macchine <= 0) throw new IllegalArgumentException("distributori non positivi");
+    if (maxProdotti <= 0) throw new IllegalArgumentException("prodotti non positivi");
+    if (binari.isEmpty()) throw new IllegalArgumentException("binari vuoti");
+    for (int i = 0; i < binari.size(); i++)
+      if (binari.get(i) == null) throw new NullPointerException("binario " + i + " null");
+
+    long dimensione = dimensione(macchine, binari.size(), maxProdotti);
+    Arena arena = Arena.ofShared();
+    try {
+      MemorySegment segmento;
+      if (file == null) {
+        segmento = arena.allocate(dimensione, Long.BYTES);
+      } else {
+        try (FileChannel canale =
+            FileChannel.open(
+                file,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+          segmento = canale.map(FileChannel.MapMode.READ_WRITE, 0, dimensione, arena);
+        }
+      }
+      FlottaFuoriHeap flotta =
+          new FlottaFuoriHeap(
+              arena, segmento, file != null, macchine, binari.size(), maxProdotti, politica);
+      flotta.inizializza(binari, fondoCassa);
+      return flotta;
+    } catch (IOException | RuntimeException e) {
+      arena.close();
+      throw e;
+    }
+  }
+
+  // scrive l'intestazione, poi il primo distributore e infine lo copia negli altri
+  private void inizializza(List<Binario> modello, Aggregato fondoCassa) {
+    INTESTAZIONE_MAGIA.set(segmento, 0L, MAGIA);
+    INTESTAZIONE_VERSIONE.set(segmento, 0L, VERSIONE);
+    INTESTAZIONE_MACCHINE.set(segmento, 0L, macchine);
+    INTESTAZIONE_BINARI.set(segmento, 0L, binari);
+    INTESTAZIONE_MAX_PRODOTTI.set(segmento, 0L, maxProdotti);
+    INTESTAZIONE_PRODOTTI.set(segmento, 0L, 0);
+    INTESTAZIONE_POLITICA.set(segmento, 0L, politica.ordinal());
+
+    long primo = macchina(0);
+    for (Moneta m : MONETE)
+      MONETA.set(segmento, primo + m.ordinal() * Integer.BYTES, fondoCassa.quantita(m));
+    for (int i = 0; i < binari; i++) {
+      Binario b = modello.get(i);
+      long p = primo + DIM_FONDO + i * BINARIO.byteSize();
+      BINARIO_CAPACITA.set(segmento, p, b.capacita());
+      BINARIO_QUANTITA.set(segmento, p, b.quantita());
+      BINARIO_PRODOTTO.set(segmento, p, b.vuoto() ? -1 : registra(b.prodotto()));
+      BINARIO_TAGLIA.set(segmento, p, (byte) b.taglia().ordinal());
+    }
+    new Stima(primo).azzera(System.nanoTime());
+    long dim = dimensioneMacchina(binari);
+    for (int k = 1; k < macchine; k++)
+      MemorySegment.copy(segmento, primo, segmento, macchina(k), dim);
+  }
+
+  /**
+   * Riapre una flotta mappata su file.
+   *
+   * @param file file della flotta
+   * @return la flotta, con lo stato salvato nel file
+   * @throws IOException se il file non può essere letto o non contiene una flotta valida
+   */
+  public static FlottaFuoriHeap apri(Path file) throws IOException {
+    Objects.requireNonNull(file);
+    Arena arena = Arena.ofShared();
+    try {
+      MemorySegment segmento;
+      try (FileChannel canale =
+          FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        if (canale.size() < INTESTAZIONE.byteSize())
+          throw new IOException("dimensione non valida: " + file);
+        segmento = canale.map(FileChannel.MapMode.READ_WRITE, 0, canale.size(), arena);
+      }
+      if ((int) INTESTAZIONE_MAGIA.get(segmento, 0L) != MAGIA)
+        throw new IOException("non è una flotta: " + file);
+      if ((int) INTESTAZIONE_VERSIONE.get(segmento, 0L) != VERSIONE)
+        throw new IOException("versione non supportata: " + file);
+      int macchine = (int) INTESTAZIONE_MACCHINE.get(segmento, 0L);
+      int binari = (int) INTESTAZIONE_BINARI.get(segmento, 0L);
+      int maxProdotti = (int) INTESTAZIONE_MAX_PRODOTTI.get(segmento, 0L);
+      int prodotti = (int) INTESTAZIONE_PRODOTTI.get(segmento, 0L);
+      int politica = (int) INTESTAZIONE_POLITICA.get(segmento, 0L);
+      if (macchine <= 0
+          || binari <= 0
+          || maxProdotti <= 0
+          || prodotti < 0
+          || prodotti > maxProdotti
+          || politica < 0
+          || politica >= Distributore.Politica.values().length
+          || segmento.byteSize() != dimensione(macchine, binari, maxProdotti))
+        throw new IOException("intestazione non valida: " + file);
+
+      FlottaFuoriHeap flotta =
+          new FlottaFuoriHeap(
+              arena,
+              segmento,
+              true,
+              macchine,
+              binari,
+              maxProdotti,
+              Distributore.Politica.values()[politica]);
+      for (int k = 0; k < prodotti; k++)
+        if (flotta.catalogo.registra(flotta.leggiProdotto(k)) != k)
+          throw new IOException("prodotto ripetuto: " + file);
+      if (!flotta.verifica()) throw new IOException("binari non validi: " + file);
+      long adesso = System.nanoTime();
+      for (int k = 0; k < macchine; k++) flotta.new Stima(flotta.macchina(k)).azzera(adesso);
+      return flotta;
+    } catch (IOException | RuntimeException e) {
+      arena.close();
+      throw e instanceof IOException io ? io : new IOException("flotta non valida: " + file, e);
+    }
+  }
+
+  private Prodotto leggiProdotto(int k) {
+    long p = INTESTAZIONE.byteSize() + k * PRODOTTO.byteSize();
+    int centesimi = (int) PRODOTTO_PREZZO.get(segmento, p);
+    short lunghezza = (short) PRODOTTO_LUNGHEZZA.get(segmento, p);
+    byte taglia = (byte) PRODOTTO_TAGLIA.get(segmento, p);
+    if (centesimi < 0 || lunghezza <= 0 || lunghezza > MAX_NOME || taglia < 0 || taglia >= 3)
+      throw new IllegalArgumentException("prodotto " + k + " non valido");
+    byte[] nome = segmento.asSlice(p + PRODOTTO_NOME, lunghezza).toArray(ValueLayout.JAVA_BYTE);
+    return new Prodotto(
+        new String(nome, StandardCharsets.UTF_8),
+        new Importo(centesimi / 100, centesimi % 100),
+        TAGLIE[taglia]);
+  }
+
+  // verifica gli invarianti dei binari e del fondo cassa di tutti i distributori
+  private boolean verifica() {
+    int prodotti = catalogo.dimensione();
+    for (int k = 0; k < macchine; k++) {
+      long inizio = macchina(k);
+      for (Moneta m : MONETE)
+        if ((int) MONETA.get(segmento, inizio + m.ordinal() * Integer.BYTES) < 0) return false;
+      for (int i = 0; i < binari; i++) {
+        long p = inizio + DIM_FONDO + i * BINARIO.byteSize();
+        int capacita = (int) BINARIO_CAPACITA.get(segmento, p);
+        int quantita = (int) BINARIO_QUANTITA.get(segmento, p);
+        int id = (int) BINARIO_PRODOTTO.get(segmento, p);
+        byte taglia = (byte) BINARIO_TAGLIA.get(segmento, p);
+        if (capacita <= 0 || quantita < 0 || quantita > capacita) return false;
+        if (taglia < 0 || taglia >= TAGLIE.length) return false;
+        if (quantita == 0 ? id != -1 : id < 0 || id >= prodotti) return false;
+        if (quantita > 0 && catalogo.prodotto(id).taglia().ordinal() > taglia) return false;
+      }
+    }
+    return true;
+  }
+
+  // aggiunge il prodotto alla tabella, se non c'è, e ne restituisce l'indice
+  private synchronized int registra(Prodotto prodotto) {
+    int id = catalogo.id(prodotto);
+    if (id >= 0) return id;
+    int n = catalogo.dimensione();
+    if (n == maxProdotti) throw new IllegalStateException("tabella dei prodotti piena");
+    byte[] nome = prodotto.nome().getBytes(StandardCharsets.UTF_8);
+    if (nome.length > MAX_NOME)
+      throw new IllegalArgumentException("nome troppo lungo: " + prodotto.nome());
+    long p = INTESTAZIONE.byteSize() + n * PRODOTTO.byteSize();
+    PRODOTTO_PREZZO.set(segmento, p, prodotto.prezzo().inCentesimi());
+    PRODOTTO_LUNGHEZZA.set(segmento, p, (short) nome.length);
+    PRODOTTO_TAGLIA.set(segmento, p, (byte) prodotto.taglia().ordinal());
+    MemorySegment.copy(MemorySegment.ofArray(nome), 0, segmento, p + PRODOTTO_NOME, nome.length);
+    // il record è completo prima di essere contato nell'intestazione
+    INTESTAZIONE_PRODOTTI.set(segmento, 0L, n + 1);
+    return catalogo.registra(prodotto);
+  }
+
+  /** Restituisce il numero di distributori della flotta. */
+  public int macchine() {
+    return macchine;
+  }
+
+  /** Restituisce il numero di binari di ciascun distributore. */
+  public int binariPerMacchina() {
+    return binari;
+  }
+
+  /** Restituisce il numero di prodotti distinti caricati finora nella flotta. */
+  public int prodotti() {
+    return catalogo.dimensione();
+  }
+
+  /**
+   * Restituisce una vista sul distributore indicato: le sue operazioni leggono e modificano lo
+   * stato nella flotta.
+   *
+   * <p>Caricare un prodotto nuovo quando la tabella dei prodotti è piena solleva {@link
+   * IllegalStateException}; caricarne uno con un nome più lungo di {@value #MAX_NOME} byte solleva
+   * {@link IllegalArgumentException}. In entrambi i casi il distributore resta invariato.
+   *
+   * @param macchina indice del distributore
+   * @param strategia strategia per il resto
+   * @return la vista
+   * @throws IllegalArgumentException se il distributore non esiste
+   */
+  public Distributore distributore(int macchina, StrategiaResto strategia) {
+    Objects.requireNonNull(strategia);
+    long inizio = macchina(macchina);
+    return new Distributore(
+        new Archivio(inizio + DIM_FONDO),
+        new Fondo(inizio),
+        strategia,
+        politica,
+        new Stima(inizio),
+        System::nanoTime);
+  }
+
+  /** Forza la scrittura su disco dello stato, se la flotta è mappata su file. */
+  public void forza() {
+    if (mappato) segmento.force();
+  }
+
+  /** Scrive lo stato su disco, se la flotta è mappata su file, e rilascia la memoria. */
+  @Override
+  public void close() {
+    try {
+      forza();
+    } finally {
+      arena.close();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "FlottaFuoriHeap[macchine="
+        + macchine
+        + ", binari="
+        + binari
+        + ", prodotti="
+        + catalogo.dimensione()
+        + ", byte="
+        + segmento.byteSize()
+        + "]";
+  }
+
+  /** Fondo cassa di un distributore della flotta, letto e scritto direttamente nel segmento. */
+  private final class Fondo extends FondoCassa {
+
+    private final long inizio;
+
+    /** Crea il fondo cassa che inizia alla posizione indicata del segmento. */
+    Fondo(long inizio) {
+      this.inizio = inizio;
+    }
+
+    private long moneta(int m) {
+      return inizio + Objects.checkIndex(m, MONETE.length) * ValueLayout.JAVA_INT.byteSize();
+    }
+
+    @Override
+    int quantita(int m) {
+      return (int) MONETA.get(segmento, moneta(m));
+    }
+
+    @Override
+    void imposta(int m, int quantita) {
+      MONETA.set(segmento, moneta(m), quantita);
+    }
+  }
+
+  /** Stime dei consumi di un distributore della flotta, lette e scritte nel segmento. */
+  private final class Stima extends StimaConsumi {
+
+    private final long contatori;
+    private final long tempi;
+
+    /** Crea le stime del distributore la cui regione inizia alla posizione indicata. */
+    Stima(long inizio) {
+      super(binari, MEZZA_VITA);
+      this.contatori = inizio + DIM_FONDO + binari * BINARIO.byteSize();
+      this.tempi = contatori + reali(binari) * Long.BYTES;
+    }
+
+    private long contatore(int k) {
+      return contatori + Objects.checkIndex(k, reali(binari)) * Long.BYTES;
+    }
+
+    private long tempo(int k) {
+      return tempi + Objects.checkIndex(k, istanti(binari)) * Long.BYTES;
+    }
+
+    @Override
+    double reale(int k) {
+      return (double) REALE.get(segmento, contatore(k));
+    }
+
+    @Override
+    void reale(int k, double x) {
+      REALE.set(segmento, contatore(k), x);
+    }
+
+    @Override
+    long istante(int k) {
+      return (long) ISTANTE.get(segmento, tempo(k));
+    }
+
+    @Override
+    void istante(int k, long t) {
+      ISTANTE.set(segmento, tempo(k), t);
+    }
+  }
+
+  /** Binari di un distributore della flotta, letti e scritti direttamente nel segmento. */
+  private final class Archivio extends ArchivioBinari {
+
+    private final long inizio;
+
+    /** Crea l'archivio dei binari che iniziano alla posizione indicata del segmento. */
+    Archivio(long inizio) {
+      this.inizio = inizio;
+    }
+
+    private long binario(int i) {
+      return inizio + Objects.checkIndex(i, binari) * BINARIO.byteSize();
+    }
+
+    @Override
+    int numero() {
+      return binari;
+    }
+
+    @Override
+    int ordinaleTaglia(int i) {
+      return (byte) BINARIO_TAGLIA.get(segmento, binario(i));
+    }
+
+    @Override
+    int capacita(int i) {
+      return (int) BINARIO_CAPACITA.get(segmento, binario(i));
+    }
+
+    @Override
+    int quantita(int i) {
+      return (int) BINARIO_QUANTITA.get(segmento, binario(i));
+    }
+
+    @Override
+    int idProdotto(int i) {
+      return (int) BINARIO_PRODOTTO.get(segmento, binario(i));
+    }
+
+    @Override
+    void imposta(int i, int id, int quantita) {
+      long p = binario(i);
+      BINARIO_PRODOTTO.set(segmento, p, id);
+      BINARIO_QUANTITA.set(segmento, p, quantita);
+    }
+
+    @Override
+    int id(Prodotto p) {
+      return catalogo.id(p);
+    }
+
+    @Override
+    int registra(Prodotto p) {
+      return FlottaFuoriHeap.this.registra(p);
+    }
+
+    @Override
+    Prodotto prodottoConId(int id) {
+      return catalogo.prodotto(id);
+    }
+  }
+}
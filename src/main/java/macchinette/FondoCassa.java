@@ -0,0 +1,118 @@
+/*
+ * Copyright 2025 Massimo Santini
+ *
+ * This file is part of "Programmazione 2 @ UniMI" teaching material.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this file.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package macchinette;
+
+import java.util.Objects;
+
+/**
+ * Quantità delle monete del fondo cassa di un distributore, memorizzate per ordinale di moneta.
+ *
+ * <p>Come {@link ArchivioBinari} per i binari, separa il fondo cassa dal luogo in cui è tenuto: la
+ * sottoclasse {@link Vettore} lo tiene in un array sullo heap, mentre un distributore di una
+ * {@link FlottaFuoriHeap} lo legge e lo scrive direttamente nel segmento della flotta, senza
+ * copie da tenere allineate.
+ *
+ * <p>Le sottoclassi devono garantire che quantita(m) sia non negativa per ogni ordinale m di
+ * moneta e che, dopo imposta(m, q), quantita(m) sia q.
+ */
+abstract class FondoCassa {
+
+  private static final Moneta[] MONETE = Moneta.values();
+
+  /** Restituisce il numero di monete di ordinale m. */
+  abstract int quantita(int m);
+
+  /** Imposta il numero (non negativo) di monete di ordinale m. */
+  abstract void imposta(int m, int quantita);
+
+  /** Restituisce il numero di monete del tipo indicato. */
+  final int quantita(Moneta moneta) {
+    return quantita(moneta.ordinal());
+  }
+
+  /** Restituisce una copia del fondo cassa come aggregato. */
+  final Aggregato aggregato() {
+    Aggregato a = new Aggregato();
+    for (Moneta m : MONETE) {
+      int q = quantita(m.ordinal());
+      if (q > 0) a.aggiungi(m, q);
+    }
+    return a;
+  }
+
+  /** Restituisce il valore del fondo cassa. */
+  final Importo valoreTotale() {
+    int totale = 0;
+    for (Moneta m : MONETE) totale += m.valore().inCentesimi() * quantita(m.ordinal());
+    return new Importo(totale / 100, totale % 100);
+  }
+
+  /** Aggiunge le monete dell'aggregato. */
+  final void aggiungi(Aggregato a) {
+    for (Moneta m : MONETE) {
+      int q = a.quantita(m);
+      if (q > 0) imposta(m.ordinal(), quantita(m.ordinal()) + q);
+    }
+  }
+
+  /**
+   * Toglie le monete dell'aggregato, se ci sono tutte.
+   *
+   * @return true se le ha tolte, false (lasciando invariato il fondo cassa) se ne manca qualcuna
+   */
+  final boolean rimuovi(Aggregato a) {
+    for (Moneta m : MONETE) if (quantita(m.ordinal()) < a.quantita(m)) return false;
+    for (Moneta m : MONETE) {
+      int q = a.quantita(m);
+      if (q > 0) imposta(m.ordinal(), quantita(m.ordinal()) - q);
+    }
+    return true;
+  }
+
+  /**
+   * Fondo cassa in un array sullo heap.
+   *
+   * <p><strong>RI:</strong> monete non è null, ha un elemento per ogni moneta e i suoi elementi
+   * non sono negativi.
+   *
+   * <p><strong>AF:</strong> il fondo cassa contiene monete[m] monete di ordinale m.
+   */
+  static final class Vettore extends FondoCassa {
+
+    private final int[] monete = new int[MONETE.length];
+
+    /** Crea un fondo cassa con le monete dell'aggregato indicato. */
+    Vettore(Aggregato iniziale) {
+      Objects.requireNonNull(iniziale);
+      for (Moneta m : MONETE) monete[m.ordinal()] = iniziale.quantita(m);
+    }
+
+    @Override
+    int quantita(int m) {
+      return monete[m];
+    }
+
+    @Override
+    void imposta(int m, int quantita) {
+      monete[m] = quantita;
+    }
+  }
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright 2025 Massimo Santini
+ *
+ * This file is part of "Programmazione 2 @ UniMI" teaching material.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this file.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package macchinette;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.CRC32C;
+
+/**
+ * Giornale delle operazioni di un distributore, su file mappato in memoria.
+ *
+ * <p>Il giornale inizia con lo stato del distributore al momento della creazione; poi, come
+ * osservatore del distributore, vi aggiunge un record binario compatto per ogni caricamento ed
+ * erogazione riusciti. Dal file si può ricostruire il distributore con {@link #ripristina}.
+ *
+ * <p>Ogni record è formato da un byte di tipo, dalla lunghezza del contenuto (varint), dal
+ * contenuto e dal CRC32C di tipo e contenuto; un byte di tipo nullo (la parte del file non
+ * ancora scritta) o un CRC errato segnano la fine del giornale, così un record scritto a metà
+ * prima di un arresto improvviso viene ignorato. I prodotti sono scritti una volta sola (record
+ * PRODOTTO) e poi indicati con il loro identificativo.
+ *
+ * <p>Le scritture avvengono sulla memoria mappata; ogni recordPerSync record (se positivo) il
+ * giornale ne forza la scrittura su disco, raggruppando più record in un'unica sincronizzazione.
+ *
+ * <p>Le notifiche del distributore non sollevano eccezioni, perché arrivano quando l'operazione è
+ * già avvenuta: se la scrittura di un record fallisce, il giornale smette di scrivere e l'errore
+ * è segnalato da {@link #sincronizza} e {@link #close}, così che il giornale incompleto non passi
+ * inosservato.
+ *
+ * <p><strong>RI:</strong> canale, distributore, regione, record, crc e idProdotti non sono null;
+ * recordPerSync &gt;= 0; 0 &lt;= nonSincronizzati &lt; recordPerSync se recordPerSync &gt; 0;
+ * idProdotti associa identificativi distinti, da 0 a idProdotti.size()-1, ai prodotti per cui è
+ * già stato scritto un record PRODOTTO.
+ *
+ * <p><strong>AF:</strong> rappresenta la sequenza dei record scritti nel file da posizione 0 a
+ * baseRegione + regione.position() delle operazioni di distributore; se chiuso è vero, non si
+ * possono aggiungere record; se guasto non è null, è l'errore dopo il quale le operazioni non sono
+ * più state scritte.
+ */
+public final class Giornale implements OsservatoreDistributore, AutoCloseable {
+
+  private static final int MAGIA = 0x4D474E4C;
+  private static final byte VERSIONE = 1;
+  private static final int INTESTAZIONE = 5;
+
+  // tipi di record
+  private static final byte PRODOTTO = 1;
+  private static final byte STATO = 2;
+  private static final byte CARICA = 3;
+  private static final byte EROGA = 4;
+
+  // dimensione delle regioni mappate in scrittura e delle finestre mappate in lettura
+  private static final int REGIONE = 1 << 20;
+  private static final int FINESTRA = 1 << 30;
+
+  private static final Moneta[] MONETE = Moneta.values();
+
+  private final FileChannel canale;
+  private final Distributore distributore;
+  private final int recordPerSync;
+  private final CRC32C crc = new CRC32C();
+  private final Map<Prodotto, Integer> idProdotti = new HashMap<>();
+  private MappedByteBuffer regione;
+  private long baseRegione;
+  private ByteBuffer record = ByteBuffer.allocate(256);
+  private int nonSincronizzati;
+  private boolean chiuso;
+  private Throwable guasto;
+
+  private Giornale(FileChannel canale, Distributore distributore, int recordPerSync)
+      throws IOException {
+    this.canale = canale;
+    this.distributore = distributore;
+    this.recordPerSync = recordPerSync;
+    this.regione = canale.map(FileChannel.MapMode.READ_WRITE, 0, REGIONE);
+  }
+
+  /**
+   * Crea un nuovo giornale con lo stato attuale del distributore e lo registra come suo
+   * osservatore.
+   *
+   * @param file file da creare (non deve esistere)
+   * @param distributore distributore da registrare
+   * @param recordPerSync numero di record dopo cui forzare la scrittura su disco (0 per farlo solo
+   *     alla chiusura o su richiesta con {@link #sincronizza})
+   * @return il giornale
+   * @throws IOException se il file esiste o non può essere creato
+   */
+  public static Giornale crea(Path file, Distributore distributore, int recordPerSync)
+      throws IOException {
+    Objects.requireNonNull(file);
+    Objects.requireNonNull(distributore);
+    if (recordPerSync < 0) throw new IllegalArgumentException("recordPerSync negativo");
+    FileChannel canale =
+        FileChannel.open(
+            file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    Giornale g;
+    try {
+      g = new Giornale(canale, distributore, recordPerSync);
+    } catch (IOException | RuntimeException e) {
+      canale.close();
+      throw e;
+    }
+    g.regione.putInt(MAGIA).put(VERSIONE);
+    g.scriviStato(distributore);
+    g.sincronizza();
+    distributore.aggiungiOsservatore(g);
+    return g;
+  }
+
+  @Override
+  public void caricato(Prodotto prodotto, int caricati) {
+    if (chiuso || guasto != null) return;
+    try {
+      int id = idProdotto(prodotto);
+      prepara(10);
+      Codifica.scriviVarint(record, id);
+      Codifica.scriviVarint(record, caricati);
+      scrivi(CARICA);
+    } catch (RuntimeException | InternalError e) {
+      // InternalError è ciò che solleva una scrittura sulla memoria mappata se il disco è pieno
+      guasto = e;
+    }
+  }
+
+  @Override
+  public void erogato(int indiceBinario, Aggregato pagamento, Aggregato resto) {
+    if (chiuso || guasto != null) return;
+    try {
+      prepara(5 + 2 * (1 + 5 * MONETE.length));
+      Codifica.scriviVarint(record, indiceBinario);
+      Codifica.scriviAggregato(record, pagamento);
+      Codifica.scriviAggregato(record, resto);
+      scrivi(EROGA);
+    } catch (RuntimeException | InternalError e) {
+      guasto = e;
+    }
+  }
+
+  /**
+   * Forza la scrittura su disco dei record scritti finora.
+   *
+   * @throws IllegalStateException se il giornale è chiuso o se la scrittura di un record è fallita
+   *     (i record scritti prima sono comunque su disco)
+   */
+  public void sincronizza() {
+    if (chiuso) throw new IllegalStateException("giornale chiuso");
+    regione.force();
+    nonSincronizzati = 0;
+    if (guasto != null) throw new IllegalStateException("giornale incompleto", guasto);
+  }
+
+  /**
+   * Sincronizza e chiude il giornale e smette di osservare il distributore; va invocato dal thread
+   * che usa il distributore.
+   *
+   * @throws IOException se la chiusura non riesce o se la scrittura di un record è fallita (i
+   *     record scritti prima sono comunque su disco)
+   */
+  @Override
+  public void close() throws IOException {
+    if (chiuso) return;
+    distributore.rimuoviOsservatore(this);
+    try {
+      regione.force();
+    } finally {
+      chiuso = true;
+      canale.close();
+    }
+    if (guasto != null) throw new IOException("giornale incompleto", guasto);
+  }
+
+  // restituisce l'identificativo del prodotto, scrivendo il record PRODOTTO la prima volta
+  private int idProdotto(Prodotto p) {
+    Integer id = idProdotti.get(p);
+    if (id != null) return id;
+    id = idProdotti.size();
+    prepara(5 + 5 + 3 * p.nome().length() + 5 + 1);
+    Codifica.scriviVarint(record, id);
+    Codifica.scriviProdotto(record, p);
+    scrivi(PRODOTTO);
+    idProdotti.put(p, id);
+    return id;
+  }
+
+  private void scriviStato(Distributore d) {
+    int n = d.numeroBinari();
+    int[] ids = new int[n];
+    for (int i = 0; i < n; i++)
+      if (!d.binario(i).vuoto()) ids[i] = idProdotto(d.binario(i).prodotto());
+    prepara(5 + n * (1 + 5 + 5 + 5) + 1 + 5 * MONETE.length);
+    Codifica.scriviVarint(record, n);
+    for (int i = 0; i < n; i++) {
+      Binario b = d.binario(i);
+      record.put((byte) b.taglia().ordinal());
+      Codifica.scriviVarint(record, b.capacita());
+      Codifica.scriviVarint(record, b.quantita());
+      if (!b.vuoto()) Codifica.scriviVarint(record, ids[i]);
+    }
+    Codifica.scriviAggregato(record, d.fondoCassa());
+    scrivi(STATO);
+  }
+
+  // svuota il buffer del contenuto, garantendo almeno la capacità indicata
+  private void prepara(int capacita) {
+    if (chiuso) throw new IllegalStateException("giornale chiuso");
+    if (record.capacity() < capacita) record = ByteBuffer.allocate(capacita);
+    record.clear();
+  }
+
+  // aggiunge al file il record con il tipo indicato e il contenuto presente nel buffer
+  private void scrivi(byte tipo) {
+    int lunghezza = record.position();
+    int totale = 1 + 5 + lunghezza + 4;
+    try {
+      if (regione.remaining() < totale) {
+        if (nonSincronizzati > 0 && recordPerSync > 0) regione.force();
+        baseRegione += regione.position();
+        regione =
+            canale.map(FileChannel.MapMode.READ_WRITE, baseRegione, Math.max(REGIONE, totale));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    crc.reset();
+    crc.update(tipo);
+    crc.update(record.array(), 0, lunghezza);
+    regione.put(tipo);
+    Codifica.scriviVarint(regione, lunghezza);
+    regione.put(record.array(), 0, lunghezza);
+    regione.putInt((int) crc.getValue());
+    if (recordPerSync > 0 && ++nonSincronizzati >= recordPerSync) {
+      regione.force();
+      nonSincronizzati = 0;
+    }
+  }
+
+  /**
+   * Ricostruisce un distributore dal giornale, applicando in ordine tutti i record validi.
+   *
+   * @param file file del giornale
+   * @param strategia strategia per il resto del distributore ricostruito
+   * @return il distributore nello stato successivo all'ultimo record valido
+   * @throws IOException se il file non è leggibile o non è un giornale valido
+   */
+  public static Distributore ripristina(Path file, StrategiaResto strategia) throws IOException {
+    Objects.requireNonNull(file);
+    Objects.requireNonNull(strategia);
+    try (FileChannel canale = FileChannel.open(file, StandardOpenOption.READ)) {
+      long dimensione = canale.size();
+      if (dimensione < INTESTAZIONE) throw new IOException("giornale troppo corto: " + file);
+      long base = 0;
+      ByteBuffer finestra =
+          canale.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(dimensione, FINESTRA));
+      if (finestra.getInt() != MAGIA) throw new IOException("non è un giornale: " + file);
+      if (finestra.get() != VERSIONE) throw new IOException("versione non supportata: " + file);
+
+      List<Prodotto> prodotti = new ArrayList<>();
+      Distributore d = null;
+      int[] pagamento = new int[MONETE.length];
+      int[] resto = new int[MONETE.length];
+      CRC32C crc = new CRC32C();
+      while (true) {
+        int inizio = finestra.position();
+        // se il record potrebbe non essere tutto nella finestra, la sposta all'inizio del record
+        if (finestra.remaining() < FINESTRA / 2 && base + finestra.limit() < dimensione) {
+          base += inizio;
+          long ampiezza = Math.min(dimensione - base, FINESTRA);
+          finestra = canale.map(FileChannel.MapMode.READ_ONLY, base, ampiezza);
+          inizio = 0;
+        }
+        if (finestra.remaining() < 1 + 1 + 4) break;
+        byte tipo = finestra.get();
+        if (tipo == 0) break;
+        int lunghezza;
+        try {
+          lunghezza = Codifica.leggiVarint(finestra);
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+          break;
+        }
+        if (lunghezza > finestra.remaining() - 4) break;
+        ByteBuffer contenuto = finestra.slice(finestra.position(), lunghezza);
+        crc.reset();
+        crc.update(tipo);
+        crc.update(contenuto);
+        finestra.position(finestra.position() + lunghezza);
+        if (finestra.getInt() != (int) crc.getValue()) break;
+        contenuto.rewind();
+
+        try {
+          switch (tipo) {
+            case PRODOTTO -> prodotti.add(leggiProdotto(contenuto, prodotti.size()));
+            case STATO -> {
+              if (d != null) throw new IOException("stato iniziale ripetuto");
+              d = leggiStato(contenuto, prodotti, strategia);
+            }
+            case CARICA -> {
+              if (d == null) throw new IOException("caricamento prima dello stato iniziale");
+              Prodotto p = prodotti.get(Codifica.leggiVarint(contenuto));
+              int caricati = Codifica.leggiVarint(contenuto);
+              if (caricati <= 0 || d.carica(p, caricati) != 0)
+                throw new IOException("caricamento incoerente con lo stato");
+            }
+            case EROGA -> {
+              if (d == null) throw new IOException("erogazione prima dello stato iniziale");
+              int indice = Codifica.leggiVarint(contenuto);
+              Codifica.leggiAggregato(contenuto, pagamento);
+              Codifica.leggiAggregato(contenuto, resto);
+              d.applicaErogazione(indice, pagamento, resto);
+            }
+            default -> throw new IOException("tipo di record sconosciuto: " + tipo);
+          }
+        } catch (RuntimeException | BinarioException e) {
+          throw new IOException("record non valido alla posizione " + (base + inizio), e);
+        }
+      }
+      if (d == null) throw new IOException("giornale senza stato iniziale: " + file);
+      return d;
+    }
+  }
+
+  private static Prodotto leggiProdotto(ByteBuffer buf, int atteso) throws IOException {
+    if (Codifica.leggiVarint(buf) != atteso) throw new IOException("identificativo inatteso");
+    return Codifica.leggiProdotto(buf);
+  }
+
+  private static Distributore leggiStato(
+      ByteBuffer buf, List<Prodotto> prodotti, StrategiaResto strategia)
+      throws BinarioException {
+    int n = Codifica.leggiVarint(buf);
+    List<Binario> binari = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      Binario b = new Binario(Taglia.values()[buf.get()], Codifica.leggiVarint(buf));
+      int quantita = Codifica.leggiVarint(buf);
+      if (quantita > 0) b.carica(prodotti.get(Codifica.leggiVarint(buf)), quantita);
+      binari.add(b);
+    }
+    int[] conteggi = new int[MONETE.length];
+    Codifica.leggiAggregato(buf, conteggi);
+    Aggregato fondoCassa = new Aggregato();
+    for (int i = 0; i < MONETE.length; i++)
+      if (conteggi[i] > 0) fondoCassa.aggiungi(MONETE[i], conteggi[i]);
+    return new Distributore(binari, fondoCassa, strategia);
+  }
+}
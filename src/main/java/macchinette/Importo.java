@@ -19,6 +19,7 @@
 
 package macchinette;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.Objects;
 
@@ -36,6 +37,10 @@ public final class Importo implements Comparable<Importo> {
   /** Importo zero. */
   public static final Importo ZERO = new Importo(0);
 
+  // rappresentazioni testuali degli importi fino a 9 unità e 99 centesimi, calcolate al primo uso:
+  // una corsa tra thread può calcolarne una due volte, ma le stringhe sono immutabili e uguali
+  private static final String[] TESTI = new String[1000];
+
   private final int centesimiTotali;
 
   /**
@@ -164,21 +169,57 @@ public final class Importo implements Comparable<Importo> {
     return centesimiTotali;
   }
 
-  @Override
-  public String toString() {
+  /**
+   * Aggiunge la rappresentazione testuale dell'importo (la stessa di {@link #toString()}) al
+   * builder, senza creare stringhe intermedie.
+   *
+   * @param sb builder a cui aggiungerla
+   * @return sb
+   */
+  public StringBuilder appendTo(StringBuilder sb) {
+    Objects.requireNonNull(sb);
+    if (centesimiTotali < TESTI.length) return sb.append(testo());
+    return scrivi(sb);
+  }
+
+  /**
+   * Aggiunge la rappresentazione testuale dell'importo (la stessa di {@link #toString()}) alla
+   * destinazione.
+   *
+   * @param a destinazione a cui aggiungerla
+   * @return a
+   * @throws IOException se la destinazione la solleva
+   */
+  public Appendable appendTo(Appendable a) throws IOException {
+    Objects.requireNonNull(a);
+    if (a instanceof StringBuilder) return appendTo((StringBuilder) a);
+    return a.append(toString());
+  }
+
+  private StringBuilder scrivi(StringBuilder sb) {
     int u = unita();
     int c = centesimi();
 
-    if (u == 0 && c == 0) return "0 cents";
+    if (u == 0 && c == 0) return sb.append("0 cents");
 
-    String result = "";
-    if (u > 0) {
-      result = u + (u == 1 ? " unit" : " units");
-    }
+    if (u > 0) sb.append(u).append(u == 1 ? " unit" : " units");
     if (c > 0) {
-      if (u > 0) result += " ";
-      result += c + (c == 1 ? " cent" : " cents");
+      if (u > 0) sb.append(' ');
+      sb.append(c).append(c == 1 ? " cent" : " cents");
     }
-    return result;
+    return sb;
+  }
+
+  // richiede centesimiTotali < TESTI.length
+  private String testo() {
+    String t = TESTI[centesimiTotali];
+    if (t == null) TESTI[centesimiTotali] = t = scrivi(new StringBuilder(16)).toString();
+    return t;
+  }
+
+  @Override
+  public String toString() {
+    if (centesimiTotali < TESTI.length) return testo();
+    return scrivi(new StringBuilder(24)).toString();
   }
 }
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2025 Massimo Santini
+ *
+ * This file is part of "Programmazione 2 @ UniMI" teaching material.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this file.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package macchinette;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.CRC32C;
+
+/**
+ * Istantanea binaria dello stato completo di un distributore.
+ *
+ * <p>Il file è formato da un'intestazione di lunghezza fissa (magia, versione, politica, numero di
+ * prodotti e di binari, lunghezza e CRC32C del corpo) seguita dal corpo: il nome della strategia
+ * per il resto (UTF-8 preceduto dalla lunghezza, vuoto se la strategia non ha un {@linkplain
+ * StrategiaResto#nome nome}), la tabella dei prodotti (nome UTF-8 preceduto dalla lunghezza,
+ * prezzo in centesimi, taglia), i binari come record di
+ * lunghezza fissa (taglia, capacità, quantità, indice del prodotto nella tabella o -1) e le
+ * quantità delle otto monete del fondo cassa. Tutti gli interi sono a 32 bit, così la lettura,
+ * che avviene mappando il file in memoria, si riduce a letture posizionali. Le istantanee della
+ * versione 1, senza il nome della strategia, si possono leggere indicando la strategia.
+ *
+ * <p>La scrittura avviene su un file temporaneo nella stessa cartella che, dopo essere stato
+ * sincronizzato su disco, sostituisce atomicamente il file di destinazione: chi legge trova
+ * sempre l'istantanea precedente o quella nuova, mai una scritta a metà.
+ *
+ * <p><strong>RI:</strong> classe di utilità non istanziabile, senza stato.
+ *
+ * <p><strong>AF:</strong> non rappresenta alcun valore; raccoglie le funzioni di scrittura e
+ * lettura delle istantanee.
+ */
+public final class Istantanea {
+
+  private static final int MAGIA = 0x4D495354;
+  private static final short VERSIONE = 2;
+  private static final int INTESTAZIONE = 4 + 2 + 2 + 4 + 4 + 4 + 4;
+  private static final int BINARIO = 1 + 4 + 4 + 4;
+
+  private static final Moneta[] MONETE = Moneta.values();
+
+  private Istantanea() {}
+
+  /**
+   * Salva atomicamente l'istantanea del distributore nel file indicato, sostituendo
+   * l'eventuale file esistente.
+   *
+   * @param distributore distributore da salvare
+   * @param file file di destinazione
+   * @throws IOException se la scrittura non riesce
+   */
+  public static void salva(Distributore distributore, Path file) throws IOException {
+    Objects.requireNonNull(distributore);
+    Objects.requireNonNull(file);
+    ByteBuffer buf = ByteBuffer.wrap(codifica(distributore));
+
+    Path temporaneo = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileChannel canale =
+        FileChannel.open(
+            temporaneo,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      while (buf.hasRemaining()) canale.write(buf);
+      canale.force(true);
+    }
+    Files.move(
+        temporaneo, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Restituisce l'istantanea del distributore, con gli stessi byte del file scritto da {@link
+   * #salva}; serve, ad esempio, a trasferire un distributore ad un altro processo.
+   *
+   * @param distributore distributore da codificare
+   * @return l'istantanea
+   */
+  public static byte[] codifica(Distributore distributore) {
+    Objects.requireNonNull(distributore);
+
+    int n = distributore.numeroBinari();
+    Map<Prodotto, Integer> ids = new HashMap<>();
+    List<byte[]> nomi = new ArrayList<>();
+    List<Prodotto> prodotti = new ArrayList<>();
+    int dimProdotti = 0;
+    for (int i = 0; i < n; i++) {
+      Prodotto p = distributore.binario(i).prodotto();
+      if (p == null || ids.containsKey(p)) continue;
+      ids.put(p, prodotti.size());
+      prodotti.add(p);
+      byte[] nome = p.nome().getBytes(StandardCharsets.UTF_8);
+      nomi.add(nome);
+      dimProdotti += 4 + nome.length + 4 + 1;
+    }
+    String nomeStrategia = distributore.strategia().nome();
+    byte[] strategia =
+        nomeStrategia == null ? new byte[0] : nomeStrategia.getBytes(StandardCharsets.UTF_8);
+    int dimCorpo = 4 + strategia.length + dimProdotti + n * BINARIO + 4 * MONETE.length;
+
+    ByteBuffer buf = ByteBuffer.allocate(INTESTAZIONE + dimCorpo);
+    buf.position(INTESTAZIONE);
+    buf.putInt(strategia.length).put(strategia);
+    for (int i = 0; i < prodotti.size(); i++) {
+      Prodotto p = prodotti.get(i);
+      buf.putInt(nomi.get(i).length).put(nomi.get(i));
+      buf.putInt(p.prezzo().inCentesimi()).put((byte) p.taglia().ordinal());
+    }
+    for (int i = 0; i < n; i++) {
+      Binario b = distributore.binario(i);
+      buf.put((byte) b.taglia().ordinal()).putInt(b.capacita()).putInt(b.quantita());
+      buf.putInt(b.vuoto() ? -1 : ids.get(b.prodotto()));
+    }
+    for (Moneta m : MONETE) buf.putInt(distributore.fondoCassa().quantita(m));
+
+    CRC32C crc = new CRC32C();
+    crc.update(buf.array(), INTESTAZIONE, dimCorpo);
+    buf.rewind();
+    buf.putInt(MAGIA).putShort(VERSIONE).putShort((short) distributore.politica().ordinal());
+    buf.putInt(prodotti.size()).putInt(n).putInt(dimCorpo).putInt((int) crc.getValue());
+    return buf.array();
+  }
+
+  /**
+   * Ricostruisce un distributore da un'istantanea, con la strategia per il resto registrata
+   * nell'istantanea.
+   *
+   * @param file file dell'istantanea
+   * @return il distributore salvato
+   * @throws IOException se il file non è leggibile, non è un'istantanea valida o la strategia
+   *     registrata non ha nome o ne ha uno sconosciuto
+   */
+  public static Distributore ripristina(Path file) throws IOException {
+    return ripristina(file, null);
+  }
+
+  /**
+   * Ricostruisce un distributore da un'istantanea, con la strategia per il resto indicata al
+   * posto di quella registrata.
+   *
+   * @param file file dell'istantanea
+   * @param strategia strategia per il resto del distributore ricostruito (null per quella
+   *     registrata)
+   * @return il distributore salvato
+   * @throws IOException se il file non è leggibile o non è un'istantanea valida
+   */
+  public static Distributore ripristina(Path file, StrategiaResto strategia) throws IOException {
+    Objects.requireNonNull(file);
+    ByteBuffer buf;
+    try (FileChannel canale = FileChannel.open(file, StandardOpenOption.READ)) {
+      long dimensione = canale.size();
+      if (dimensione < INTESTAZIONE || dimensione > Integer.MAX_VALUE)
+        throw new IOException("dimensione non valida: " + file);
+      buf = canale.map(FileChannel.MapMode.READ_ONLY, 0, dimensione);
+    }
+    return leggi(buf, strategia, file);
+  }
+
+  /**
+   * Ricostruisce un distributore da un'istantanea restituita da {@link #codifica}, con la
+   * strategia per il resto registrata nell'istantanea.
+   *
+   * @param istantanea byte dell'istantanea
+   * @return il distributore codificato
+   * @throws IOException se i byte non sono un'istantanea valida o la strategia registrata non ha
+   *     nome o ne ha uno sconosciuto
+   */
+  public static Distributore decodifica(byte[] istantanea) throws IOException {
+    return decodifica(istantanea, null);
+  }
+
+  /**
+   * Ricostruisce un distributore da un'istantanea restituita da {@link #codifica}, con la
+   * strategia per il resto indicata al posto di quella registrata.
+   *
+   * @param istantanea byte dell'istantanea
+   * @param strategia strategia per il resto del distributore ricostruito (null per quella
+   *     registrata)
+   * @return il distributore codificato
+   * @throws IOException se i byte non sono un'istantanea valida
+   */
+  public static Distributore decodifica(byte[] istantanea, StrategiaResto strategia)
+      throws IOException {
+    Objects.requireNonNull(istantanea);
+    String origine = "istantanea di " + istantanea.length + " byte";
+    if (istantanea.length < INTESTAZIONE)
+      throw new IOException("dimensione non valida: " + origine);
+    return leggi(ByteBuffer.wrap(istantanea), strategia, origine);
+  }
+
+  // origine (il file o una descrizione) compare nei messaggi di errore; se strategia è null si usa
+  // quella registrata
+  private static Distributore leggi(ByteBuffer buf, StrategiaResto strategia, Object origine)
+      throws IOException {
+    if (buf.getInt() != MAGIA) throw new IOException("non è un'istantanea: " + origine);
+    short versione = buf.getShort();
+    if (versione != 1 && versione != VERSIONE)
+      throw new IOException("versione non supportata: " + origine);
+    try {
+      Distributore.Politica politica = Distributore.Politica.values()[buf.getShort()];
+      int numProdotti = buf.getInt();
+      int n = buf.getInt();
+      int dimCorpo = buf.getInt();
+      int crcAtteso = buf.getInt();
+      if (dimCorpo != buf.remaining()) throw new IOException("lunghezza errata: " + origine);
+      CRC32C crc = new CRC32C();
+      crc.update(buf.slice());
+      if ((int) crc.getValue() != crcAtteso) throw new IOException("CRC errato: " + origine);
+
+      String nomeStrategia = "";
+      if (versione > 1) {
+        int lunghezza = buf.getInt();
+        if (lunghezza < 0 || lunghezza > buf.remaining())
+          throw new IOException("strategia non valida: " + origine);
+        byte[] nome = new byte[lunghezza];
+        buf.get(nome);
+        nomeStrategia = new String(nome, StandardCharsets.UTF_8);
+      }
+      if (strategia == null) {
+        if (nomeStrategia.isEmpty()) throw new IOException("strategia senza nome: " + origine);
+        try {
+          strategia = StrategiaResto.perNome(nomeStrategia);
+        } catch (IllegalArgumentException e) {
+          throw new IOException(e.getMessage() + ": " + origine, e);
+        }
+      }
+
+      Prodotto[] prodotti = new Prodotto[numProdotti];
+      for (int i = 0; i < numProdotti; i++) {
+        int lunghezza = buf.getInt();
+        if (lunghezza < 0 || lunghezza > buf.remaining())
+          throw new IOException("nome non valido: " + origine);
+        byte[] nome = new byte[lunghezza];
+        buf.get(nome);
+        int centesimi = buf.getInt();
+        Taglia taglia = Taglia.values()[buf.get()];
+        prodotti[i] =
+            new Prodotto(
+                new String(nome, StandardCharsets.UTF_8),
+                new Importo(centesimi / 100, centesimi % 100),
+                taglia);
+      }
+      List<Binario> binari = new ArrayList<>(n);
+      for (int i = 0; i < n; i++) {
+        Binario b = new Binario(Taglia.values()[buf.get()], buf.getInt());
+        int quantita = buf.getInt();
+        int id = buf.getInt();
+        if (quantita > 0) b.carica(prodotti[id], quantita);
+        binari.add(b);
+      }
+      Aggregato fondoCassa = new Aggregato();
+      for (Moneta m : MONETE) {
+        int q = buf.getInt();
+        if (q > 0) fondoCassa.aggiungi(m, q);
+      }
+      return new Distributore(binari, fondoCassa, strategia, politica);
+    } catch (RuntimeException | BinarioException e) {
+      throw new IOException("istantanea non valida: " + origine, e);
+    }
+  }
+}
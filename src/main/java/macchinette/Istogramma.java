@@ -0,0 +1,202 @@
+/*
+ * Copyright 2025 Massimo Santini
+ *
+ * This file is part of "Programmazione 2 @ UniMI" teaching material.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this file.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package macchinette;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Istogramma di valori interi non negativi (tipicamente latenze in nanosecondi) con errore
+ * relativo limitato, sul modello di HdrHistogram.
+ *
+ * <p>I valori minori di 256 sono contati esattamente; gli altri sono raggruppati in intervalli
+ * log-lineari: ogni potenza di due è divisa in 128 intervalli di uguale ampiezza, per cui un
+ * valore è riportato con un errore relativo minore di 1/128 (meno dell'1%). L'istogramma occupa
+ * una dimensione fissa (circa 57 KiB) qualunque sia il numero o l'intervallo dei valori e
+ * registrare un valore costa poche operazioni aritmetiche, senza creare oggetti.
+ *
+ * <p>Gli istogrammi non sono sincronizzati: per misurare da più thread se ne usa uno per thread
+ * e li si somma alla fine con {@link #aggiungi(Istogramma)}.
+ *
+ * <p><strong>RI:</strong> conteggi non è null e ha INTERVALLI elementi non negativi; totale è la
+ * somma dei conteggi; se totale &gt; 0, minimo e massimo sono il minimo e il massimo dei valori
+ * registrati.
+ *
+ * <p><strong>AF:</strong> rappresenta il multinsieme dei valori registrati, in cui ogni valore v
+ * è approssimato dall'intervallo indice(v), contato conteggi[indice(v)] volte.
+ */
+public final class Istogramma {
+
+  // intervalli per potenza di due (oltre 256) e intervalli complessivi
+  private static final int BIT_SOTTO = 7;
+  private static final int SOTTO = 1 << BIT_SOTTO;
+  static final int INTERVALLI = (64 - BIT_SOTTO) * SOTTO;
+
+  private final long[] conteggi = new long[INTERVALLI];
+  private long totale;
+  private long minimo = Long.MAX_VALUE;
+  private long massimo;
+
+  /** Crea un istogramma vuoto. */
+  public Istogramma() {}
+
+  /**
+   * Registra un valore.
+   *
+   * @throws IllegalArgumentException se il valore è negativo
+   */
+  public void registra(long valore) {
+    registra(valore, 1);
+  }
+
+  /**
+   * Registra più occorrenze dello stesso valore.
+   *
+   * @throws IllegalArgumentException se il valore o il numero di occorrenze è negativo
+   */
+  public void registra(long valore, long occorrenze) {
+    if (valore < 0) throw new IllegalArgumentException("valore negativo: " + valore);
+    if (occorrenze < 0) throw new IllegalArgumentException("occorrenze negative: " + occorrenze);
+    if (occorrenze == 0) return;
+    conteggi[indice(valore)] += occorrenze;
+    totale += occorrenze;
+    if (valore < minimo) minimo = valore;
+    if (valore > massimo) massimo = valore;
+  }
+
+  /** Aggiunge a questo istogramma i valori registrati in un altro. */
+  public void aggiungi(Istogramma altro) {
+    Objects.requireNonNull(altro);
+    if (altro.totale == 0) return;
+    for (int i = 0; i < INTERVALLI; i++) conteggi[i] += altro.conteggi[i];
+    totale += altro.totale;
+    minimo = Math.min(minimo, altro.minimo);
+    massimo = Math.max(massimo, altro.massimo);
+  }
+
+  /**
+   * Aggiunge i conteggi per intervallo (indicizzati come {@link #indice}) di valori compresi tra
+   * minimo e massimo.
+   */
+  void aggiungi(long[] altri, long minimo, long massimo) {
+    long n = 0;
+    for (int i = 0; i < INTERVALLI; i++) {
+      conteggi[i] += altri[i];
+      n += altri[i];
+    }
+    if (n == 0) return;
+    totale += n;
+    this.minimo = Math.min(this.minimo, minimo);
+    this.massimo = Math.max(this.massimo, massimo);
+  }
+
+  /** Rimuove tutti i valori registrati. */
+  public void azzera() {
+    Arrays.fill(conteggi, 0);
+    totale = 0;
+    minimo = Long.MAX_VALUE;
+    massimo = 0;
+  }
+
+  /** Restituisce il numero di valori registrati. */
+  public long conteggio() {
+    return totale;
+  }
+
+  /** Restituisce il minimo valore registrato (0 se l'istogramma è vuoto). */
+  public long minimo() {
+    return totale == 0 ? 0 : minimo;
+  }
+
+  /** Restituisce il massimo valore registrato (0 se l'istogramma è vuoto). */
+  public long massimo() {
+    return massimo;
+  }
+
+  /** Restituisce la media approssimata dei valori registrati (0 se l'istogramma è vuoto). */
+  public double media() {
+    if (totale == 0) return 0;
+    double somma = 0;
+    for (int i = 0; i < INTERVALLI; i++)
+      if (conteggi[i] != 0) somma += (double) conteggi[i] * medio(i);
+    return somma / totale;
+  }
+
+  /**
+   * Restituisce il valore al percentile indicato: il più piccolo valore tale che almeno la
+   * percentuale indicata dei valori registrati non lo superi, approssimato per eccesso al limite
+   * del suo intervallo (e comunque non oltre il massimo).
+   *
+   * @param percentuale percentuale in [0, 100]
+   * @return il valore, o 0 se l'istogramma è vuoto
+   * @throws IllegalArgumentException se la percentuale non è in [0, 100]
+   */
+  public long percentile(double percentuale) {
+    if (!(percentuale >= 0 && percentuale <= 100))
+      throw new IllegalArgumentException("percentuale non valida: " + percentuale);
+    if (totale == 0) return 0;
+    long soglia = Math.max(1, (long) Math.ceil(percentuale / 100 * totale));
+    long cumulato = 0;
+    for (int i = 0; i < INTERVALLI; i++) {
+      cumulato += conteggi[i];
+      if (cumulato >= soglia) return Math.min(massimo, Math.max(minimo, superiore(i)));
+    }
+    return massimo;
+  }
+
+  // indice dell'intervallo del valore: i valori minori di 2 * SOTTO hanno un intervallo ciascuno,
+  // gli altri sono scalati di esponente bit in modo da cadere in [SOTTO, 2 * SOTTO)
+  static int indice(long valore) {
+    if (valore < 2 * SOTTO) return (int) valore;
+    int esponente = 64 - Long.numberOfLeadingZeros(valore) - BIT_SOTTO - 1;
+    return (esponente + 1) * SOTTO + (int) (valore >>> esponente) - SOTTO;
+  }
+
+  // minimo valore dell'intervallo di indice i
+  private static long inferiore(int i) {
+    if (i < 2 * SOTTO) return i;
+    int esponente = i / SOTTO - 1;
+    return (long) (i % SOTTO + SOTTO) << esponente;
+  }
+
+  // massimo valore dell'intervallo di indice i
+  private static long superiore(int i) {
+    if (i < 2 * SOTTO) return i;
+    int esponente = i / SOTTO - 1;
+    return inferiore(i) + (1L << esponente) - 1;
+  }
+
+  private static double medio(int i) {
+    return (inferiore(i) + (double) superiore(i)) / 2;
+  }
+
+  @Override
+  public String toString() {
+    return "Istogramma[conteggio="
+        + totale
+        + ", p50="
+        + percentile(50)
+        + ", p99="
+        + percentile(99)
+        + ", massimo="
+        + massimo
+        + "]";
+  }
+}
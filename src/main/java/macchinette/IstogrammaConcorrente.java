@@ -0,0 +1,102 @@
+/*
+ * Copyright 2025 Massimo Santini
+ *
+ * This file is part of "Programmazione 2 @ UniMI" teaching material.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this file.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package macchinette;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Istogramma con gli stessi intervalli di {@link Istogramma} in cui più thread possono registrare
+ * valori contemporaneamente, senza lock.
+ *
+ * <p>Ogni intervallo ha un proprio {@link LongAdder}, creato alla prima registrazione di un suo
+ * valore: quando più thread registrano valori dello stesso intervallo, come accade di solito per
+ * latenze simili, l'adder distribuisce gli incrementi su celle separate invece di farli
+ * contendere su un unico contatore; gli intervalli mai usati non occupano memoria oltre al
+ * riferimento. Minimo e massimo sono condivisi, ma sono scritti solo quando cambiano. Le letture
+ * avvengono tramite {@link #istantanea()}, che somma i contatori in un {@link Istogramma};
+ * l'istantanea presa mentre altri thread registrano può includere solo una parte delle
+ * registrazioni concorrenti.
+ *
+ * <p><strong>RI:</strong> conteggi non è null e ha Istogramma.INTERVALLI elementi, null o con
+ * somma non negativa; minimo e massimo non sono null.
+ *
+ * <p><strong>AF:</strong> rappresenta il multinsieme dei valori registrati, in cui ogni valore v
+ * è approssimato dall'intervallo i = Istogramma.indice(v), contato conteggi[i].sum() volte (0 se
+ * conteggi[i] è null); minimo e massimo sono il minimo e il massimo dei valori registrati.
+ */
+public final class IstogrammaConcorrente {
+
+  private final AtomicReferenceArray<LongAdder> conteggi =
+      new AtomicReferenceArray<>(Istogramma.INTERVALLI);
+  private final AtomicLong minimo = new AtomicLong(Long.MAX_VALUE);
+  private final AtomicLong massimo = new AtomicLong();
+
+  /** Crea un istogramma vuoto. */
+  public IstogrammaConcorrente() {}
+
+  /**
+   * Registra un valore.
+   *
+   * @throws IllegalArgumentException se il valore è negativo
+   */
+  public void registra(long valore) {
+    if (valore < 0) throw new IllegalArgumentException("valore negativo: " + valore);
+    int i = Istogramma.indice(valore);
+    LongAdder conteggio = conteggi.get(i);
+    if (conteggio == null) {
+      // più thread possono crearlo insieme: vince il primo e gli altri usano il suo
+      LongAdder nuovo = new LongAdder();
+      conteggio = conteggi.compareAndExchange(i, null, nuovo);
+      if (conteggio == null) conteggio = nuovo;
+    }
+    conteggio.increment();
+    // gli estremi cambiano raramente: la lettura evita quasi sempre la scrittura
+    if (valore < minimo.get()) minimo.accumulateAndGet(valore, Math::min);
+    if (valore > massimo.get()) massimo.accumulateAndGet(valore, Math::max);
+  }
+
+  /** Restituisce una copia dei valori registrati finora. */
+  public Istogramma istantanea() {
+    long[] copia = new long[Istogramma.INTERVALLI];
+    for (int i = 0; i < copia.length; i++) {
+      LongAdder conteggio = conteggi.get(i);
+      if (conteggio != null) copia[i] = conteggio.sum();
+    }
+    Istogramma h = new Istogramma();
+    h.aggiungi(copia, minimo.get(), massimo.get());
+    return h;
+  }
+
+  @Override
+  public String toString() {
+    Istogramma h = istantanea();
+    return "IstogrammaConcorrente[conteggio="
+        + h.conteggio()
+        + ", p50="
+        + h.percentile(50)
+        + ", p99="
+        + h.percentile(99)
+        + ", massimo="
+        + h.massimo()
+        + "]";
+  }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2025 Massimo Santini
+ *
+ * This file is part of "Programmazione 2 @ UniMI" teaching material.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this file.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package macchinette;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registro delle metriche di uno o più distributori.
+ *
+ * <p>Il registro conta le erogazioni per esito, i caricamenti, i prodotti caricati e i
+ * caricamenti rifiutati per motivo (un esito per caricamento), misura la latenza delle erogazioni
+ * e dei calcoli del resto e tiene il valore del fondo cassa moneta per moneta. Si collega a un
+ * distributore con {@link Distributore#usaMetriche}; se più distributori condividono lo stesso
+ * registro, i valori (compreso il fondo cassa) sono la somma di quelli dei singoli distributori.
+ *
+ * <p>Registrare costa l'incremento di un {@link LongAdder} o di un intervallo di un {@link
+ * IstogrammaConcorrente}, senza lock e, a regime, senza allocazioni (gli adder allocano solo alla
+ * prima registrazione di un intervallo e quando la contesa richiede altre celle); il registro può
+ * essere letto ed esportato da un thread qualsiasi mentre i distributori lo aggiornano, con {@link
+ * #testo()} (formato di esposizione di Prometheus) o {@link #json()}.
+ *
+ * <p><strong>RI:</strong> erogazioni ha un elemento per ogni ErogazioneException.Motivo più uno
+ * (l'ultimo) per le erogazioni riuscite; rifiuti ha un elemento per ogni BinarioException.Motivo;
+ * monete ha un elemento per ogni moneta; nessun campo è null.
+ *
+ * <p><strong>AF:</strong> erogazioni[m.ordinal()] è il numero di erogazioni non riuscite per il
+ * motivo m e l'ultimo elemento quello delle riuscite; caricamenti e prodottiCaricati sono il
+ * numero di caricamenti riusciti (anche in parte) e di prodotti caricati; rifiuti[m.ordinal()] il
+ * numero di caricamenti che non hanno caricato nulla per il motivo m; latenzaErogazione e
+ * latenzaStrategia le durate in nanosecondi; monete[m.ordinal()] il numero di monete m nel fondo
+ * cassa.
+ */
+public final class Metriche {
+
+  private static final ErogazioneException.Motivo[] MOTIVI = ErogazioneException.Motivo.values();
+  private static final BinarioException.Motivo[] RIFIUTI = BinarioException.Motivo.values();
+  private static final Moneta[] MONETE = Moneta.values();
+  private static final double[] PERCENTILI = {50, 90, 99, 99.9};
+  private static final String[] QUANTILI = {"0.5", "0.9", "0.99", "0.999"};
+  private static final String[] CHIAVI = {"p50", "p90", "p99", "p999"};
+
+  private final LongAdder[] erogazioni = contatori(MOTIVI.length + 1);
+  private final LongAdder caricamenti = new LongAdder();
+  private final LongAdder prodottiCaricati = new LongAdder();
+  private final LongAdder[] rifiuti = contatori(RIFIUTI.length);
+  private final IstogrammaConcorrente latenzaErogazione = new IstogrammaConcorrente();
+  private final IstogrammaConcorrente latenzaStrategia = new IstogrammaConcorrente();
+  private final LongAdder[] monete = contatori(MONETE.length);
+
+  /** Crea un registro vuoto. */
+  public Metriche() {}
+
+  private static LongAdder[] contatori(int n) {
+    LongAdder[] c = new LongAdder[n];
+    for (int i = 0; i < n; i++) c[i] = new LongAdder();
+    return c;
+  }
+
+  /** Registra un'erogazione; motivo è null se è riuscita. */
+  void erogazione(ErogazioneException.Motivo motivo, long durata) {
+    erogazioni[motivo == null ? MOTIVI.length : motivo.ordinal()].increment();
+    latenzaErogazione.registra(durata);
+  }
+
+  /** Registra la durata di un calcolo del resto. */
+  void strategia(long durata) {
+    latenzaStrategia.registra(durata);
+  }
+
+  /** Registra un caricamento che ha caricato il numero di prodotti indicato. */
+  void caricamento(int caricati) {
+    caricamenti.increment();
+    prodottiCaricati.add(caricati);
+  }
+
+  /**
+   * Registra un caricamento che non ha caricato nulla, con il motivo del binario più vicino ad
+   * accettare il prodotto.
+   */
+  void rifiuto(BinarioException.Motivo motivo) {
+    rifiuti[motivo.ordinal()].increment();
+  }
+
+  /** Aggiunge al fondo cassa le monete dell'aggregato, moltiplicate per segno (1 o -1). */
+  void variaFondoCassa(Aggregato a, int segno) {
+    for (Moneta m : MONETE) {
+      int q = a.quantita(m);
+      if (q != 0) monete[m.ordinal()].add((long) segno * q);
+    }
+  }
+
+  /** Aggiunge al fondo cassa la quantità (anche negativa) indicata della moneta. */
+  void variaFondoCassa(Moneta m, long quantita) {
+    monete[m.ordinal()].add(quantita);
+  }
+
+  /** Restituisce il numero di erogazioni riuscite. */
+  public long erogazioniRiuscite() {
+    return erogazioni[MOTIVI.length].sum();
+  }
+
+  /** Restituisce il numero di erogazioni non riuscite per il motivo indicato. */
+  public long erogazioniFallite(ErogazioneException.Motivo motivo) {
+    return erogazioni[motivo.ordinal()].sum();
+  }
+
+  /** Restituisce il numero di caricamenti che hanno caricato almeno un prodotto. */
+  public long caricamenti() {
+    return caricamenti.sum();
+  }
+
+  /** Restituisce il numero di prodotti caricati. */
+  public long prodottiCaricati() {
+    return prodottiCaricati.sum();
+  }
+
+  /** Restituisce il numero di caricamenti che non hanno caricato nulla per il motivo indicato. */
+  public long rifiuti(BinarioException.Motivo motivo) {
+    return rifiuti[motivo.ordinal()].sum();
+  }
+
+  /** Restituisce una copia dell'istogramma delle durate delle erogazioni, in nanosecondi. */
+  public Istogramma latenzaErogazione() {
+    return latenzaErogazione.istantanea();
+  }
+
+  /** Restituisce una copia dell'istogramma delle durate dei calcoli del resto, in nanosecondi. */
+  public Istogramma latenzaStrategia() {
+    return latenzaStrategia.istantanea();
+  }
+
+  /** Restituisce il numero di monete del tipo indicato nel fondo cassa. */
+  public long monete(Moneta moneta) {
+    return monete[Objects.requireNonNull(moneta).ordinal()].sum();
+  }
+
+  /** Restituisce il valore del fondo cassa in centesimi. */
+  public long centesimiFondoCassa() {
+    long totale = 0;
+    for (Moneta m : MONETE) totale += monete(m) * m.valore().inCentesimi();
+    return totale;
+  }
+
+  /** Esporta le metriche nel formato testuale di esposizione di Prometheus. */
+  public String testo() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("# TYPE macchinette_erogazioni_totale counter\n");
+    sb.append("macchinette_erogazioni_totale{esito=\"OK\"} ").append(erogazioniRiuscite());
+    sb.append('\n');
+    for (ErogazioneException.Motivo m : MOTIVI) {
+      sb.append("macchinette_erogazioni_totale{esito=\"").append(m).append("\"} ");
+      sb.append(erogazioniFallite(m)).append('\n');
+    }
+    sb.append("# TYPE macchinette_caricamenti_totale counter\n");
+    sb.append("macchinette_caricamenti_totale ").append(caricamenti()).append('\n');
+    sb.append("# TYPE macchinette_prodotti_caricati_totale counter\n");
+    sb.append("macchinette_prodotti_caricati_totale ").append(prodottiCaricati()).append('\n');
+    sb.append("# TYPE macchinette_caricamenti_rifiutati_totale counter\n");
+    for (BinarioException.Motivo m : RIFIUTI) {
+      sb.append("macchinette_caricamenti_rifiutati_totale{motivo=\"").append(m).append("\"} ");
+      sb.append(rifiuti(m)).append('\n');
+    }
+    riepilogo(sb, "macchinette_latenza_erogazione_ns", latenzaErogazione());
+    riepilogo(sb, "macchinette_latenza_strategia_ns", latenzaStrategia());
+    sb.append("# TYPE macchinette_fondo_cassa_centesimi gauge\n");
+    sb.append("macchinette_fondo_cassa_centesimi ").append(centesimiFondoCassa()).append('\n');
+    sb.append("# TYPE macchinette_fondo_cassa_monete gauge\n");
+    for (Moneta m : MONETE) {
+      sb.append("macchinette_fondo_cassa_monete{moneta=\"").append(m.name()).append("\"} ");
+      sb.append(monete(m)).append('\n');
+    }
+    return sb.toString();
+  }
+
+  private static void riepilogo(StringBuilder sb, String nome, Istogramma h) {
+    sb.append("# TYPE ").append(nome).append(" summary\n");
+    for (int i = 0; i < PERCENTILI.length; i++) {
+      sb.append(nome).append("{quantile=\"").append(QUANTILI[i]).append("\"} ");
+      sb.append(h.percentile(PERCENTILI[i])).append('\n');
+    }
+    sb.append(nome).append("_count ").append(h.conteggio()).append('\n');
+  }
+
+  /** Esporta le metriche come oggetto JSON. */
+  public String json() {
+    StringBuilder sb = new StringBuilder("{\"erogazioni\":{\"OK\":").append(erogazioniRiuscite());
+    for (ErogazioneException.Motivo m : MOTIVI)
+      sb.append(",\"").append(m).append("\":").append(erogazioniFallite(m));
+    sb.append("},\"caricamenti\":").append(caricamenti());
+    sb.append(",\"prodottiCaricati\":").append(prodottiCaricati());
+    sb.append(",\"caricamentiRifiutati\":{");
+    for (BinarioException.Motivo m : RIFIUTI) {
+      if (m.ordinal() > 0) sb.append(',');
+      sb.append('"').append(m).append("\":").append(rifiuti(m));
+    }
+    sb.append("},\"latenzaErogazioneNs\":");
+    json(sb, latenzaErogazione());
+    sb.append(",\"latenzaStrategiaNs\":");
+    json(sb, latenzaStrategia());
+    sb.append(",\"fondoCassa\":{\"centesimi\":").append(centesimiFondoCassa());
+    sb.append(",\"monete\":{");
+    for (Moneta m : MONETE) {
+      if (m.ordinal() > 0) sb.append(',');
+      sb.append('"').append(m.name()).append("\":").append(monete(m));
+    }
+    return sb.append("}}}").toString();
+  }
+
+  private static void json(StringBuilder sb, Istogramma h) {
+    sb.append("{\"conteggio\":").append(h.conteggio());
+    for (int i = 0; i < PERCENTILI.length; i++)
+      sb.append(",\"").append(CHIAVI[i]).append("\":").append(h.percentile(PERCENTILI[i]));
+    sb.append(",\"massimo\":").append(h.massimo()).append('}');
+  }
+
+  @Override
+  public String toString() {
+    return json();
+  }
+}
@@ -19,6 +19,7 @@
 
 package macchinette;
 
+import java.io.IOException;
 import java.util.Objects;
 import java.util.Optional;
 
@@ -26,7 +27,7 @@ import java.util.Optional;
  * Monete disponibili: 1, 2, 5, 10, 20, 50 centesimi e 1, 2 euro.
  *
  * <p><strong>RI:</strong> garantito dall'enum; il valore è sempre valido e corrisponde
- * a una delle otto denominazioni previste.
+ * a una delle otto denominazioni previste; testo è valore.toString().
  *
  * <p><strong>AF:</strong> ogni costante dell'enum rappresenta una moneta fisica con il valore
  * nominale specificato; ad esempio EURO_1 rappresenta la moneta da 1 euro.
@@ -41,10 +42,22 @@ public enum Moneta {
   EURO_1(100),
   EURO_2(200);
 
+  // PER_CENTESIMI[c] è la moneta da c centesimi, o null se non ce n'è una
+  private static final Moneta[] PER_CENTESIMI = new Moneta[201];
+
+  static {
+    for (Moneta m : values()) PER_CENTESIMI[m.valore.inCentesimi()] = m;
+  }
+
+  // cifre intere (senza zeri iniziali) oltre cui il riconoscimento diretto lascia fare a Importo
+  private static final int MAX_CIFRE = 7;
+
   private final Importo valore;
+  private final String testo;
 
   Moneta(int centesimi) {
     this.valore = new Importo(centesimi / 100, centesimi % 100);
+    this.testo = valore.toString();
   }
 
   /** Restituisce il valore della moneta. */
@@ -60,10 +73,17 @@ public enum Moneta {
    */
   public static Optional<Moneta> fromImporto(Importo importo) {
     Objects.requireNonNull(importo);
-    for (Moneta m : values()) {
-      if (m.valore.equals(importo)) return Optional.of(m);
-    }
-    return Optional.empty();
+    return Optional.ofNullable(fromCentesimi(importo.inCentesimi()));
+  }
+
+  /**
+   * Restituisce la moneta del valore indicato in centesimi, senza allocare nulla.
+   *
+   * @param centesimi valore in centesimi
+   * @return la moneta, o null se nessuna moneta ha quel valore
+   */
+  public static Moneta fromCentesimi(int centesimi) {
+    return centesimi >= 0 && centesimi < PER_CENTESIMI.length ? PER_CENTESIMI[centesimi] : null;
   }
 
   /**
@@ -73,11 +93,87 @@ public enum Moneta {
    */
   public static Optional<Moneta> parse(String s) {
     if (s == null) throw new NullPointerException();
-    return fromImporto(Importo.parse(s));
+    return Optional.ofNullable(riconosci(s));
+  }
+
+  /**
+   * Riconosce la moneta scritta nella sequenza come importo, con lo stesso risultato di {@link
+   * #parse} ma senza creare un {@link Importo} o un {@link Optional}.
+   *
+   * <p>Le forme comuni (cifre, eventualmente con punto decimale, tra spazi) sono riconosciute
+   * direttamente; le altre (segno, esponente, più di due decimali non nulli, valori molto grandi o
+   * malformati) sono passate a {@link Importo#parse}, così che eccezioni e messaggi restino gli
+   * stessi.
+   *
+   * @param s sequenza da riconoscere
+   * @return la moneta, o null se s è un importo valido che non corrisponde a nessuna moneta
+   * @throws IllegalArgumentException se s non è un importo valido
+   */
+  public static Moneta riconosci(CharSequence s) {
+    Objects.requireNonNull(s);
+    return riconosci(s, 0, s.length());
+  }
+
+  // come riconosci(s), limitato ai caratteri di s con indice da da (incluso) ad a (escluso)
+  static Moneta riconosci(CharSequence s, int da, int a) {
+    int inizio = da;
+    int fine = a;
+    while (inizio < fine && s.charAt(inizio) <= ' ') inizio++;
+    while (fine > inizio && s.charAt(fine - 1) <= ' ') fine--;
+
+    long centesimi = 0;
+    int cifre = 0; // cifre significative della parte intera
+    boolean qualcuna = false;
+    int i = inizio;
+    for (; i < fine; i++) {
+      char c = s.charAt(i);
+      if (c < '0' || c > '9') break;
+      qualcuna = true;
+      if (cifre > 0 || c != '0') cifre++;
+      centesimi = centesimi * 10 + (c - '0');
+    }
+    centesimi *= 100;
+    if (i < fine && s.charAt(i) == '.') {
+      int decimali = 0;
+      for (i++; i < fine; i++, decimali++) {
+        char c = s.charAt(i);
+        if (c < '0' || c > '9') break;
+        qualcuna = true;
+        if (decimali == 0) centesimi += 10 * (c - '0');
+        else if (decimali == 1) centesimi += c - '0';
+        else if (c != '0') break; // frazione di centesimo: Importo.parse la rifiuta
+      }
+    }
+    if (i < fine || !qualcuna || cifre > MAX_CIFRE)
+      return fromImporto(Importo.parse(s.subSequence(da, a).toString())).orElse(null);
+    return fromCentesimi((int) centesimi);
+  }
+
+  /**
+   * Aggiunge la rappresentazione testuale della moneta (la stessa di {@link #toString()}) al
+   * builder.
+   *
+   * @param sb builder a cui aggiungerla
+   * @return sb
+   */
+  public StringBuilder appendTo(StringBuilder sb) {
+    return sb.append(testo);
+  }
+
+  /**
+   * Aggiunge la rappresentazione testuale della moneta (la stessa di {@link #toString()}) alla
+   * destinazione.
+   *
+   * @param a destinazione a cui aggiungerla
+   * @return a
+   * @throws IOException se la destinazione la solleva
+   */
+  public Appendable appendTo(Appendable a) throws IOException {
+    return a.append(testo);
   }
 
   @Override
   public String toString() {
-    return valore.toString();
+    return testo;
   }
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2025 Massimo Santini
+ *
+ * This file is part of "Programmazione 2 @ UniMI" teaching material.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this file.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package macchinette;
+
+/**
+ * Osservatore delle operazioni riuscite di un distributore.
+ *
+ * <p><strong>RI:</strong> nessun invariante specifico per l'interfaccia.
+ *
+ * <p><strong>AF:</strong> rappresenta un destinatario delle notifiche che un distributore emette,
+ * nel thread che esegue l'operazione, dopo ogni caricamento ed erogazione andati a buon fine; le
+ * implementazioni non devono modificare il distributore né gli aggregati ricevuti. Poiché
+ * l'operazione è già avvenuta, un'eccezione sollevata da una notifica non la annulla (vedi {@link
+ * Distributore#aggiungiOsservatore}).
+ */
+public interface OsservatoreDistributore {
+
+  /**
+   * Notifica un caricamento che ha inserito almeno un prodotto.
+   *
+   * @param prodotto prodotto caricato
+   * @param caricati numero di prodotti effettivamente caricati (&gt; 0)
+   */
+  default void caricato(Prodotto prodotto, int caricati) {}
+
+  /**
+   * Notifica un'erogazione riuscita.
+   *
+   * @param indiceBinario indice del binario da cui è stato erogato il prodotto
+   * @param pagamento monete inserite
+   * @param resto monete restituite
+   */
+  default void erogato(int indiceBinario, Aggregato pagamento, Aggregato resto) {}
+}
@@ -19,6 +19,7 @@
 
 package macchinette;
 
+import java.io.IOException;
 import java.util.Objects;
 
 /**
@@ -27,7 +28,8 @@ import java.util.Objects;
  * <p><strong>RI:</strong> nome non è null;
  * nome non è una stringa vuota o contenente solo spazi bianchi;
  * prezzo non è null;
- * taglia non è null.
+ * taglia non è null;
+ * hash è il codice hash di nome, prezzo e taglia (come Objects.hash(nome, prezzo, taglia)).
  *
  * <p><strong>AF:</strong> rappresenta un prodotto vendibile con un nome identificativo,
  * un prezzo in formato Importo e una taglia che ne determina le dimensioni fisiche.
@@ -37,6 +39,7 @@ public final class Prodotto implements Comparable<Prodotto> {
   private final String nome;
   private final Importo prezzo;
   private final Taglia taglia;
+  private final int hash;
 
   /**
    * Crea un prodotto.
@@ -53,6 +56,8 @@ public final class Prodotto implements Comparable<Prodotto> {
     this.nome = nome;
     this.prezzo = prezzo;
     this.taglia = taglia;
+    // stesso valore di Objects.hash(nome, prezzo, taglia), calcolato una volta sola
+    this.hash = 31 * (31 * (31 + nome.hashCode()) + prezzo.hashCode()) + taglia.hashCode();
   }
 
   /** Restituisce il nome. */
@@ -66,7 +71,7 @@ public final class Prodotto implements Comparable<Prodotto> {
   }
 
   /** Restituisce la taglia. */
-  Taglia taglia() {
+  public Taglia taglia() {
     return taglia;
   }
 
@@ -116,16 +121,46 @@ public final class Prodotto implements Comparable<Prodotto> {
     if (this == obj) return true;
     if (!(obj instanceof Prodotto)) return false;
     Prodotto other = (Prodotto) obj;
+    // prodotti con hash diversi sono certamente diversi: il confronto dei campi serve solo
+    // quando coincidono (istanze distinte di prodotti uguali o rare collisioni)
+    if (hash != other.hash) return false;
     return nome.equals(other.nome) && prezzo.equals(other.prezzo) && taglia.equals(other.taglia);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(nome, prezzo, taglia);
+    return hash;
+  }
+
+  /**
+   * Aggiunge la rappresentazione testuale del prodotto (la stessa di {@link #toString()}) al
+   * builder, senza creare stringhe intermedie.
+   *
+   * @param sb builder a cui aggiungerla
+   * @return sb
+   */
+  public StringBuilder appendTo(StringBuilder sb) {
+    sb.append('<').append(nome).append(", ");
+    return prezzo.appendTo(sb).append(", ").append(taglia).append('>');
+  }
+
+  /**
+   * Aggiunge la rappresentazione testuale del prodotto (la stessa di {@link #toString()}) alla
+   * destinazione.
+   *
+   * @param a destinazione a cui aggiungerla
+   * @return a
+   * @throws IOException se la destinazione la solleva
+   */
+  public Appendable appendTo(Appendable a) throws IOException {
+    Objects.requireNonNull(a);
+    if (a instanceof StringBuilder) return appendTo((StringBuilder) a);
+    a.append('<').append(nome).append(", ");
+    return prezzo.appendTo(a).append(", ").append(taglia.toString()).append('>');
   }
 
   @Override
   public String toString() {
-    return "<" + nome + ", " + prezzo + ", " + taglia + ">";
+    return appendTo(new StringBuilder()).toString();
   }
 }
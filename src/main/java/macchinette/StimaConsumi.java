@@ -0,0 +1,245 @@
+/*
+ * Copyright 2025 Massimo Santini
+ *
+ * This file is part of "Programmazione 2 @ UniMI" teaching material.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this file.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package macchinette;
+
+import java.util.Map;
+
+/**
+ * Stima incrementale, in memoria costante, della velocità di erogazione di ogni binario e di
+ * consumo di ogni moneta del fondo cassa di un distributore.
+ *
+ * <p>Ogni erogazione incrementa un contatore che decade esponenzialmente nel tempo, dimezzandosi
+ * ogni mezza vita: il contatore pesa ogni erogazione passata con exp(-età/tau), dove tau è la
+ * mezza vita divisa per ln 2, e diviso per tau stima il numero di erogazioni per unità di tempo
+ * nel passato recente. Aggiornare e leggere una stima costa un esponenziale e qualche
+ * moltiplicazione, indipendentemente dal numero di erogazioni registrate. Nel periodo iniziale,
+ * quando la stima ha osservato meno di qualche tau, la divisione è per tau(1 - exp(-t/tau)),
+ * dove t è il tempo di osservazione, così che la stima non parta da zero.
+ *
+ * <p>Per le monete le stime sono due, delle monete entrate con i pagamenti e di quelle uscite con
+ * i resti, aggiornate insieme a ogni erogazione; il consumo è la differenza. La stima di un binario
+ * ricomincia da zero, con un nuovo periodo iniziale, quando il binario vuoto è caricato con un
+ * prodotto diverso dall'ultimo che ha contenuto.
+ *
+ * <p>Come {@link FondoCassa}, separa le stime dal luogo in cui sono tenute: i contatori sono numeri
+ * reali e gli istanti interi a 64 bit, indicizzati come descritto sotto; la sottoclasse {@link
+ * Vettori} li tiene in due array sullo heap, mentre un distributore di una {@link FlottaFuoriHeap}
+ * li tiene nel segmento della flotta, così che le stime sopravvivano alle sue viste. Le sottoclassi
+ * devono garantire che, dopo reale(k, x) e istante(k, t), reale(k) e istante(k) siano x e t.
+ *
+ * <p><strong>RI:</strong> tau &gt; 0; binari &gt;= 0; tutti i contatori sono non negativi; gli
+ * istanti ultima[i], dal[i] e ultimaMonete non sono minori di inizio e ultima[i] non è minore di
+ * dal[i].
+ *
+ * <p><strong>AF:</strong> con erogazioni[i] = reale(i), entrate[m] = reale(binari + m), uscite[m]
+ * = reale(binari + M + m), ultima[i] = istante(i), dal[i] = istante(binari + i), prodotto[i] =
+ * istante(2 binari + i), ultimaMonete = istante(3 binari) e inizio = istante(3 binari + 1), dove M
+ * è il numero delle monete: erogazioni[i] è la somma, sulle erogazioni dal binario i tra l'istante
+ * dal[i] e l'istante ultima[i], di exp(-(ultima[i] - istante dell'erogazione)/tau); prodotto[i] è
+ * l'hash dell'ultimo prodotto caricato nel binario vuoto i, o NESSUNO; entrate[m] e uscite[m] sono
+ * le analoghe somme, fino all'istante ultimaMonete, delle monete di ordinale m entrate e uscite,
+ * ciascuna pesata con l'istante della sua erogazione; inizio è l'istante da cui si osservano le
+ * monete. Gli istanti sono in nanosecondi, come System.nanoTime().
+ */
+abstract class StimaConsumi {
+
+  /** Mezza vita predefinita delle stime, in nanosecondi (mezz'ora). */
+  static final long MEZZA_VITA = 30L * 60 * 1_000_000_000;
+
+  private static final Moneta[] MONETE = Moneta.values();
+  private static final double NANOSECONDI = 1e9;
+  // prodotto di un binario a cui non è ancora stato caricato nulla: diverso da ogni hash (int)
+  private static final long NESSUNO = Long.MIN_VALUE;
+
+  private final int binari;
+  private final double tau;
+
+  /**
+   * Crea le stime per un distributore con il numero di binari indicato; i contatori vanno
+   * inizializzati con {@link #azzera}, se non lo sono già.
+   *
+   * @param binari numero di binari
+   * @param mezzaVita mezza vita delle stime, in nanosecondi (&gt; 0)
+   */
+  StimaConsumi(int binari, long mezzaVita) {
+    if (binari < 0) throw new IllegalArgumentException("binari negativi");
+    if (mezzaVita <= 0) throw new IllegalArgumentException("mezza vita non positiva");
+    this.binari = binari;
+    this.tau = mezzaVita / Math.log(2);
+  }
+
+  /** Restituisce il numero di contatori delle stime per il numero di binari indicato. */
+  static int reali(int binari) {
+    return binari + 2 * MONETE.length;
+  }
+
+  /** Restituisce il numero di istanti delle stime per il numero di binari indicato. */
+  static int istanti(int binari) {
+    return 3 * binari + 2;
+  }
+
+  /** Restituisce il contatore di indice k. */
+  abstract double reale(int k);
+
+  /** Imposta il contatore di indice k. */
+  abstract void reale(int k, double x);
+
+  /** Restituisce l'istante di indice k. */
+  abstract long istante(int k);
+
+  /** Imposta l'istante di indice k. */
+  abstract void istante(int k, long t);
+
+  /** Riporta le stime all'assenza di erogazioni, osservate dall'istante indicato. */
+  final void azzera(long adesso) {
+    for (int k = 0, n = reali(binari); k < n; k++) reale(k, 0);
+    for (int i = 0; i < binari; i++) {
+      istante(i, adesso);
+      istante(binari + i, adesso);
+      istante(2 * binari + i, NESSUNO);
+    }
+    istante(3 * binari, adesso);
+    istante(3 * binari + 1, adesso);
+  }
+
+  // fattore di decadimento per il tempo trascorso da prima ad adesso (1 se non è avanzato)
+  private double decadimento(long prima, long adesso) {
+    return adesso > prima ? Math.exp(-(adesso - prima) / tau) : 1;
+  }
+
+  /**
+   * Registra il caricamento del prodotto indicato nel binario, che era vuoto (o il prodotto
+   * presente nel binario quando il distributore è creato): se il prodotto è diverso dall'ultimo
+   * caricato nel binario, la stima del binario ricomincia dall'istante indicato.
+   */
+  final void caricamento(int binario, Prodotto prodotto, long adesso) {
+    long hash = prodotto.hashCode();
+    if (istante(2 * binari + binario) == hash) return;
+    istante(2 * binari + binario, hash);
+    reale(binario, 0);
+    istante(binario, Math.max(adesso, istante(3 * binari + 1)));
+    istante(binari + binario, istante(binario));
+  }
+
+  /**
+   * Registra un'erogazione riuscita.
+   *
+   * @param binario indice del binario da cui è avvenuta
+   * @param pagamento monete entrate
+   * @param resto monete uscite
+   * @param adesso istante dell'erogazione
+   */
+  final void erogazione(int binario, Aggregato pagamento, Aggregato resto, long adesso) {
+    long ultima = istante(binario);
+    reale(binario, reale(binario) * decadimento(ultima, adesso) + 1);
+    istante(binario, Math.max(ultima, adesso));
+
+    long ultimaMonete = istante(3 * binari);
+    double d = decadimento(ultimaMonete, adesso);
+    for (int m = 0; m < MONETE.length; m++) {
+      reale(binari + m, reale(binari + m) * d);
+      reale(binari + MONETE.length + m, reale(binari + MONETE.length + m) * d);
+    }
+    for (Map.Entry<Moneta, Integer> e : pagamento) {
+      int k = binari + e.getKey().ordinal();
+      reale(k, reale(k) + e.getValue());
+    }
+    for (Map.Entry<Moneta, Integer> e : resto) {
+      int k = binari + MONETE.length + e.getKey().ordinal();
+      reale(k, reale(k) + e.getValue());
+    }
+    istante(3 * binari, Math.max(ultimaMonete, adesso));
+  }
+
+  // converte un contatore decaduto fino all'istante adesso, osservato dall'istante dal, in una
+  // frequenza al secondo
+  private double alSecondo(double contatore, long dal, long adesso) {
+    long trascorso = adesso - dal;
+    if (trascorso <= 0 || contatore == 0) return 0;
+    return contatore * NANOSECONDI / (tau * -Math.expm1(-trascorso / tau));
+  }
+
+  /** Restituisce la stima delle unità erogate al secondo dal binario indicato. */
+  final double velocita(int binario, long adesso) {
+    double contatore = reale(binario) * decadimento(istante(binario), adesso);
+    return alSecondo(contatore, istante(binari + binario), adesso);
+  }
+
+  /**
+   * Restituisce la stima del consumo al secondo della moneta indicata: monete uscite con i resti
+   * meno monete entrate con i pagamenti (negativa se la moneta si accumula).
+   */
+  final double consumo(Moneta moneta, long adesso) {
+    int m = moneta.ordinal();
+    double netto = reale(binari + MONETE.length + m) - reale(binari + m);
+    return alSecondo(
+        netto * decadimento(istante(3 * binari), adesso), istante(3 * binari + 1), adesso);
+  }
+
+  /**
+   * Restituisce il tempo stimato, in secondi, per consumare la quantità indicata a una data
+   * velocità: 0 se la quantità è nulla, infinito se la velocità non è positiva.
+   */
+  static double secondiPer(long quantita, double velocita) {
+    if (quantita <= 0) return 0;
+    return velocita > 0 ? quantita / velocita : Double.POSITIVE_INFINITY;
+  }
+
+  /** Stime tenute in due array sullo heap. */
+  static final class Vettori extends StimaConsumi {
+
+    private final double[] reali;
+    private final long[] istanti;
+
+    /**
+     * Crea le stime per un distributore con il numero di binari indicato, senza erogazioni.
+     *
+     * @param binari numero di binari
+     * @param mezzaVita mezza vita delle stime, in nanosecondi (&gt; 0)
+     * @param adesso istante di inizio dell'osservazione
+     */
+    Vettori(int binari, long mezzaVita, long adesso) {
+      super(binari, mezzaVita);
+      this.reali = new double[reali(binari)];
+      this.istanti = new long[istanti(binari)];
+      azzera(adesso);
+    }
+
+    @Override
+    double reale(int k) {
+      return reali[k];
+    }
+
+    @Override
+    void reale(int k, double x) {
+      reali[k] = x;
+    }
+
+    @Override
+    long istante(int k) {
+      return istanti[k];
+    }
+
+    @Override
+    void istante(int k, long t) {
+      istanti[k] = t;
+    }
+  }
+}
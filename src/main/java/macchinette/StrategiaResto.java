@@ -19,6 +19,8 @@
 
 package macchinette;
 
+import java.util.BitSet;
+import java.util.Objects;
 import java.util.Optional;
 
 /**
@@ -43,4 +45,75 @@ public interface StrategiaResto {
    * @return Optional con le monete per il resto, o empty se impossibile
    */
   Optional<Aggregato> calcola(Importo resto, Aggregato disponibile);
+
+  /**
+   * Restituisce il nome della strategia, con cui {@link #perNome} la ricostruisce; serve a
+   * registrare la strategia di un distributore nelle istantanee.
+   *
+   * <p>L'implementazione di default restituisce null: le strategie senza nome non possono essere
+   * ricostruite.
+   *
+   * @return il nome, o null se la strategia non ne ha uno
+   */
+  default String nome() {
+    return null;
+  }
+
+  /**
+   * Restituisce la strategia con il nome indicato: H, L, alternata, esatta, adattiva (con le
+   * soglie predefinite) o adattiva:scarsità:basse.
+   *
+   * @param nome nome della strategia
+   * @return la strategia
+   * @throws IllegalArgumentException se il nome non è quello di una strategia
+   */
+  static StrategiaResto perNome(String nome) {
+    Objects.requireNonNull(nome);
+    return switch (nome) {
+      case "H" -> StrategiaRestoH.INSTANCE;
+      case "L" -> StrategiaRestoL.INSTANCE;
+      case "alternata" -> StrategiaRestoAlternata.INSTANCE;
+      case "esatta" -> StrategiaRestoEsatta.INSTANCE;
+      case "adattiva" -> StrategiaRestoAdattiva.INSTANCE;
+      default -> {
+        String[] p = nome.split(":", -1);
+        if (p.length != 3 || !p[0].equals("adattiva"))
+          throw new IllegalArgumentException("strategia sconosciuta: " + nome);
+        try {
+          yield new StrategiaRestoAdattiva(Integer.parseInt(p[1]), Integer.parseInt(p[2]));
+        } catch (IllegalArgumentException e) {
+          throw new IllegalArgumentException("strategia sconosciuta: " + nome, e);
+        }
+      }
+    };
+  }
+
+  /**
+   * Calcola lo stesso resto per ogni riga di un lotto di aggregati disponibili.
+   *
+   * <p>La riga i di risultati, che viene portato ad avere tante righe quante disponibili, contiene
+   * le monete del resto calcolato dalla riga i di disponibili, o nessuna moneta se il resto non è
+   * calcolabile; il risultato è lo stesso di {@link #calcola(Importo, Aggregato)} applicato a ogni
+   * riga. L'implementazione di default fa proprio questo, una riga alla volta.
+   *
+   * @param resto importo da comporre
+   * @param disponibili monete disponibili, una riga per caso
+   * @param risultati lotto in cui scrivere i resti (diverso da disponibili)
+   * @return l'insieme degli indici delle righe per cui il resto è stato calcolato
+   */
+  default BitSet calcola(Importo resto, AggregatoBatch disponibili, AggregatoBatch risultati) {
+    Objects.requireNonNull(resto);
+    Objects.requireNonNull(disponibili);
+    Objects.requireNonNull(risultati);
+    if (disponibili == risultati) throw new IllegalArgumentException("lotti coincidenti");
+    int n = disponibili.righe();
+    risultati.azzera(0);
+    BitSet riuscite = new BitSet(n);
+    for (int i = 0; i < n; i++) {
+      Optional<Aggregato> r = calcola(resto, disponibili.aggregato(i));
+      risultati.aggiungi(r.orElseGet(Aggregato::new));
+      if (r.isPresent()) riuscite.set(i);
+    }
+    return riuscite;
+  }
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2025 Massimo Santini
+ *
+ * This file is part of "Programmazione 2 @ UniMI" teaching material.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this file.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package macchinette;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Strategia che sceglie a ogni calcolo del resto, in base alle monete disponibili, tra le
+ * strategie greedy e quella esatta.
+ *
+ * <p>La scelta guarda solo le quantità dei tagli utilizzabili (di valore non maggiore del resto):
+ * se uno di essi è presente ma scarso, con meno di {@code scarsita} monete, il resto è calcolato
+ * con {@link StrategiaRestoEsatta}, perché un greedy rischierebbe di esaurirlo o di fallire; se
+ * le monete basse (fino a 10 centesimi) utilizzabili sono almeno {@code basse}, con {@link
+ * StrategiaRestoL}, che smaltisce i tubi pieni di monete piccole; altrimenti con {@link
+ * StrategiaRestoH}. Se la strategia greedy scelta non trova il resto, si ricorre comunque a quella
+ * esatta: la strategia fallisce solo se il resto non è componibile.
+ *
+ * <p>Le soglie si possono ricavare da una sequenza di vendite passate con {@link #addestra}.
+ *
+ * <p><strong>RI:</strong> scarsita &gt;= 0 e basse &gt;= 0.
+ *
+ * <p><strong>AF:</strong> rappresenta la strategia descritta sopra, con le soglie scarsita e
+ * basse.
+ */
+public final class StrategiaRestoAdattiva implements StrategiaResto {
+
+  /** Strategia con le soglie predefinite (4 monete per la scarsità, 100 monete basse). */
+  public static final StrategiaRestoAdattiva INSTANCE = new StrategiaRestoAdattiva(4, 100);
+
+  // soglie provate da addestra
+  private static final int[] SCARSITA = {0, 1, 2, 4, 8, 16, 32};
+  private static final int[] BASSE = {0, 10, 20, 40, 80, 160, Integer.MAX_VALUE};
+
+  private static final Moneta[] MONETE = Moneta.values();
+  private static final int BASSA = 10; // valore massimo, in centesimi, di una moneta bassa
+
+  private final int scarsita;
+  private final int basse;
+
+  /**
+   * Crea la strategia con le soglie indicate.
+   *
+   * @param scarsita numero di monete sotto il quale un taglio utilizzabile è scarso (&gt;= 0)
+   * @param basse numero di monete basse utilizzabili dal quale si preferisce StrategiaRestoL
+   *     (&gt;= 0)
+   */
+  public StrategiaRestoAdattiva(int scarsita, int basse) {
+    if (scarsita < 0 || basse < 0) throw new IllegalArgumentException("soglia negativa");
+    this.scarsita = scarsita;
+    this.basse = basse;
+  }
+
+  /** Restituisce la soglia di scarsità. */
+  public int scarsita() {
+    return scarsita;
+  }
+
+  /** Restituisce la soglia delle monete basse. */
+  public int basse() {
+    return basse;
+  }
+
+  /**
+   * Restituisce la strategia con cui calcolare per prima il resto, in base alle monete
+   * disponibili.
+   */
+  StrategiaResto scegli(Importo resto, Aggregato disponibile) {
+    int r = resto.inCentesimi();
+    int numeroBasse = 0;
+    for (Moneta m : MONETE) {
+      int valore = m.valore().inCentesimi();
+      if (valore > r) break;
+      int q = disponibile.quantita(m);
+      if (q > 0 && q < scarsita) return StrategiaRestoEsatta.INSTANCE;
+      if (valore <= BASSA) numeroBasse += q;
+    }
+    return numeroBasse >= basse ? StrategiaRestoL.INSTANCE : StrategiaRestoH.INSTANCE;
+  }
+
+  @Override
+  public Optional<Aggregato> calcola(Importo resto, Aggregato disponibile) {
+    Objects.requireNonNull(resto);
+    Objects.requireNonNull(disponibile);
+
+    if (resto.equals(Importo.ZERO)) return Optional.of(new Aggregato());
+    StrategiaResto scelta = scegli(resto, disponibile);
+    Optional<Aggregato> risultato = scelta.calcola(resto, disponibile);
+    if (risultato.isEmpty() && scelta != StrategiaRestoEsatta.INSTANCE)
+      risultato = StrategiaRestoEsatta.INSTANCE.calcola(resto, disponibile);
+    return risultato;
+  }
+
+  /**
+   * Ricava le soglie da una sequenza di vendite passate.
+   *
+   * <p>Per ogni coppia di soglie di una griglia prefissata, ripete le vendite a partire dal fondo
+   * cassa indicato, calcolando i resti con la strategia adattiva che usa quelle soglie: una
+   * vendita riuscita aggiunge il pagamento al fondo cassa e ne toglie il resto, una il cui resto
+   * non è componibile lo lascia invariato. Restituisce la strategia con meno vendite non riuscite
+   * e, a parità, con meno ricorsi alla strategia esatta, che è la più costosa.
+   *
+   * @param fondoCassa fondo cassa all'inizio della sequenza
+   * @param prezzi prezzi dei prodotti venduti, in ordine
+   * @param pagamenti pagamenti corrispondenti (ciascuno di valore non minore del prezzo)
+   * @return la strategia con le soglie migliori sulla sequenza
+   * @throws IllegalArgumentException se le liste hanno lunghezze diverse o un pagamento è minore
+   *     del prezzo
+   */
+  public static StrategiaRestoAdattiva addestra(
+      Aggregato fondoCassa, List<Importo> prezzi, List<Aggregato> pagamenti) {
+    Objects.requireNonNull(fondoCassa);
+    Objects.requireNonNull(prezzi);
+    Objects.requireNonNull(pagamenti);
+    if (prezzi.size() != pagamenti.size())
+      throw new IllegalArgumentException("prezzi e pagamenti in numero diverso");
+    Importo[] resti = new Importo[prezzi.size()];
+    for (int i = 0; i < resti.length; i++)
+      resti[i] = pagamenti.get(i).valoreTotale().sottrai(prezzi.get(i));
+
+    StrategiaRestoAdattiva migliore = null;
+    long fallimentiMigliore = Long.MAX_VALUE;
+    long esatteMigliore = Long.MAX_VALUE;
+    for (int s : SCARSITA)
+      for (int b : BASSE) {
+        StrategiaRestoAdattiva candidata = new StrategiaRestoAdattiva(s, b);
+        long fallimenti = 0;
+        long esatte = 0;
+        Aggregato fondo = new Aggregato(fondoCassa);
+        for (int i = 0; i < resti.length; i++) {
+          Aggregato disponibile = new Aggregato(fondo);
+          disponibile.aggiungi(pagamenti.get(i));
+          StrategiaResto scelta = candidata.scegli(resti[i], disponibile);
+          Optional<Aggregato> resto = scelta.calcola(resti[i], disponibile);
+          if (scelta == StrategiaRestoEsatta.INSTANCE) esatte++;
+          else if (resto.isEmpty()) {
+            esatte++;
+            resto = StrategiaRestoEsatta.INSTANCE.calcola(resti[i], disponibile);
+          }
+          if (resto.isEmpty()) {
+            fallimenti++;
+            continue;
+          }
+          try {
+            disponibile.rimuovi(resto.get());
+          } catch (AggregatoInsufficienteException e) {
+            throw new AssertionError(e);
+          }
+          fondo = disponibile;
+        }
+        if (fallimenti < fallimentiMigliore
+            || fallimenti == fallimentiMigliore && esatte < esatteMigliore) {
+          migliore = candidata;
+          fallimentiMigliore = fallimenti;
+          esatteMigliore = esatte;
+        }
+      }
+    return migliore;
+  }
+
+  @Override
+  public String nome() {
+    return "adattiva:" + scarsita + ":" + basse;
+  }
+
+  @Override
+  public String toString() {
+    return "StrategiaRestoAdattiva[scarsita=" + scarsita + ", basse=" + basse + "]";
+  }
+}
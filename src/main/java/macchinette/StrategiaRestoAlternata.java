@@ -77,6 +77,11 @@ public class StrategiaRestoAlternata implements StrategiaResto {
     return Optional.of(risultato);
   }
 
+  @Override
+  public String nome() {
+    return "alternata";
+  }
+
   @Override
   public String toString() {
     return "StrategiaRestoAlternata";
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2025 Massimo Santini
+ *
+ * This file is part of "Programmazione 2 @ UniMI" teaching material.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this file.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package macchinette;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Strategia esatta che compone il resto con il minor numero possibile di monete.
+ *
+ * <p>Il resto è calcolato con la programmazione dinamica sui valori da 0 al resto, in centesimi:
+ * le monete di ogni taglio utilizzabili (al più quelle disponibili, e non più di quante ne
+ * servirebbero da sole) sono scomposte in gruppi di 1, 2, 4, ... monete, ciascuno usato al più
+ * una volta, così che il costo cresca con il logaritmo delle quantità e non con le quantità. Il
+ * tempo è proporzionale al resto per il numero di gruppi, in genere poche decine.
+ *
+ * <p>Per ricostruire la soluzione servono, oltre a r + 1 interi per r centesimi di resto, r/64 + 1
+ * long per gruppo: per un resto di 10 euro e 60 gruppi, circa 8 KB. Questi buffer sono riusati tra
+ * i calcoli dello stesso thread e crescono solo con il resto più grande calcolato finora, così che
+ * un calcolo in genere non allochi memoria; oltre {@value #MASSIMO_RIUSATO} elementi, sono allocati
+ * a ogni calcolo e non trattenuti.
+ *
+ * <p><strong>RI:</strong> garantito dal pattern Singleton; esiste una sola istanza accessibile
+ * tramite INSTANCE.
+ *
+ * <p><strong>AF:</strong> rappresenta la strategia di calcolo del resto che, se esiste un modo di
+ * comporre il resto con le monete disponibili, lo trova sempre, scegliendo tra i modi possibili
+ * uno con il minor numero di monete.
+ *
+ * <p>A differenza delle strategie greedy, trova sempre una soluzione se esiste.
+ */
+public class StrategiaRestoEsatta implements StrategiaResto {
+
+  public static final StrategiaRestoEsatta INSTANCE = new StrategiaRestoEsatta();
+
+  private static final Moneta[] MONETE = Moneta.values();
+  private static final int IMPOSSIBILE = Integer.MAX_VALUE;
+  private static final int MASSIMO_RIUSATO = 1 << 16; // elementi dei buffer trattenuti per thread
+
+  // buffer di un thread; gruppoMoneta e gruppoQuantita hanno posto per 32 gruppi per moneta, uno
+  // per bit della quantità
+  private static final class Buffer {
+    private final int[] gruppoMoneta = new int[MONETE.length * 32];
+    private final int[] gruppoQuantita = new int[gruppoMoneta.length];
+    private int[] minimo = new int[0];
+    private long[] preso = new long[0];
+  }
+
+  private static final ThreadLocal<Buffer> BUFFER = ThreadLocal.withInitial(Buffer::new);
+
+  private StrategiaRestoEsatta() {}
+
+  @Override
+  public Optional<Aggregato> calcola(Importo resto, Aggregato disponibile) {
+    Objects.requireNonNull(resto);
+    Objects.requireNonNull(disponibile);
+
+    if (resto.equals(Importo.ZERO)) return Optional.of(new Aggregato());
+    if (disponibile.valoreTotale().minoreDi(resto)) return Optional.empty();
+
+    int r = resto.inCentesimi();
+    Buffer buffer = BUFFER.get();
+    // gruppi di monete: gruppoMoneta[j] monete di tipo MONETE[gruppoMoneta[j]], in numero
+    // gruppoQuantita[j]
+    int[] gruppoMoneta = buffer.gruppoMoneta;
+    int[] gruppoQuantita = buffer.gruppoQuantita;
+    int gruppi = 0;
+    for (int m = 0; m < MONETE.length; m++) {
+      int valore = MONETE[m].valore().inCentesimi();
+      int q = Math.min(disponibile.quantita(MONETE[m]), r / valore);
+      for (int k = 1; q > 0; k *= 2) {
+        int g = Math.min(k, q);
+        gruppoMoneta[gruppi] = m;
+        gruppoQuantita[gruppi++] = g;
+        q -= g;
+      }
+    }
+
+    // minimo[x] è il minor numero di monete, tra i gruppi considerati, che compone x centesimi;
+    // la riga j di preso, di parole long a partire da j * parole, ha il bit x acceso se la
+    // soluzione per x con i primi j+1 gruppi usa il gruppo j
+    int[] minimo = buffer.minimo;
+    if (minimo.length < r + 1) {
+      minimo = new int[r + 1];
+      if (minimo.length <= MASSIMO_RIUSATO) buffer.minimo = minimo;
+    }
+    Arrays.fill(minimo, 0, r + 1, IMPOSSIBILE);
+    minimo[0] = 0;
+    int parole = (r >> 6) + 1;
+    long[] preso = buffer.preso;
+    if (preso.length < gruppi * parole) {
+      preso = new long[gruppi * parole];
+      if (preso.length <= MASSIMO_RIUSATO) buffer.preso = preso;
+    } else {
+      Arrays.fill(preso, 0, gruppi * parole, 0);
+    }
+    for (int j = 0; j < gruppi; j++) {
+      int k = gruppoQuantita[j];
+      int v = k * MONETE[gruppoMoneta[j]].valore().inCentesimi();
+      for (int x = r; x >= v; x--) {
+        int prima = minimo[x - v];
+        if (prima != IMPOSSIBILE && prima + k < minimo[x]) {
+          minimo[x] = prima + k;
+          preso[j * parole + (x >> 6)] |= 1L << x;
+        }
+      }
+    }
+    if (minimo[r] == IMPOSSIBILE) return Optional.empty();
+
+    Aggregato risultato = new Aggregato();
+    int x = r;
+    for (int j = gruppi - 1; j >= 0 && x > 0; j--) {
+      if ((preso[j * parole + (x >> 6)] & 1L << x) == 0) continue;
+      Moneta m = MONETE[gruppoMoneta[j]];
+      risultato.aggiungi(m, gruppoQuantita[j]);
+      x -= gruppoQuantita[j] * m.valore().inCentesimi();
+    }
+    return Optional.of(risultato);
+  }
+
+  @Override
+  public String nome() {
+    return "esatta";
+  }
+
+  @Override
+  public String toString() {
+    return "StrategiaRestoEsatta";
+  }
+}
@@ -19,6 +19,7 @@
 
 package macchinette;
 
+import java.util.BitSet;
 import java.util.Objects;
 import java.util.Optional;
 
@@ -74,6 +75,18 @@ public class StrategiaRestoH implements StrategiaResto {
     }
   }
 
+  /** Calcola i resti di tutte le righe una moneta alla volta, su ciascuna colonna del lotto. */
+  @Override
+  public BitSet calcola(Importo resto, AggregatoBatch disponibili, AggregatoBatch risultati) {
+    if (disponibili == risultati) throw new IllegalArgumentException("lotti coincidenti");
+    return AggregatoBatch.greedy(resto, disponibili, risultati, true);
+  }
+
+  @Override
+  public String nome() {
+    return "H";
+  }
+
   @Override
   public String toString() {
     return "StrategiaRestoH";